@@ -0,0 +1,40 @@
+package com.underplex.tranopolis;
+
+/**
+ * Skeletal implementation of <tt>Drivable</tt> that keeps track of the <tt>FlowScheduler</tt> to notify when new work arrives.
+ */
+public abstract class AbstractDrivable implements Drivable {
+
+	private FlowScheduler scheduler;
+	private int graphIndex;
+	
+	public AbstractDrivable(){
+		this.scheduler = null;
+		this.graphIndex = -1;
+	}
+	
+	@Override
+	public int getGraphIndex(){
+		return graphIndex;
+	}
+	
+	@Override
+	public void setGraphIndex(int index){
+		this.graphIndex = index;
+	}
+	
+	@Override
+	public void setFlowScheduler(FlowScheduler scheduler){
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Notifies the <tt>FlowScheduler</tt> of this, if any, that this has new Drives to process.
+	 */
+	protected void wake(){
+		if (scheduler != null){
+			scheduler.wake(this);
+		}
+	}
+	
+}
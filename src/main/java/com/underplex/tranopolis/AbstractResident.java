@@ -2,6 +2,8 @@ package com.underplex.tranopolis;
 
 import java.time.LocalDateTime;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents an individual living and working in the city.
@@ -11,8 +13,12 @@ import java.util.Set;
  */
 public abstract class AbstractResident implements Resident {
 
-	private static long counter = 0;
+	private static final AtomicLong COUNTER = new AtomicLong(); // safe to make Residents from several threads
+	private static final RandomManager DEFAULT_RANDOMS = new RandomManager(RandomManager.DEFAULT_SEED);
+	private final long number; // order in which this was made, from 1
 	private final String id;
+	private RandomManager randoms; // of the city this lives in, or null if none yet
+	private long randomKey; // key of this among the Residents of that city
 	private Location home; // where person lives
 	private Location work; // where person works
 	private Location currentLocation; // current currentLocation
@@ -23,7 +29,10 @@ public abstract class AbstractResident implements Resident {
 	 * @param home AbstractResident's home
 	 */
 	public AbstractResident(Location home, Location work){
-		this.id = Long.toString(++counter);
+		this.number = COUNTER.incrementAndGet();
+		this.id = Long.toString(number);
+		this.randoms = null;
+		this.randomKey = number;
 		this.home = home;
 		this.work = work;
 		this.currentLocation = home;
@@ -35,6 +44,49 @@ public abstract class AbstractResident implements Resident {
 	}
 	
 
+	/**
+	 * Returns number of this Resident, counting every AbstractResident made from 1 in the order they were made.
+	 */
+	public long getNumber(){
+		return number;
+	}
+	
+	/**
+	 * Returns source of random choices for this Resident alone at <tt>time</tt>.
+	 * <p>
+	 * It is drawn from the city's <tt>RandomManager</tt> by the key this was given when added to the city, so choices don't depend on which
+	 * thread plans for whom, in what order, or on how many Residents were made before. Until this is added to a city, it is drawn from the
+	 * default seed by the number of this.
+	 * @param time LocalDateTime the choices are made at
+	 */
+	protected SplittableRandom getRandom(LocalDateTime time){
+		RandomManager source = (randoms == null) ? DEFAULT_RANDOMS : randoms;
+		return source.stream(randomKey, SimTime.toSeconds(time));
+	}
+
+	/**
+	 * Has this draw its random choices from <tt>randoms</tt> by <tt>key</tt>, as when added to a city.
+	 */
+	void setRandomKey(RandomManager randoms, long key){
+		this.randoms = randoms;
+		this.randomKey = key;
+	}
+	
+	long getRandomKey(){
+		return randomKey;
+	}
+	
+	/**
+	 * Returns Drive this last started, or <tt>null</tt> if none.
+	 */
+	Drive getDrive(){
+		return drive;
+	}
+	
+	void setDrive(Drive drive){
+		this.drive = drive;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.underplex.tranopolis.Resident#planDrives(java.time.LocalDateTime, com.underplex.tranopolis.DrivableGraph, java.time.LocalDateTime, java.time.LocalDateTime)
 	 */
@@ -112,5 +164,4 @@ public abstract class AbstractResident implements Resident {
 		}
 		return false;
 	}
-
 }
@@ -4,7 +4,6 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.HashSet;
-import java.util.Random;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -45,13 +44,10 @@ public class BasicResident extends AbstractResident implements Resident {
 			if (begin.getHour() >= 7 && 
 					begin.getHour() <= 8 &&
 					!hasGoneToWork){
-				LOGGER.info("Adding a commute to work...");
 				// find a home path
-				if (toWork == null){
-					toWork = findPreferred(graph, getHome(), getWork());
-				}
+				toWork = findPreferred(graph, getHome(), getWork());
 				
-				LocalDateTime startTime = date.atTime(7, 0).plusMinutes(new Random().nextInt(121));
+				LocalDateTime startTime = date.atTime(7, 0).plusMinutes(getRandom(begin).nextInt(121));
 				LocalDateTime dropTime = date.atTime(9, 0);
 				
 				drive = new Drive(toWork, this, startTime, this.getHome(), this.getWork(), dropTime);
@@ -60,11 +56,8 @@ public class BasicResident extends AbstractResident implements Resident {
 					begin.getHour() <= 23 &&
 					hasGoneToWork){
 				// find a work path
-				LOGGER.info("Adding a commute home...");
-				if (toHome == null){
-					toHome = findPreferred(graph, getWork(), getHome());
-				}
-				LocalDateTime startTime = date.atTime(16, 0).plusMinutes(new Random().nextInt(121));
+				toHome = findPreferred(graph, getWork(), getHome());
+				LocalDateTime startTime = date.atTime(16, 0).plusMinutes(getRandom(begin).nextInt(121));
 				LocalDateTime dropTime = date.atTime(23, 0);
 
 				drive = new Drive(toHome, this, startTime, this.getWork(), this.getHome(), dropTime);
@@ -81,12 +74,18 @@ public class BasicResident extends AbstractResident implements Resident {
 	
 	/**
 	 * Find the preferred path of this resident to get from one place to another.
+	 * <p>
+	 * Paths on the city's current graph come from its shared <tt>RouteCache</tt>, and are the fastest given the traffic when they were found.
 	 * @param graph
 	 * @param begin
 	 * @param terminus
 	 * @return
 	 */
 	private GraphPath<Drivable, Drivable> findPreferred(DrivableGraph graph,Location begin, Location terminus){
+		DrivableGraphManager manager = graph.getCity().getGraphManager();
+		if (manager.getCurrentGraph() == graph){
+			return manager.getRouteCache().getRoute(begin, terminus);
+		}
 		DijkstraShortestPath<Drivable, Drivable> dsp = new DijkstraShortestPath<Drivable, Drivable>(graph);
 		return dsp.getPath(begin, terminus);
 		
@@ -0,0 +1,497 @@
+package com.underplex.tranopolis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.graph.GraphWalk;
+
+/**
+ * Utility class for saving the whole state of a running <tt>City</tt> to a file and restoring it, so that a simulation can carry on from
+ * where it was without simulating everything before again.
+ * <p>
+ * A checkpoint holds, after the int <tt>MAGIC</tt> and <tt>VERSION</tt>, the city as a map file (see <tt>CityMap</tt>), whose start is the
+ * current time, followed by:
+ * <ul>
+ * <li>the seed of the <tt>RandomManager</tt>, the flow mode, the number of regions used in <tt>FlowMode.PARTITIONED</tt>, and whether Locations
+ * keep finished Drives;</li>
+ * <li>a table of the Drivables of the current graph, each described by the Lots and Locations it is made of, in an order that doesn't
+ * depend on graph indices, so that the Drivables of the restored graph can be matched to it;</li>
+ * <li>each Resident, with its home, work, where it is, its key for random choices and the paths it last planned;</li>
+ * <li>each Drive not yet finished, dropped or aborted, with its route and where it is along it;</li>
+ * <li>the schedule of upcoming Drives, Drives waiting to begin in <tt>FlowMode.EVENT_DRIVEN</tt>, the Drives waiting to turn on from each
+ * Location, and the ETAs of the Drives on each Road;</li>
+ * <li>the counts of finished Drives kept by Locations and the totals of the <tt>DriveArchive</tt>.</li>
+ * </ul>
+ * Things that are worked out again from these, like the compact graph and the route cache, aren't saved, and neither are finished Drives
+ * kept by Locations, the records of the archive, or the <tt>Tracer</tt>. Drives and Residents are numbered anew when restored, Drives in the
+ * order saved, but Residents keep the keys their city gave them, which archive records name drivers by. Only <tt>BasicResident</tt>s can be saved, and every Drive not yet retired must be routed over Drivables of the current graph.
+ * <p>
+ * In <tt>FlowMode.EVENT_DRIVEN</tt>, Drivables are woken at their next flow time when the restored city next advances, so one blocked by
+ * traffic ahead is retried then rather than after the usual delay.
+ */
+public class Checkpoint {
+
+	public static final int MAGIC = 0x54434b50; // "TCKP"
+	public static final int VERSION = 3;
+
+	// kinds of Drivables in the table
+	private static final byte XING = 0;
+	private static final byte LOCATION = 1;
+	private static final byte ROAD = 2;
+	private static final byte ENTRANCE = 3; // Parking from an Xing into a Location
+	private static final byte EXIT = 4; // Parking from a Location out to an Xing
+
+	private static final byte BASIC_RESIDENT = 1;
+
+	private static final DriveDisposition[] DISPOSITIONS = DriveDisposition.values();
+	private static final FlowMode[] FLOW_MODES = FlowMode.values();
+
+	private Checkpoint() {
+		// don't instantiate
+	}
+
+	/**
+	 * Saves the state of <tt>city</tt> to <tt>file</tt>.
+	 * @param city City to save, between calls to <tt>advance</tt>
+	 * @param file Path of file to write, replaced if it exists
+	 * @throws IOException if the file can't be written
+	 * @throws IllegalStateException if the city has Residents other than BasicResidents, or Drives routed off the current graph
+	 */
+	public static void save(City city, Path file) throws IOException {
+		if (city == null) throw new IllegalArgumentException("Parameter city may not be null.");
+		if (file == null) throw new IllegalArgumentException("Parameter file may not be null.");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+			save(city, out);
+		}
+	}
+
+	private static void save(City city, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		CityMap.write(city, out);
+
+		TrafficManager traffic = city.getTrafficManager();
+		ResidentManager residentManager = city.getResidentManager();
+		out.writeLong(city.getRandomManager().getSeed());
+		out.writeByte(traffic.getFlowMode().ordinal());
+		out.writeInt(traffic.getFlowRegions());
+		out.writeBoolean(city.getLocationManager().isKeepingFinishedDrives());
+
+		// Drivables
+		List<Location> locations = CityMap.getLocations(city);
+		Map<Location, Integer> locationNumbers = new HashMap<>();
+		for (Location loc : locations){
+			locationNumbers.put(loc, locationNumbers.size());
+		}
+		List<Key> table = makeTable(city, locationNumbers);
+		Map<Drivable, Integer> refs = new HashMap<>();
+		out.writeInt(table.size());
+		for (Key key : table){
+			refs.put(key.drivable, refs.size());
+			out.writeByte(key.kind);
+			out.writeInt(key.a);
+			out.writeInt(key.b);
+		}
+
+		// every Drive not yet retired, in the order it's first come across
+		Map<Drive, Integer> drives = new LinkedHashMap<>();
+		SortedMap<Long, List<Drive>> buckets = residentManager.getSchedule().getBuckets();
+		for (List<Drive> bucket : buckets.values()){
+			number(drives, bucket);
+		}
+		EventScheduler events = traffic.getEventScheduler();
+		List<Drive> pending = (events == null) ? Collections.<Drive>emptyList() : events.getPendingStarts();
+		number(drives, pending);
+		List<Map<Drivable, List<Drive>>> turnOns = new ArrayList<>();
+		for (Location loc : locations){
+			Map<Drivable, List<Drive>> waiting = sortByRef(loc.getTurnOns(), refs);
+			turnOns.add(waiting);
+			for (List<Drive> list : waiting.values()){
+				number(drives, list);
+			}
+		}
+		List<Road> roads = new ArrayList<>();
+		for (Key key : table){
+			if (key.drivable instanceof Road){
+				Road road = (Road) key.drivable;
+				roads.add(road);
+				for (Road.Eta eta : road.getEtas()){
+					number(drives, Collections.singletonList(eta.getDrive()));
+				}
+			}
+		}
+
+		// Residents
+		List<Resident> residents = residentManager.getResidentsInOrder();
+		Map<Resident, Integer> residentNumbers = new IdentityHashMap<>();
+		out.writeInt(residents.size());
+		out.writeLong(residentManager.getLastRandomKey());
+		for (Resident r : residents){
+			if (!(r instanceof BasicResident)) throw new IllegalStateException("Only BasicResidents can be saved, not " + r + ".");
+			BasicResident rez = (BasicResident) r;
+			residentNumbers.put(r, residentNumbers.size());
+			out.writeByte(BASIC_RESIDENT);
+			out.writeInt(number(locationNumbers, rez.getHome()));
+			out.writeInt(number(locationNumbers, rez.getWork()));
+			out.writeInt(number(locationNumbers, rez.getCurrentLocation()));
+			out.writeLong(rez.getRandomKey());
+			out.writeBoolean(rez.hasGoneToWork);
+			writePath(out, rez.toWork, refs);
+			writePath(out, rez.toHome, refs);
+		}
+
+		// Drives
+		out.writeInt(drives.size());
+		for (Drive d : drives.keySet()){
+			Integer driver = residentNumbers.get(d.getDriver());
+			if (driver == null) throw new IllegalStateException(d + " is driven by a Resident the city doesn't have.");
+			out.writeInt(driver);
+			out.writeInt(number(locationNumbers, (Location) d.getOnPoint()));
+			out.writeInt(number(locationNumbers, (Location) d.getOffPoint()));
+			out.writeLong(d.getAttemptStartSecond());
+			out.writeLong(d.getDropSecond());
+			out.writeByte(d.getDisposition().ordinal());
+			out.writeLong(d.getActualStartSecond());
+			out.writeLong(d.getActualEndSecond());
+			out.writeInt(d.getCursor());
+			if (!writePath(out, d.getGraphPath(), refs)) throw new IllegalStateException(d + " is routed over Drivables no longer in the graph.");
+		}
+		for (Resident r : residents){
+			Integer drive = drives.get(((AbstractResident) r).getDrive());
+			out.writeInt((drive == null) ? -1 : drive);
+		}
+
+		// where the Drives are
+		out.writeLong(residentManager.getSchedule().getCursor());
+		out.writeInt(residentManager.getSchedule().size());
+		for (Map.Entry<Long, List<Drive>> e : buckets.entrySet()){
+			for (Drive d : e.getValue()){
+				out.writeLong(e.getKey());
+				out.writeInt(drives.get(d));
+			}
+		}
+		out.writeInt(pending.size());
+		for (Drive d : pending){
+			out.writeInt(drives.get(d));
+		}
+		for (int i = 0; i < locations.size(); i++){
+			out.writeInt(locations.get(i).getFinishedCount());
+			out.writeLong(locations.get(i).getFinishedSeconds());
+			out.writeInt(turnOns.get(i).size());
+			for (Map.Entry<Drivable, List<Drive>> e : turnOns.get(i).entrySet()){
+				out.writeInt(refs.get(e.getKey()));
+				out.writeInt(e.getValue().size());
+				for (Drive d : e.getValue()){
+					out.writeInt(drives.get(d));
+				}
+			}
+		}
+		for (Road road : roads){
+			List<Road.Eta> etas = road.getEtas();
+			out.writeLong(road.getEtaCounter());
+			out.writeInt(etas.size());
+			for (Road.Eta eta : etas){
+				out.writeInt(drives.get(eta.getDrive()));
+				out.writeLong(eta.getTime());
+				out.writeLong(eta.getSequence());
+			}
+		}
+
+		DriveArchive archive = residentManager.getArchive();
+		out.writeLong(archive.getRetiredCount());
+		out.writeLong(archive.getFinishedCount());
+		out.writeLong(archive.getDroppedCount());
+		out.writeLong(archive.getAbortedCount());
+		out.writeLong(archive.getFinishedSeconds());
+	}
+
+	/**
+	 * Returns City restored from a checkpoint, with packed Lots.
+	 * @see #restore(Path, boolean)
+	 */
+	public static City restore(Path file) throws IOException {
+		return restore(file, true);
+	}
+
+	/**
+	 * Returns City restored from a checkpoint, ready to advance from the time it was saved at.
+	 * @param file Path of checkpoint to restore
+	 * @param packedLots true iff the City should keep its Lots packed
+	 * @return City as it was saved
+	 * @throws IOException if the file can't be read or isn't a checkpoint this can restore
+	 */
+	public static City restore(Path file, boolean packedLots) throws IOException {
+		if (file == null) throw new IllegalArgumentException("Parameter file may not be null.");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) throw new IOException(file + " is not a checkpoint.");
+			int version = buffer.getInt();
+			if (version != VERSION) throw new IOException(file + " is a checkpoint of version " + version + ", not " + VERSION + ".");
+			City city = CityMap.read(buffer, packedLots, file.toString());
+			restore(city, buffer, file.toString());
+			return city;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException(file + " is not a complete checkpoint.", e);
+		}
+	}
+
+	private static void restore(City city, ByteBuffer in, String source) throws IOException {
+		TrafficManager traffic = city.getTrafficManager();
+		ResidentManager residentManager = city.getResidentManager();
+		city.getRandomManager().setSeed(in.getLong());
+		traffic.setFlowMode(FLOW_MODES[in.get()]);
+		traffic.setFlowRegions(in.getInt());
+		city.getLocationManager().setKeepingFinishedDrives(in.get() != 0);
+
+		// Drivables, matched to those of the graph found from the map
+		List<Location> locations = CityMap.getLocations(city);
+		Map<Location, Integer> locationNumbers = new HashMap<>();
+		for (Location loc : locations){
+			locationNumbers.put(loc, locationNumbers.size());
+		}
+		List<Key> table = makeTable(city, locationNumbers);
+		int count = in.getInt();
+		if (count != table.size()) throw new IOException(source + " has " + count + " Drivables, but its map has " + table.size() + ".");
+		Drivable[] drivables = new Drivable[count];
+		for (int i = 0; i < count; i++){
+			Key key = table.get(i);
+			if (in.get() != key.kind || in.getInt() != key.a || in.getInt() != key.b) throw new IOException(source + " has Drivables its map doesn't.");
+			drivables[i] = key.drivable;
+		}
+
+		// Residents
+		DrivableGraph graph = city.getRoadGraph();
+		Resident[] residents = new Resident[in.getInt()];
+		long lastRandomKey = in.getLong();
+		for (int i = 0; i < residents.length; i++){
+			if (in.get() != BASIC_RESIDENT) throw new IOException(source + " has a Resident of unknown kind.");
+			Location home = location(locations, in.getInt());
+			BasicResident rez = new BasicResident(home, location(locations, in.getInt()));
+			Location current = location(locations, in.getInt());
+			residentManager.addResidents(Collections.<Resident>singleton(rez));
+			if (current != home){
+				home.removeResident(rez);
+				rez.setCurrentLocation(current);
+				if (current != null){
+					current.addResident(rez);
+				}
+			}
+			rez.setRandomKey(city.getRandomManager(), in.getLong());
+			rez.hasGoneToWork = in.get() != 0;
+			rez.toWork = readPath(in, graph, drivables);
+			rez.toHome = readPath(in, graph, drivables);
+			residents[i] = rez;
+		}
+		residentManager.setLastRandomKey(lastRandomKey);
+
+		// Drives
+		Drive[] drives = new Drive[in.getInt()];
+		for (int i = 0; i < drives.length; i++){
+			Resident driver = residents[in.getInt()];
+			Location start = location(locations, in.getInt());
+			Location end = location(locations, in.getInt());
+			long attempt = in.getLong();
+			long drop = in.getLong();
+			DriveDisposition disposition = DISPOSITIONS[in.get()];
+			long actualStart = in.getLong();
+			long actualEnd = in.getLong();
+			int cursor = in.getInt();
+			GraphPath<Drivable, Drivable> path = readPath(in, graph, drivables);
+			if (path == null) throw new IOException("Drive " + i + " in " + source + " has no route.");
+			drives[i] = new Drive(path, driver, attempt, drop, start, end, disposition, actualStart, actualEnd, cursor);
+			residentManager.number(drives[i]);
+			if (disposition == DriveDisposition.BEGUN){
+				city.getGraphManager().addRouted(drives[i], path.getEdgeList());
+			}
+		}
+		for (Resident r : residents){
+			int drive = in.getInt();
+			((AbstractResident) r).setDrive((drive < 0) ? null : drives[drive]);
+		}
+
+		// where the Drives are
+		DriveSchedule schedule = residentManager.getSchedule();
+		schedule.setCursor(in.getLong());
+		for (int i = in.getInt(); i > 0; i--){
+			schedule.restore(in.getLong(), drives[in.getInt()]);
+		}
+		for (int i = in.getInt(); i > 0; i--){
+			traffic.getEventScheduler().scheduleStart(drives[in.getInt()]);
+		}
+		for (Location loc : locations){
+			loc.restoreFinished(in.getInt(), in.getLong());
+			for (int i = in.getInt(); i > 0; i--){
+				Drivable exit = drivables[in.getInt()];
+				for (int j = in.getInt(); j > 0; j--){
+					Drive d = drives[in.getInt()];
+					if (!exit.equals(d.getGraphPath().getEdgeList().get(0))) throw new IOException(d + " in " + source + " waits to turn onto the wrong Drivable.");
+					loc.turnOn(d);
+				}
+			}
+		}
+		for (Key key : table){
+			if (key.drivable instanceof Road){
+				Road road = (Road) key.drivable;
+				road.setEtaCounter(in.getLong());
+				for (int i = in.getInt(); i > 0; i--){
+					road.restoreEta(drives[in.getInt()], in.getLong(), in.getLong());
+				}
+			}
+		}
+
+		residentManager.getArchive().restoreTotals(in.getLong(), in.getLong(), in.getLong(), in.getLong(), in.getLong());
+	}
+
+	/**
+	 * Returns the Drivables of the current graph of <tt>city</tt> described by the Lots and Locations they're made of, in order of their
+	 * descriptions.
+	 */
+	private static List<Key> makeTable(City city, Map<Location, Integer> locationNumbers){
+		LotManager lots = city.getLotManager();
+		DrivableGraph graph = city.getRoadGraph();
+		List<Key> table = new ArrayList<>(graph.getDrivableCount());
+		for (int i = 0; i < graph.getDrivableCount(); i++){
+			Drivable d = graph.getDrivable(i);
+			if (d instanceof Xing){
+				table.add(new Key(d, XING, index(lots, ((Xing) d).getLot()), 0));
+			} else if (d instanceof Location){
+				table.add(new Key(d, LOCATION, locationNumbers.get(d), 0));
+			} else if (d instanceof Parking){
+				Parking p = (Parking) d;
+				if (p.getTarget() instanceof Location){
+					table.add(new Key(d, ENTRANCE, locationNumbers.get(p.getTarget()), index(lots, ((Xing) p.getSource()).getLot())));
+				} else {
+					table.add(new Key(d, EXIT, locationNumbers.get(p.getSource()), index(lots, ((Xing) p.getTarget()).getLot())));
+				}
+			} else if (d instanceof Road){
+				// a Road is traced from its source through its first Lot, so those are enough to tell it apart
+				Road r = (Road) d;
+				List<Lot> segments = r.getSegments();
+				Lot via = segments.isEmpty() ? ((Xing) r.getTarget()).getLot() : segments.get(0);
+				table.add(new Key(d, ROAD, index(lots, ((Xing) r.getSource()).getLot()), index(lots, via)));
+			} else {
+				throw new IllegalStateException("Can't save Drivables like " + d + ".");
+			}
+		}
+		Collections.sort(table);
+		return table;
+	}
+
+	private static int index(LotManager lots, Lot lot){
+		return lot.getY() * lots.getWidth() + lot.getX();
+	}
+
+	private static <T> int number(Map<T, Integer> numbers, T t){
+		return (t == null) ? -1 : numbers.get(t);
+	}
+
+	private static void number(Map<Drive, Integer> drives, List<Drive> list){
+		for (Drive d : list){
+			if (!drives.containsKey(d)){
+				drives.put(d, drives.size());
+			}
+		}
+	}
+
+	private static Location location(List<Location> locations, int number){
+		return (number < 0) ? null : locations.get(number);
+	}
+
+	private static Map<Drivable, List<Drive>> sortByRef(Map<Drivable, List<Drive>> map, Map<Drivable, Integer> refs){
+		List<Drivable> keys = new ArrayList<>(map.keySet());
+		keys.sort((a, b) -> Integer.compare(refs.get(a), refs.get(b)));
+		Map<Drivable, List<Drive>> sorted = new LinkedHashMap<>();
+		for (Drivable key : keys){
+			sorted.put(key, map.get(key));
+		}
+		return sorted;
+	}
+
+	/**
+	 * Writes <tt>path</tt> as its weight and its vertices and edges, or as -1 if it is <tt>null</tt> or leaves the Drivables in <tt>refs</tt>.
+	 * Returns true iff the path itself was written.
+	 */
+	private static boolean writePath(DataOutputStream out, GraphPath<Drivable, Drivable> path, Map<Drivable, Integer> refs) throws IOException {
+		List<Drivable> vertices = (path == null) ? null : path.getVertexList();
+		List<Drivable> edges = (path == null) ? null : path.getEdgeList();
+		boolean known = path != null;
+		for (int i = 0; known && i < vertices.size(); i++){
+			known = refs.containsKey(vertices.get(i)) && (i >= edges.size() || refs.containsKey(edges.get(i)));
+		}
+		if (!known){
+			out.writeInt(-1);
+			return false;
+		}
+		out.writeInt(edges.size());
+		out.writeDouble(path.getWeight());
+		for (int i = 0; i < vertices.size(); i++){
+			out.writeInt(refs.get(vertices.get(i)));
+			if (i < edges.size()){
+				out.writeInt(refs.get(edges.get(i)));
+			}
+		}
+		return true;
+	}
+
+	private static GraphPath<Drivable, Drivable> readPath(ByteBuffer in, DrivableGraph graph, Drivable[] drivables){
+		int length = in.getInt();
+		if (length < 0){
+			return null;
+		}
+		double weight = in.getDouble();
+		List<Drivable> vertices = new ArrayList<>(length + 1);
+		List<Drivable> edges = new ArrayList<>(length);
+		for (int i = 0; i <= length; i++){
+			vertices.add(drivables[in.getInt()]);
+			if (i < length){
+				edges.add(drivables[in.getInt()]);
+			}
+		}
+		return new GraphWalk<>(graph, vertices.get(0), vertices.get(length), vertices, edges, weight);
+	}
+
+	/**
+	 * Description of a Drivable by what it's made of, which is the same for the matching Drivable of a graph found again from the same map.
+	 */
+	private static class Key implements Comparable<Key> {
+		private final Drivable drivable;
+		private final byte kind;
+		private final int a;
+		private final int b;
+
+		public Key(Drivable drivable, byte kind, int a, int b) {
+			this.drivable = drivable;
+			this.kind = kind;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public int compareTo(Key other) {
+			int c = Byte.compare(kind, other.kind);
+			if (c == 0){
+				c = Integer.compare(a, other.a);
+			}
+			if (c == 0){
+				c = Integer.compare(b, other.b);
+			}
+			return c;
+		}
+	}
+}
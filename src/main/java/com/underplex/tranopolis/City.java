@@ -27,12 +27,28 @@ public class City {
 	private final TrafficManager traffic;
 	private final ResidentManager residents;
 	private final TimeManager timer;
+	private final RandomManager randoms;
+	private final Tracer tracer;
 	
 	public City(int width, int height, LocalDateTime start){
+		this(width, height, start, false);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param width int number of Lots across, at least 3
+	 * @param height int number of Lots up, at least 3
+	 * @param start LocalDateTime the simulation begins at
+	 * @param packedLots true iff Lots should be kept packed, without an object for each, which large cities need
+	 * @see LotManager
+	 */
+	public City(int width, int height, LocalDateTime start, boolean packedLots){
 		if (width < 3 | height < 3){
 			throw new IllegalArgumentException("Can't instantiate city of any dimension < 3.");
 		}
-		this.lots = new LotManager(this, width, height);
+		this.randoms = new RandomManager(RandomManager.DEFAULT_SEED);
+		this.tracer = new Tracer(Tracer.DEFAULT_CAPACITY);
+		this.lots = new LotManager(this, width, height, packedLots);
 		this.traffic = new TrafficManager(this);
 		this.residents = new ResidentManager(this);
 		this.timer = new TimeManager(this, start, DEFAULT_PERIOD_SECONDS);
@@ -85,6 +101,17 @@ public class City {
 		return roadGraphs;
 	}
 	
+	public RandomManager getRandomManager() {
+		return randoms;
+	}
+
+	/**
+	 * Returns the Tracer that events of Drives in this city are traced by.
+	 */
+	public Tracer getTracer() {
+		return tracer;
+	}
+	
 	public boolean connectLocation(Location location, Lot lot){
 		return location.addConnection(lot);
 	}	
@@ -100,15 +127,17 @@ public class City {
 	 * Advance simulation by number of seconds.
 	 * <p>
 	 * Note that there's nothing preventing an invalid number of seconds from being attempted this way.
+	 * <p>
+	 * When the <tt>TrafficManager</tt> is in <tt>FlowMode.EVENT_DRIVEN</tt>, this processes all traffic events due up to the new time.
 	 */
 	public void advance(long seconds){
 		this.timer.advanceSeconds(seconds);
 		// notify residents that the time has changed
 		this.residents.advance(this.timer.getCurrentTime());
-		Set<Drive> drives = this.residents.surveyDrives(this.timer.getCurrentTime());
+		Set<Drive> drives = this.residents.surveyDrives(this.timer.getCurrentSecond());
 		// notify drivers that there drives have started
 
-		this.traffic.forward(this.timer.getCurrentTime(), drives);
+		this.traffic.forward(this.timer.getCurrentSecond(), drives);
 	}
 
 }
@@ -0,0 +1,329 @@
+package com.underplex.tranopolis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Utility class for saving cities to and loading them from map files, and for converting text grids to map files.
+ * <p>
+ * A map file holds, in this order and big-endian:
+ * <ul>
+ * <li>the int <tt>MAGIC</tt>, the int <tt>VERSION</tt>, the int width and height of the city, and the long second it starts at;</li>
+ * <li>a byte for the value of each Lot, by y * width + x;</li>
+ * <li>the int number of Locations, then for each its label as an int number of bytes followed by the bytes in UTF-8, the int number of its
+ * Lots followed by the int y * width + x of each, and the int number of its connections followed by the same for each.</li>
+ * </ul>
+ * Loading maps the file into memory and copies the values of all Lots straight into the <tt>LotManager</tt>, so loading a city of tens of
+ * millions of Lots doesn't set each one.
+ * <p>
+ * A text grid has a row of characters for each row of Lots, northernmost first, as <tt>LotManager.printMap</tt> prints them: <tt>.</tt> for
+ * an empty Lot, <tt>R</tt> (or <tt>P</tt>) for a paved one and <tt>b</tt> for a built one, with any spaces ignored. Locations follow the grid,
+ * one to a line, as <tt>@ label: x,y x,y &gt; x,y</tt>, listing the Lots of the Location and then, after the <tt>&gt;</tt>, the Lots it connects at.
+ */
+public class CityMap {
+
+	public static final int MAGIC = 0x544d4150; // "TMAP"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+	private static final int COPY_BYTES = 1 << 16; // most Lot values written at once
+
+	private CityMap() {
+		// don't instantiate
+	}
+
+	/**
+	 * Converts the text grid in the first argument to a map file at the second.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2){
+			System.err.println("Usage: CityMap <text grid> <map file>");
+			System.exit(1);
+		}
+		convert(Paths.get(args[0]), Paths.get(args[1]));
+	}
+
+	/**
+	 * Reads the text grid in <tt>text</tt> and writes it as a map file to <tt>map</tt>.
+	 * <p>
+	 * Only the Lots and Locations are read, without finding the road graph, since the map file doesn't hold it.
+	 * @param text Path of text grid to read
+	 * @param map Path of map file to write, replaced if it exists
+	 * @throws IOException if either file can't be read or written
+	 */
+	public static void convert(Path text, Path map) throws IOException {
+		write(parseGrid(Files.readAllLines(text, StandardCharsets.UTF_8), true), map);
+	}
+
+	/**
+	 * Writes the Lots and Locations of <tt>city</tt> to a map file.
+	 * @param city City to write
+	 * @param file Path of file to write, replaced if it exists
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write(City city, Path file) throws IOException {
+		if (city == null) throw new IllegalArgumentException("Parameter city may not be null.");
+		if (file == null) throw new IllegalArgumentException("Parameter file may not be null.");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+			write(city, out);
+		}
+	}
+
+	/**
+	 * Writes the Lots and Locations of <tt>city</tt> to <tt>out</tt> in the format of a map file.
+	 */
+	static void write(City city, DataOutputStream out) throws IOException {
+		LotManager lots = city.getLotManager();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(lots.getWidth());
+		out.writeInt(lots.getHeight());
+		out.writeLong(city.getTimeManager().getCurrentSecond());
+
+		ByteBuffer values = lots.getValues();
+		byte[] chunk = new byte[Math.min(values.remaining(), COPY_BYTES)];
+		while (values.hasRemaining()){
+			int n = Math.min(values.remaining(), chunk.length);
+			values.get(chunk, 0, n);
+			out.write(chunk, 0, n);
+		}
+
+		List<Location> locations = getLocations(city);
+		out.writeInt(locations.size());
+		for (Location loc : locations){
+			byte[] label = loc.getLabel().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(label.length);
+			out.write(label);
+			writeLots(out, lots, loc.getLots());
+			writeLots(out, lots, loc.getConnections());
+		}
+	}
+
+	/**
+	 * Returns Locations of <tt>city</tt> in the order they are written, which is by label.
+	 */
+	static List<Location> getLocations(City city){
+		List<Location> locations = new ArrayList<>(city.getLocationManager().getLocations());
+		locations.sort(Comparator.comparing(Location::getLabel));
+		return locations;
+	}
+
+	private static void writeLots(DataOutputStream out, LotManager lots, Set<Lot> set) throws IOException {
+		int[] indices = new int[set.size()];
+		int i = 0;
+		for (Lot lot : set){
+			indices[i++] = lot.getY() * lots.getWidth() + lot.getX();
+		}
+		Arrays.sort(indices);
+		out.writeInt(indices.length);
+		for (int index : indices){
+			out.writeInt(index);
+		}
+	}
+
+	/**
+	 * Returns City loaded from a map file, with packed Lots.
+	 * @see #load(Path, boolean)
+	 */
+	public static City load(Path file) throws IOException {
+		return load(file, true);
+	}
+
+	/**
+	 * Returns City loaded from a map file, with its road graph found.
+	 * @param file Path of map file to load
+	 * @param packedLots true iff the City should keep its Lots packed
+	 * @return City with the Lots and Locations in <tt>file</tt>
+	 * @throws IOException if the file can't be read or isn't a map file this can load
+	 */
+	public static City load(Path file, boolean packedLots) throws IOException {
+		if (file == null) throw new IllegalArgumentException("Parameter file may not be null.");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), packedLots, file.toString());
+		}
+	}
+
+	/**
+	 * Returns City read from <tt>buffer</tt> in the format of a map file, leaving <tt>buffer</tt> just after it.
+	 * @param source String naming where <tt>buffer</tt> came from, for messages
+	 */
+	static City read(ByteBuffer buffer, boolean packedLots, String source) throws IOException {
+		try {
+			if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) throw new IOException(source + " is not a city map.");
+			int version = buffer.getInt();
+			if (version != VERSION) throw new IOException(source + " is a city map of version " + version + ", not " + VERSION + ".");
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			long start = buffer.getLong();
+
+			City city = new City(width, height, SimTime.toDateTime(start), packedLots);
+			LotManager lots = city.getLotManager();
+			lots.setValues(buffer);
+
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++){
+				byte[] label = new byte[buffer.getInt()];
+				buffer.get(label);
+				Location loc = city.getLocationManager().makeLocation(readLots(buffer, lots), new String(label, StandardCharsets.UTF_8));
+				if (loc == null) throw new IOException("Location " + i + " in " + source + " can't be made.");
+				for (Lot lot : readLots(buffer, lots)){
+					if (!city.connectLocation(loc, lot)) throw new IOException(loc + " in " + source + " can't connect at " + lot + ".");
+				}
+			}
+			city.getGraphManager().updateGraph();
+			return city;
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			throw new IOException(source + " is not a complete city map.", e);
+		}
+	}
+
+	private static Set<Lot> readLots(ByteBuffer buffer, LotManager lots) {
+		int count = buffer.getInt();
+		Set<Lot> set = new HashSet<>();
+		for (int i = 0; i < count; i++){
+			int index = buffer.getInt();
+			Lot lot = lots.getLot(index % lots.getWidth(), index / lots.getWidth());
+			if (lot == null) throw new IllegalArgumentException("No Lot at index " + index + ".");
+			set.add(lot);
+		}
+		return set;
+	}
+
+	/**
+	 * Returns City read from a text grid, with its road graph found.
+	 * @param file Path of text grid to read
+	 * @param packedLots true iff the City should keep its Lots packed
+	 * @return City with the Lots and Locations in <tt>file</tt>
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if the file isn't a text grid
+	 */
+	public static City readText(Path file, boolean packedLots) throws IOException {
+		return parseText(Files.readAllLines(file, StandardCharsets.UTF_8), packedLots);
+	}
+
+	/**
+	 * Returns City made from the lines of a text grid, with its road graph found.
+	 * @param lines List of lines of the grid, then of its Locations
+	 * @param packedLots true iff the City should keep its Lots packed
+	 * @return City with the Lots and Locations in <tt>lines</tt>
+	 * @throws IllegalArgumentException if the lines aren't a text grid
+	 */
+	public static City parseText(List<String> lines, boolean packedLots) {
+		City city = parseGrid(lines, packedLots);
+		city.getGraphManager().updateGraph();
+		return city;
+	}
+
+	/**
+	 * Returns City made from the lines of a text grid, with its Lots and Locations but without its road graph found.
+	 * @see #parseText(List, boolean)
+	 */
+	static City parseGrid(List<String> lines, boolean packedLots) {
+		List<String> rows = new ArrayList<>();
+		int n = 0;
+		for (; n < lines.size() && !lines.get(n).trim().isEmpty() && !lines.get(n).trim().startsWith("@"); n++){
+			rows.add(lines.get(n).replaceAll("\\s", ""));
+		}
+		if (rows.isEmpty()) throw new IllegalArgumentException("Text grid has no rows of Lots.");
+		int width = rows.get(0).length();
+		int height = rows.size();
+		City city = new City(width, height, City.DEFAULT_START, packedLots);
+		LotManager lots = city.getLotManager();
+		for (int row = 0; row < height; row++){
+			String line = rows.get(row);
+			if (line.length() != width) throw new IllegalArgumentException("Row " + (row + 1) + " of text grid is " + line.length() + " Lots wide, not " + width + ".");
+			int y = height - 1 - row;
+			for (int x = 0; x < width; x++){
+				char c = line.charAt(x);
+				if (c == 'R' || c == 'P'){
+					lots.setValue(x, y, Lot.PAVED);
+				} else if (c == 'b' || c == 'B'){
+					lots.setValue(x, y, Lot.BUILT);
+				} else if (c != '.'){
+					throw new IllegalArgumentException("Row " + (row + 1) + " of text grid has unknown Lot '" + c + "'.");
+				}
+			}
+		}
+
+		for (; n < lines.size(); n++){
+			String line = lines.get(n).trim();
+			if (line.isEmpty()){
+				continue;
+			}
+			int colon = line.lastIndexOf(':');
+			if (!line.startsWith("@") || colon < 0) throw new IllegalArgumentException("Line " + (n + 1) + " of text grid isn't a Location.");
+			String label = line.substring(1, colon).trim();
+			String[] parts = line.substring(colon + 1).split(">", -1);
+			if (parts.length > 2) throw new IllegalArgumentException("Line " + (n + 1) + " of text grid has more than one '>'.");
+			Location loc = city.getLocationManager().makeLocation(parseLots(lots, parts[0], n), label);
+			if (loc == null) throw new IllegalArgumentException("Location on line " + (n + 1) + " of text grid can't be made.");
+			if (parts.length == 2){
+				for (Lot lot : parseLots(lots, parts[1], n)){
+					if (!city.connectLocation(loc, lot)) throw new IllegalArgumentException(loc + " on line " + (n + 1) + " of text grid can't connect at " + lot + ".");
+				}
+			}
+		}
+		return city;
+	}
+
+	private static Set<Lot> parseLots(LotManager lots, String text, int n) {
+		Set<Lot> set = new HashSet<>();
+		for (String pair : text.trim().split("\\s+")){
+			if (pair.isEmpty()){
+				continue;
+			}
+			String[] xy = pair.split(",");
+			Lot lot = null;
+			try {
+				lot = (xy.length == 2) ? lots.getLot(Integer.parseInt(xy[0]), Integer.parseInt(xy[1])) : null;
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+			if (lot == null) throw new IllegalArgumentException("Line " + (n + 1) + " of text grid has no Lot at '" + pair + "'.");
+			set.add(lot);
+		}
+		return set;
+	}
+
+	/**
+	 * Writes <tt>city</tt> as a text grid that <tt>parseText</tt> reads back.
+	 * @param city City to write
+	 * @param out Appendable to write to
+	 * @throws IOException if <tt>out</tt> can't be written to
+	 */
+	public static void writeText(City city, Appendable out) throws IOException {
+		LotManager lots = city.getLotManager();
+		for (int y = lots.getHeight() - 1; y >= 0; y--){
+			for (int x = 0; x < lots.getWidth(); x++){
+				out.append(lots.isPaved(x, y) ? 'R' : lots.isBuilt(x, y) ? 'b' : '.');
+			}
+			out.append(System.lineSeparator());
+		}
+		for (Location loc : getLocations(city)){
+			out.append("@ ").append(loc.getLabel()).append(":");
+			for (Lot lot : loc.getLots()){
+				out.append(' ').append(lot.getX() + "," + lot.getY());
+			}
+			out.append(" >");
+			for (Lot lot : loc.getConnections()){
+				out.append(' ').append(lot.getX() + "," + lot.getY());
+			}
+			out.append(System.lineSeparator());
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package com.underplex.tranopolis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.graph.GraphWalk;
+
+/**
+ * Immutable snapshot of a <tt>DrivableGraph</tt> in compressed sparse row form.
+ * <p>
+ * Vertices and edges are numbered densely: a vertex id is the graph index of the vertex, and an edge id is the graph index of the edge minus the
+ * number of vertices. Adjacency, road length, speed limit, and edge weight are kept in primitive arrays, so searches and iteration over the
+ * network don't touch the maps of boxed objects inside jgrapht.
+ * <p>
+ * A snapshot describes the graph as of the moment it was made; <tt>DrivableGraphManager</tt> makes a new one every time the graph is updated,
+ * from the last one when only a few Lots changed.
+ */
+public class CompactGraph {
+
+	private final DrivableGraph graph;
+	private final int version;
+	private final int vertexCount;
+	private final int edgeCount;
+	private final Drivable[] drivables; // by graph index, vertices first
+
+	// by edge id
+	private final int[] edgeSource;
+	private final int[] edgeTarget;
+	private final double[] edgeLength; // meters
+	private final double[] edgeMaxSpeed; // km/h
+	private final double[] edgeWeight; // weight in the jgrapht graph
+
+	// edges leaving vertex v are outEdges[outOffsets[v]] to outEdges[outOffsets[v + 1] - 1], and likewise for edges entering
+	private final int[] outOffsets;
+	private final int[] outEdges;
+	private final int[] inOffsets;
+	private final int[] inEdges;
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * The Drivables of <tt>graph</tt> must have been indexed by <tt>graph.indexDrivables()</tt> since it was last changed.
+	 * @param graph DrivableGraph to take the snapshot of
+	 * @param version int version of the graph, as counted by whoever manages it
+	 */
+	public CompactGraph(DrivableGraph graph, int version){
+		this(graph, null, version);
+	}
+
+	/**
+	 * Constructor of a snapshot of the graph <tt>previous</tt> was taken of, after it was changed and indexed again by
+	 * <tt>DrivableGraph.reindex</tt>.
+	 * <p>
+	 * Edges still at the index they had in <tt>previous</tt> are copied from it, so only the edges added or moved are looked up in the graph.
+	 * All the arrays are still built anew, so this takes time in proportion to the size of the graph.
+	 * @param previous CompactGraph taken of the same graph before it changed
+	 * @param version int version of the graph, as counted by whoever manages it
+	 */
+	public CompactGraph(CompactGraph previous, int version){
+		this(previous.graph, previous, version);
+	}
+
+	private CompactGraph(DrivableGraph graph, CompactGraph previous, int version){
+		this.graph = graph;
+		this.version = version;
+		this.vertexCount = graph.getVertexCount();
+		this.edgeCount = graph.getDrivableCount() - vertexCount;
+		this.drivables = new Drivable[graph.getDrivableCount()];
+		for (int i = 0; i < drivables.length; i++){
+			drivables[i] = graph.getDrivable(i);
+		}
+
+		this.edgeSource = new int[edgeCount];
+		this.edgeTarget = new int[edgeCount];
+		this.edgeLength = new double[edgeCount];
+		this.edgeMaxSpeed = new double[edgeCount];
+		this.edgeWeight = new double[edgeCount];
+		this.outOffsets = new int[vertexCount + 1];
+		this.inOffsets = new int[vertexCount + 1];
+
+		for (int e = 0; e < edgeCount; e++){
+			int i = vertexCount + e;
+			Drivable edge = drivables[i];
+			if (previous != null && i >= previous.vertexCount && i < previous.drivables.length && previous.drivables[i] == edge){
+				// its ends may have moved, but they're still vertices and know where to
+				int p = i - previous.vertexCount;
+				edgeSource[e] = previous.drivables[previous.edgeSource[p]].getGraphIndex();
+				edgeTarget[e] = previous.drivables[previous.edgeTarget[p]].getGraphIndex();
+				edgeWeight[e] = previous.edgeWeight[p];
+				edgeLength[e] = previous.edgeLength[p];
+				edgeMaxSpeed[e] = previous.edgeMaxSpeed[p];
+			} else {
+				edgeSource[e] = graph.getEdgeSource(edge).getGraphIndex();
+				edgeTarget[e] = graph.getEdgeTarget(edge).getGraphIndex();
+				edgeWeight[e] = graph.getEdgeWeight(edge);
+				if (edge instanceof Road){
+					edgeLength[e] = ((Road) edge).getLength();
+					edgeMaxSpeed[e] = ((Road) edge).getMaxSpeed();
+				} else {
+					edgeLength[e] = edge.getNumberOfLots() * Lot.LENGTH_IN_M;
+					edgeMaxSpeed[e] = Road.DEFAULT_MAX_SPEED;
+				}
+			}
+			outOffsets[edgeSource[e] + 1]++;
+			inOffsets[edgeTarget[e] + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++){
+			outOffsets[v + 1] += outOffsets[v];
+			inOffsets[v + 1] += inOffsets[v];
+		}
+
+		this.outEdges = new int[edgeCount];
+		this.inEdges = new int[edgeCount];
+		int[] outFill = Arrays.copyOf(outOffsets, vertexCount);
+		int[] inFill = Arrays.copyOf(inOffsets, vertexCount);
+		for (int e = 0; e < edgeCount; e++){
+			outEdges[outFill[edgeSource[e]]++] = e;
+			inEdges[inFill[edgeTarget[e]]++] = e;
+		}
+	}
+
+	/**
+	 * Returns shortest path from <tt>from</tt> to <tt>to</tt> by edge weight, or <tt>null</tt> if there is none or they are the same vertex.
+	 * @param from Drivable vertex to start at
+	 * @param to Drivable vertex to end at
+	 * @return shortest <tt>GraphPath</tt> or <tt>null</tt>
+	 */
+	public GraphPath<Drivable, Drivable> findShortestPath(Drivable from, Drivable to){
+		int source = vertexId(from);
+		int target = vertexId(to);
+		if (source < 0 || target < 0){
+			throw new IllegalArgumentException("Both ends of a path must be vertices of this graph.");
+		}
+		if (source == target){
+			return null;
+		}
+
+		double[] distance = new double[vertexCount];
+		int[] via = new int[vertexCount]; // edge id used to reach each vertex
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		Arrays.fill(via, -1);
+		MinHeap heap = new MinHeap(vertexCount);
+
+		distance[source] = 0.0;
+		heap.offer(source, 0.0);
+		while (!heap.isEmpty()){
+			int v = heap.poll();
+			if (v == target){
+				break;
+			}
+			for (int i = outOffsets[v]; i < outOffsets[v + 1]; i++){
+				int e = outEdges[i];
+				int w = edgeTarget[e];
+				double d = distance[v] + edgeWeight[e];
+				if (d < distance[w]){
+					distance[w] = d;
+					via[w] = e;
+					heap.offer(w, d);
+				}
+			}
+		}
+
+		if (distance[target] == Double.POSITIVE_INFINITY){
+			return null;
+		}
+		return makePath(source, target, via, distance[target]);
+	}
+
+	/**
+	 * Returns <tt>GraphPath</tt> from <tt>source</tt> to <tt>target</tt> found by following <tt>via</tt> back from <tt>target</tt>.
+	 * @param source int vertex id of start
+	 * @param target int vertex id of end
+	 * @param via int[] edge id used to reach each vertex, by vertex id
+	 * @param weight double weight of the path
+	 */
+	GraphPath<Drivable, Drivable> makePath(int source, int target, int[] via, double weight){
+		int n = 0;
+		for (int v = target; v != source; v = edgeSource[via[v]]){
+			n++;
+		}
+		int[] path = new int[n];
+		for (int v = target; v != source; v = edgeSource[via[v]]){
+			path[--n] = via[v];
+		}
+		return makePath(path, path.length, weight);
+	}
+
+	/**
+	 * Returns <tt>GraphPath</tt> over the graph this snapshot was taken of, made of the first <tt>count</tt> edges in <tt>edgeIds</tt> in order.
+	 * @param edgeIds int[] ids of consecutive edges
+	 * @param count int number of edges in the path, at least 1
+	 * @param weight double weight of the path
+	 */
+	GraphPath<Drivable, Drivable> makePath(int[] edgeIds, int count, double weight){
+		List<Drivable> edges = new ArrayList<>(count);
+		List<Drivable> vertices = new ArrayList<>(count + 1);
+		vertices.add(drivables[edgeSource[edgeIds[0]]]);
+		for (int i = 0; i < count; i++){
+			edges.add(getEdge(edgeIds[i]));
+			vertices.add(drivables[edgeTarget[edgeIds[i]]]);
+		}
+		return new GraphWalk<Drivable, Drivable>(graph, vertices.get(0), vertices.get(count), vertices, edges, weight);
+	}
+
+	/**
+	 * Returns vertex id of <tt>drivable</tt> or -1 if it isn't a vertex of this snapshot.
+	 */
+	public int vertexId(Drivable drivable){
+		int i = drivable.getGraphIndex();
+		if (i >= 0 && i < vertexCount && drivables[i] == drivable){
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns edge id of <tt>drivable</tt> or -1 if it isn't an edge of this snapshot.
+	 */
+	public int edgeId(Drivable drivable){
+		int i = drivable.getGraphIndex();
+		if (i >= vertexCount && i < drivables.length && drivables[i] == drivable){
+			return i - vertexCount;
+		}
+		return -1;
+	}
+
+	public Drivable getVertex(int vertexId){
+		return drivables[vertexId];
+	}
+
+	public Drivable getEdge(int edgeId){
+		return drivables[vertexCount + edgeId];
+	}
+
+	/**
+	 * Returns Drivable with graph index <tt>index</tt>, counting vertices first and then edges.
+	 */
+	public Drivable getDrivable(int index){
+		return drivables[index];
+	}
+
+	/**
+	 * Returns number of vertices and edges.
+	 */
+	public int getDrivableCount(){
+		return drivables.length;
+	}
+
+	public int getVertexCount(){
+		return vertexCount;
+	}
+
+	public int getEdgeCount(){
+		return edgeCount;
+	}
+
+	public int getEdgeSource(int edgeId){
+		return edgeSource[edgeId];
+	}
+
+	public int getEdgeTarget(int edgeId){
+		return edgeTarget[edgeId];
+	}
+
+	/**
+	 * Returns length in meters of edge.
+	 */
+	public double getEdgeLength(int edgeId){
+		return edgeLength[edgeId];
+	}
+
+	/**
+	 * Returns speed limit in km/h of edge.
+	 */
+	public double getEdgeMaxSpeed(int edgeId){
+		return edgeMaxSpeed[edgeId];
+	}
+
+	/**
+	 * Returns weight of edge in the jgrapht graph.
+	 */
+	public double getEdgeWeight(int edgeId){
+		return edgeWeight[edgeId];
+	}
+
+	/**
+	 * Returns position in the out-edge list of the first edge leaving vertex; edges leaving it run up to <tt>getOutEnd(vertexId)</tt>.
+	 */
+	public int getOutStart(int vertexId){
+		return outOffsets[vertexId];
+	}
+
+	public int getOutEnd(int vertexId){
+		return outOffsets[vertexId + 1];
+	}
+
+	/**
+	 * Returns edge id at position in the out-edge list.
+	 */
+	public int getOutEdge(int position){
+		return outEdges[position];
+	}
+
+	/**
+	 * Returns position in the in-edge list of the first edge entering vertex; edges entering it run up to <tt>getInEnd(vertexId)</tt>.
+	 */
+	public int getInStart(int vertexId){
+		return inOffsets[vertexId];
+	}
+
+	public int getInEnd(int vertexId){
+		return inOffsets[vertexId + 1];
+	}
+
+	/**
+	 * Returns edge id at position in the in-edge list.
+	 */
+	public int getInEdge(int position){
+		return inEdges[position];
+	}
+
+	/**
+	 * Returns version of the graph this is a snapshot of.
+	 */
+	public int getVersion(){
+		return version;
+	}
+
+	/**
+	 * Returns the graph this is a snapshot of.
+	 */
+	public DrivableGraph getGraph(){
+		return graph;
+	}
+}
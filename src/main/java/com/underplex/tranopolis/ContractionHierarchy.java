@@ -0,0 +1,493 @@
+package com.underplex.tranopolis;
+
+import java.util.Arrays;
+
+import org.jgrapht.GraphPath;
+
+/**
+ * Contraction hierarchy over a <tt>CompactGraph</tt>, for answering many shortest path queries on large road graphs quickly.
+ * <p>
+ * Building one contracts the vertices one at a time, least important first, adding a shortcut arc wherever contracting a vertex would
+ * otherwise lengthen a shortest path between its neighbors. A query then only searches upward in the order of contraction from both ends,
+ * which settles a small fraction of the vertices that Dijkstra's algorithm would. Shortcuts are unpacked into the original edges, so the
+ * paths returned are the same as <tt>CompactGraph.findShortestPath</tt> would give, up to ties.
+ * <p>
+ * A hierarchy is fixed to the weights it was built with, and has to be built again when the graph or the weights change.
+ * <p>
+ * Queries reuse the same working arrays and are synchronized.
+ */
+public class ContractionHierarchy {
+
+	private static final int WITNESS_SETTLE_LIMIT = 64; // vertices a witness search may settle before giving up and adding a shortcut
+
+	private final CompactGraph graph;
+	private final int[] rank; // order in which each vertex was contracted
+
+	// arcs are original edges first, by edge id, and then shortcuts
+	private int arcCount;
+	private int[] arcSource;
+	private int[] arcTarget;
+	private double[] arcWeight;
+	private int[] arcFirst; // for shortcuts, the arc into the contracted vertex, otherwise -1
+	private int[] arcSecond; // for shortcuts, the arc out of the contracted vertex, otherwise -1
+
+	// arcs leading up from each vertex, and arcs leading down into each vertex, in compressed sparse row form
+	private final int[] upOffsets;
+	private final int[] upArcs;
+	private final int[] downOffsets;
+	private final int[] downArcs;
+
+	// working arrays for queries
+	private final double[] forwardDistance;
+	private final double[] backwardDistance;
+	private final int[] forwardVia;
+	private final int[] backwardVia;
+	private final int[] forwardStamp;
+	private final int[] backwardStamp;
+	private int search;
+	private final MinHeap forwardHeap;
+	private final MinHeap backwardHeap;
+
+	/**
+	 * Constructor, which builds the hierarchy using the edge weights of <tt>graph</tt>.
+	 * @param graph CompactGraph to build over
+	 */
+	public ContractionHierarchy(CompactGraph graph){
+		this(graph, edgeWeights(graph));
+	}
+
+	/**
+	 * Constructor, which builds the hierarchy using <tt>weights</tt>.
+	 * @param graph CompactGraph to build over
+	 * @param weights double[] non-negative weight of each edge by edge id
+	 */
+	public ContractionHierarchy(CompactGraph graph, double[] weights){
+		if (graph == null) throw new IllegalArgumentException("Parameter graph may not be null.");
+		if (weights == null) throw new IllegalArgumentException("Parameter weights may not be null.");
+		if (weights.length != graph.getEdgeCount()) throw new IllegalArgumentException("There must be one weight for each edge.");
+		this.graph = graph;
+		int n = graph.getVertexCount();
+
+		int capacity = Math.max(16, graph.getEdgeCount() * 2);
+		this.arcSource = new int[capacity];
+		this.arcTarget = new int[capacity];
+		this.arcWeight = new double[capacity];
+		this.arcFirst = new int[capacity];
+		this.arcSecond = new int[capacity];
+		this.arcCount = 0;
+		for (int e = 0; e < graph.getEdgeCount(); e++){
+			addArc(graph.getEdgeSource(e), graph.getEdgeTarget(e), weights[e], -1, -1);
+		}
+
+		this.rank = new int[n];
+		this.forwardDistance = new double[n];
+		this.backwardDistance = new double[n];
+		this.forwardVia = new int[n];
+		this.backwardVia = new int[n];
+		this.forwardStamp = new int[n];
+		this.backwardStamp = new int[n];
+		this.search = 0;
+		this.forwardHeap = new MinHeap(n);
+		this.backwardHeap = new MinHeap(n);
+
+		new Contractor(n).contract();
+
+		// keep only the arcs that lead up the hierarchy, in both directions
+		this.upOffsets = new int[n + 1];
+		this.downOffsets = new int[n + 1];
+		for (int a = 0; a < arcCount; a++){
+			if (arcSource[a] == arcTarget[a]){
+				continue;
+			}
+			if (rank[arcSource[a]] < rank[arcTarget[a]]){
+				upOffsets[arcSource[a] + 1]++;
+			} else {
+				downOffsets[arcTarget[a] + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++){
+			upOffsets[v + 1] += upOffsets[v];
+			downOffsets[v + 1] += downOffsets[v];
+		}
+		this.upArcs = new int[upOffsets[n]];
+		this.downArcs = new int[downOffsets[n]];
+		int[] upFill = Arrays.copyOf(upOffsets, n);
+		int[] downFill = Arrays.copyOf(downOffsets, n);
+		for (int a = 0; a < arcCount; a++){
+			if (arcSource[a] == arcTarget[a]){
+				continue;
+			}
+			if (rank[arcSource[a]] < rank[arcTarget[a]]){
+				upArcs[upFill[arcSource[a]]++] = a;
+			} else {
+				downArcs[downFill[arcTarget[a]]++] = a;
+			}
+		}
+	}
+
+	/**
+	 * Returns shortest path from <tt>from</tt> to <tt>to</tt> by the weights this was built with, or <tt>null</tt> if there is none.
+	 * @param from Drivable vertex to start at
+	 * @param to Drivable vertex to end at
+	 * @return shortest <tt>GraphPath</tt> or <tt>null</tt>
+	 */
+	public synchronized GraphPath<Drivable, Drivable> findShortestPath(Drivable from, Drivable to){
+		int source = graph.vertexId(from);
+		int target = graph.vertexId(to);
+		if (source < 0 || target < 0){
+			throw new IllegalArgumentException("Both ends of a path must be vertices of the graph.");
+		}
+		if (source == target){
+			return null;
+		}
+
+		search++;
+		forwardHeap.clear();
+		backwardHeap.clear();
+		forwardStamp[source] = search;
+		forwardDistance[source] = 0.0;
+		forwardVia[source] = -1;
+		forwardHeap.offer(source, 0.0);
+		backwardStamp[target] = search;
+		backwardDistance[target] = 0.0;
+		backwardVia[target] = -1;
+		backwardHeap.offer(target, 0.0);
+
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+		while (!forwardHeap.isEmpty() || !backwardHeap.isEmpty()){
+			boolean forward = backwardHeap.isEmpty() || (!forwardHeap.isEmpty() && forwardHeap.peekKey() <= backwardHeap.peekKey());
+			MinHeap heap = forward ? forwardHeap : backwardHeap;
+			if (heap.peekKey() >= best){
+				// nothing left on this side can improve the path, so let the other side finish
+				heap.clear();
+				continue;
+			}
+			int v = heap.poll();
+			if (forward){
+				if (backwardStamp[v] == search && forwardDistance[v] + backwardDistance[v] < best){
+					best = forwardDistance[v] + backwardDistance[v];
+					meet = v;
+				}
+				if (stalled(v, forwardDistance, forwardStamp, downOffsets, downArcs, arcSource)){
+					continue;
+				}
+				for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++){
+					int a = upArcs[i];
+					int w = arcTarget[a];
+					double d = forwardDistance[v] + arcWeight[a];
+					if (forwardStamp[w] != search || d < forwardDistance[w]){
+						forwardStamp[w] = search;
+						forwardDistance[w] = d;
+						forwardVia[w] = a;
+						forwardHeap.offer(w, d);
+					}
+				}
+			} else {
+				if (forwardStamp[v] == search && forwardDistance[v] + backwardDistance[v] < best){
+					best = forwardDistance[v] + backwardDistance[v];
+					meet = v;
+				}
+				if (stalled(v, backwardDistance, backwardStamp, upOffsets, upArcs, arcTarget)){
+					continue;
+				}
+				for (int i = downOffsets[v]; i < downOffsets[v + 1]; i++){
+					int a = downArcs[i];
+					int u = arcSource[a];
+					double d = backwardDistance[v] + arcWeight[a];
+					if (backwardStamp[u] != search || d < backwardDistance[u]){
+						backwardStamp[u] = search;
+						backwardDistance[u] = d;
+						backwardVia[u] = a;
+						backwardHeap.offer(u, d);
+					}
+				}
+			}
+		}
+
+		if (meet < 0){
+			return null;
+		}
+
+		// arcs from source up to the meeting vertex, then down to target
+		IntList up = new IntList();
+		for (int v = meet; v != source; v = arcSource[forwardVia[v]]){
+			up.add(forwardVia[v]);
+		}
+		IntList path = new IntList();
+		for (int i = up.size() - 1; i >= 0; i--){
+			unpack(up.get(i), path);
+		}
+		for (int v = meet; v != target; v = arcTarget[backwardVia[v]]){
+			unpack(backwardVia[v], path);
+		}
+		return graph.makePath(path.items, path.size, best);
+	}
+
+	/**
+	 * Returns true iff a vertex above <tt>v</tt> that one side of a search has already reached has a shorter way down to <tt>v</tt>, in which case
+	 * the search can't find a shortest path through <tt>v</tt> and doesn't need to go on from it.
+	 * @param arcs int[] arcs between <tt>v</tt> and the vertices above it that lead toward <tt>v</tt> in this direction of search
+	 * @param far int[] end of each arc away from <tt>v</tt>
+	 */
+	private boolean stalled(int v, double[] distance, int[] stamp, int[] offsets, int[] arcs, int[] far){
+		for (int i = offsets[v]; i < offsets[v + 1]; i++){
+			int a = arcs[i];
+			int u = far[a];
+			if (stamp[u] == search && distance[u] + arcWeight[a] < distance[v]){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns number of shortcuts added while building this.
+	 */
+	public int getShortcutCount(){
+		return arcCount - graph.getEdgeCount();
+	}
+
+	/**
+	 * Returns order in which the vertex was contracted, from 0.
+	 */
+	public int getRank(int vertexId){
+		return rank[vertexId];
+	}
+
+	public CompactGraph getGraph(){
+		return graph;
+	}
+
+	/**
+	 * Appends the original edges making up <tt>arc</tt> to <tt>path</tt>, in order.
+	 */
+	private void unpack(int arc, IntList path){
+		IntList stack = new IntList();
+		stack.add(arc);
+		while (stack.size() > 0){
+			int a = stack.pop();
+			if (arcFirst[a] < 0){
+				path.add(a); // arcs of original edges share their edge ids
+			} else {
+				stack.add(arcSecond[a]);
+				stack.add(arcFirst[a]);
+			}
+		}
+	}
+
+	private int addArc(int source, int target, double weight, int first, int second){
+		if (arcCount == arcSource.length){
+			int capacity = arcCount * 2;
+			arcSource = Arrays.copyOf(arcSource, capacity);
+			arcTarget = Arrays.copyOf(arcTarget, capacity);
+			arcWeight = Arrays.copyOf(arcWeight, capacity);
+			arcFirst = Arrays.copyOf(arcFirst, capacity);
+			arcSecond = Arrays.copyOf(arcSecond, capacity);
+		}
+		arcSource[arcCount] = source;
+		arcTarget[arcCount] = target;
+		arcWeight[arcCount] = weight;
+		arcFirst[arcCount] = first;
+		arcSecond[arcCount] = second;
+		return arcCount++;
+	}
+
+	private static double[] edgeWeights(CompactGraph graph){
+		double[] weights = new double[graph.getEdgeCount()];
+		for (int e = 0; e < weights.length; e++){
+			weights[e] = graph.getEdgeWeight(e);
+		}
+		return weights;
+	}
+
+	/**
+	 * State used only while the hierarchy is being built.
+	 */
+	private class Contractor {
+
+		private final int n;
+		private final IntList[] outArcs; // arcs between vertices not yet contracted
+		private final IntList[] inArcs;
+		private final boolean[] contracted;
+		private final int[] contractedNeighbors;
+
+		// witness search
+		private final double[] distance;
+		private final int[] stamp;
+		private int search;
+		private final MinHeap heap;
+
+		public Contractor(int n){
+			this.n = n;
+			this.outArcs = new IntList[n];
+			this.inArcs = new IntList[n];
+			for (int v = 0; v < n; v++){
+				outArcs[v] = new IntList();
+				inArcs[v] = new IntList();
+			}
+			for (int a = 0; a < arcCount; a++){
+				if (arcSource[a] != arcTarget[a]){
+					outArcs[arcSource[a]].add(a);
+					inArcs[arcTarget[a]].add(a);
+				}
+			}
+			this.contracted = new boolean[n];
+			this.contractedNeighbors = new int[n];
+			this.distance = new double[n];
+			this.stamp = new int[n];
+			this.search = 0;
+			this.heap = new MinHeap(n);
+		}
+
+		public void contract(){
+			MinHeap order = new MinHeap(n);
+			for (int v = 0; v < n; v++){
+				order.offer(v, importance(v));
+			}
+			int next = 0;
+			while (!order.isEmpty()){
+				int v = order.poll();
+				// importance goes stale as neighbors are contracted, so check it again before committing
+				double p = importance(v);
+				if (!order.isEmpty() && p > order.peekKey()){
+					order.offer(v, p);
+					continue;
+				}
+				shortcut(v, true);
+				contracted[v] = true;
+				rank[v] = next++;
+				for (int i = 0; i < outArcs[v].size(); i++){
+					contractedNeighbors[arcTarget[outArcs[v].get(i)]]++;
+				}
+				for (int i = 0; i < inArcs[v].size(); i++){
+					contractedNeighbors[arcSource[inArcs[v].get(i)]]++;
+				}
+			}
+		}
+
+		/**
+		 * Returns priority of contracting <tt>v</tt> next, lower first: shortcuts it would add less arcs it would remove, plus neighbors already contracted.
+		 */
+		private double importance(int v){
+			int shortcuts = shortcut(v, false);
+			int removed = live(inArcs[v]) + live(outArcs[v]);
+			return shortcuts - removed + contractedNeighbors[v];
+		}
+
+		/**
+		 * Finds the shortcuts needed to contract <tt>v</tt>, adds them if <tt>add</tt> is true, and returns how many there are.
+		 */
+		private int shortcut(int v, boolean add){
+			int count = 0;
+			double maxOut = 0.0;
+			for (int j = 0; j < outArcs[v].size(); j++){
+				int out = outArcs[v].get(j);
+				if (!contracted[arcTarget[out]]){
+					maxOut = Math.max(maxOut, arcWeight[out]);
+				}
+			}
+			for (int i = 0; i < inArcs[v].size(); i++){
+				int in = inArcs[v].get(i);
+				int u = arcSource[in];
+				if (contracted[u]){
+					continue;
+				}
+				witnessSearch(u, v, arcWeight[in] + maxOut);
+				for (int j = 0; j < outArcs[v].size(); j++){
+					int out = outArcs[v].get(j);
+					int w = arcTarget[out];
+					if (contracted[w] || w == u){
+						continue;
+					}
+					double via = arcWeight[in] + arcWeight[out];
+					if (stamp[w] == search && distance[w] <= via){
+						continue; // a path avoiding v is no longer
+					}
+					count++;
+					if (add){
+						int a = addArc(u, w, via, in, out);
+						outArcs[u].add(a);
+						inArcs[w].add(a);
+						// later pairs from u may be witnessed by this shortcut
+						if (stamp[w] != search || via < distance[w]){
+							stamp[w] = search;
+							distance[w] = via;
+						}
+					}
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Finds distances from <tt>source</tt> to vertices not yet contracted, without passing through <tt>avoid</tt>, up to <tt>limit</tt>.
+		 */
+		private void witnessSearch(int source, int avoid, double limit){
+			search++;
+			heap.clear();
+			stamp[source] = search;
+			distance[source] = 0.0;
+			heap.offer(source, 0.0);
+			int settled = 0;
+			while (!heap.isEmpty() && settled < WITNESS_SETTLE_LIMIT){
+				if (heap.peekKey() > limit){
+					break;
+				}
+				int x = heap.poll();
+				settled++;
+				for (int i = 0; i < outArcs[x].size(); i++){
+					int a = outArcs[x].get(i);
+					int y = arcTarget[a];
+					if (y == avoid || contracted[y]){
+						continue;
+					}
+					double d = distance[x] + arcWeight[a];
+					if (stamp[y] != search || d < distance[y]){
+						stamp[y] = search;
+						distance[y] = d;
+						heap.offer(y, d);
+					}
+				}
+			}
+		}
+
+		private int live(IntList arcs){
+			int count = 0;
+			for (int i = 0; i < arcs.size(); i++){
+				int a = arcs.get(i);
+				if (!contracted[arcSource[a]] && !contracted[arcTarget[a]]){
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Growable list of <tt>int</tt>s.
+	 */
+	private static class IntList {
+		private int[] items = new int[4];
+		private int size = 0;
+
+		public void add(int item){
+			if (size == items.length){
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = item;
+		}
+
+		public int get(int i){
+			return items[i];
+		}
+
+		public int pop(){
+			return items[--size];
+		}
+
+		public int size(){
+			return size;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.underplex.tranopolis;
+
+/**
+ * <tt>TravelTimes</tt> based on how many Drives are on each Road right now, as estimated by <tt>Road.estimateTravelTime</tt> for one more Drive.
+ * <p>
+ * Edges that aren't Roads are assumed to be driven at their speed limit.
+ */
+public class CurrentTravelTimes implements TravelTimes {
+
+	@Override
+	public double getTravelSeconds(CompactGraph graph, int edgeId, long time) {
+		Drivable edge = graph.getEdge(edgeId);
+		if (edge instanceof Road){
+			Road road = (Road) edge;
+			return road.estimateTravelTime(road.getOccupancy() + 1);
+		}
+		return graph.getEdgeLength(edgeId) / (graph.getEdgeMaxSpeed(edgeId) / 3.6);
+	}
+}
@@ -6,13 +6,12 @@ import java.io.Writer;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.jgrapht.GraphPath;
-import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
 
 import com.opencsv.bean.StatefulBeanToCsv;
 import com.opencsv.bean.StatefulBeanToCsvBuilder;
@@ -80,8 +79,7 @@ public class Demo {
 //		LOGGER.info("There are " + city.getRoadGraph().vertexSet().size() + " vertices.");
 //		LOGGER.info("There are " + city.getRoadGraph().edgeSet().size() + " edges.");
 
-		DijkstraShortestPath<Drivable, Drivable> dsp = new DijkstraShortestPath<Drivable, Drivable>(city.getRoadGraph());
-		GraphPath<Drivable,Drivable> path = dsp.getPath(northviewApts, eastLakeMall);
+		GraphPath<Drivable,Drivable> path = city.getGraphManager().getRouteCache().getRoute(northviewApts, eastLakeMall);
 //		LOGGER.info("Path is " + path);
 		
 		city.getResidentManager().addResidents(makeBasics(1000,northviewApts,eastLakeMall));
@@ -113,7 +111,7 @@ public class Demo {
 	}
 	
 	public static Set<Resident> makeBasics(int num,Location home,Location work){
-		Set<Resident> rSet = new HashSet<>();
+		Set<Resident> rSet = new LinkedHashSet<>();
 		if (num >= 1){
 			for (int i = 1; i <= num; i++){
 				rSet.add(new BasicResident(home,work));
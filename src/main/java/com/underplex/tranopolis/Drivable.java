@@ -1,6 +1,6 @@
 package com.underplex.tranopolis;
 
-import java.time.LocalDateTime;
+import java.util.HashSet;
 import java.util.Queue;
 import java.util.Set;
 
@@ -12,26 +12,55 @@ import java.util.Set;
 public interface Drivable {
 
 	/**
-	 * Attempts to take as many of <tt>Drive</tt>s as possible and returns <tt>Drive</tt>s that can't be taken onto this.
+	 * Attempts to take as many of <tt>Drive</tt>s as possible, and leaves <tt>drives</tt> holding only those that can't be taken onto this, in
+	 * the order they were given.
 	 * <p>
-	 * The <tt>Queue</tt> passed might be changed by this method. An empty <tt>Queue</tt> can be passed.
+	 * An empty batch can be passed. Drives are taken in order, so when several compete for the same room the earlier ones get it first.
 	 * <p>
 	 * The <tt>time</tt> is provided so that this <tt>Drivable</tt> does not need to keep its 
 	 * own internal time.
-	 * @param drives <tt>Queue</tt> of <tt>Drive</tt>s to attempt to move onto this; cannot be null; may be mutated
-	 * @param time <tt>LocalDateTime</tt> in the current system when this process begins
+	 * @param drives <tt>DriveBatch</tt> of <tt>Drive</tt>s to attempt to move onto this; cannot be null
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> when this process begins
+	 * @return int number of <tt>Drive</tt>s taken
+	 */
+	public int take(DriveBatch drives, long time);
+	
+	/**
+	 * Attempts to take as many of <tt>Drive</tt>s as possible and returns <tt>Drive</tt>s that can't be taken onto this.
+	 * <p>
+	 * Same as <tt>take(DriveBatch, long)</tt> with a batch of the Drives in <tt>drives</tt>, which is emptied. The batch is borrowed from the
+	 * pool, but a new Set is made for the Drives left over on every call.
+	 * @param drives <tt>Queue</tt> of <tt>Drive</tt>s to attempt to move onto this; cannot be null; emptied
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> when this process begins
 	 * @return <tt>Drive</tt>s that can't be taken onto this
+	 * @deprecated use <tt>take(DriveBatch, long)</tt>, which leaves the Drives not taken in the batch
 	 */
-	public Set<Drive> take(Queue<Drive> drives, LocalDateTime time);
+	@Deprecated
+	public default Set<Drive> take(Queue<Drive> drives, long time){
+		if (drives == null) throw new IllegalArgumentException("Arguments to take method cannot be null.");
+		DriveBatch batch = DriveBatch.borrow();
+		try {
+			batch.addAll(drives);
+			drives.clear();
+			take(batch, time);
+			Set<Drive> rejects = new HashSet<>();
+			for (int i = 0; i < batch.size(); i++){
+				rejects.add(batch.get(i));
+			}
+			return rejects;
+		} finally {
+			batch.release();
+		}
+	}
 	
 	/**
 	 * Moves as many <tt>Drive</tt> elements as possible off this <tt>Drivable</tt>.
 	 * <p>
 	 * Vehicles scheduled to move off this <tt>Drivable</tt> before and at <tt>time</tt> should be allowed to do so if possible. More importantly, vehicles scheduled to move
 	 * off after <tt>time</tt> should not be moved.
-	 * @param time <tt>LocalDateTime</tt> that this process begins
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> that this process begins
 	 */
-	public void flow(LocalDateTime time);
+	public void flow(long time);
 	
 	/**
 	 * Returns number of lots that traversing this Drivable would represent.
@@ -45,4 +74,32 @@ public interface Drivable {
 	 */
 	public Set<Drive> getDrives();
 
+	/**
+	 * Returns the earliest time at which <tt>flow</tt> would move any <tt>Drive</tt> off this, or <tt>SimTime.NEVER</tt> if no Drive is waiting on this.
+	 * <p>
+	 * The time returned may be in the past, meaning that Drives are due but have not been able to move yet.
+	 * @return long seconds since <tt>City.DEFAULT_START</tt>
+	 */
+	public long getNextFlowTime();
+	
+	/**
+	 * Sets the <tt>FlowScheduler</tt> this notifies whenever it takes on new Drives.
+	 * @param scheduler <tt>FlowScheduler</tt> to notify, or <tt>null</tt> if none
+	 */
+	public void setFlowScheduler(FlowScheduler scheduler);
+	
+	/**
+	 * Returns the dense index of this in the <tt>DrivableGraph</tt> that last indexed it, or -1 if none has.
+	 * <p>
+	 * Indices run from 0 to one less than the number of Drivables in that graph, vertices first, so they can be used to keep per-Drivable state in arrays.
+	 * @see DrivableGraph#indexDrivables()
+	 */
+	public int getGraphIndex();
+	
+	/**
+	 * Sets the dense index of this. Meant to be used only by <tt>DrivableGraph</tt>.
+	 * @param index int index of this in its graph
+	 */
+	public void setGraphIndex(int index);
+	
 }
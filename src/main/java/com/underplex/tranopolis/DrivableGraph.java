@@ -1,5 +1,7 @@
 package com.underplex.tranopolis;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.function.Supplier;
 
 import org.jgrapht.Graph;
@@ -21,10 +23,128 @@ import org.jgrapht.graph.DirectedPseudograph;
 public class DrivableGraph extends DirectedPseudograph<Drivable, Drivable>{
 	 
 	private final City city;
+	private Drivable[] drivables; // all Drivables by graph index, followed by room for more
+	private int drivableCount; // number of Drivables at the front of drivables
+	private int vertexCount; // number of Drivables at the front of drivables that are vertices
 	
 	public DrivableGraph(City city) {
 		super(null, null, true);
 		this.city = city;
+		this.drivables = new Drivable[0];
+		this.drivableCount = 0;
+		this.vertexCount = 0;
+	}
+	
+	/**
+	 * Gives every vertex and edge of this a dense graph index, vertices first, and remembers them by that index.
+	 * <p>
+	 * Should be called again whenever vertices or edges are added or removed, since indices are only valid as of the last call, unless the
+	 * change is passed to <tt>reindex</tt> instead.
+	 */
+	public void indexDrivables(){
+		Drivable[] all = new Drivable[this.vertexSet().size() + this.edgeSet().size()];
+		int i = 0;
+		for (Drivable v : this.vertexSet()){
+			v.setGraphIndex(i);
+			all[i++] = v;
+		}
+		this.vertexCount = i;
+		for (Drivable e : this.edgeSet()){
+			e.setGraphIndex(i);
+			all[i++] = e;
+		}
+		this.drivables = all;
+		this.drivableCount = all.length;
+	}
+
+	/**
+	 * Indexes this again after <tt>removed</tt> have been taken out of it and <tt>added</tt> put in, giving new indices only to those and to
+	 * the few Drivables moved to make room for them.
+	 * <p>
+	 * Vertices still come first. The gap left by a vertex is filled with the last vertex, and the gap that leaves with the last edge; the gap
+	 * left by an edge is filled with the last edge; and a new vertex goes where the first edge was, which moves to the end. Removed Drivables
+	 * are given the index -1.
+	 * <p>
+	 * If the number of Drivables doesn't then match this, as when edges went with a vertex without being passed in, everything is indexed
+	 * again by <tt>indexDrivables</tt>.
+	 * @param removed Collection of Drivables taken out since this was last indexed
+	 * @param added Collection of Drivables put in since this was last indexed
+	 */
+	public void reindex(Collection<? extends Drivable> removed, Collection<? extends Drivable> added){
+		for (Drivable d : removed){
+			int i = d.getGraphIndex();
+			if (i < 0 || i >= drivableCount || drivables[i] != d){
+				continue;
+			}
+			if (i < vertexCount){
+				move(vertexCount - 1, i);
+				move(drivableCount - 1, vertexCount - 1);
+				vertexCount--;
+			} else {
+				move(drivableCount - 1, i);
+			}
+			drivables[--drivableCount] = null;
+			d.setGraphIndex(-1);
+		}
+		for (Drivable d : added){
+			int i = d.getGraphIndex();
+			if (i >= 0 && i < drivableCount && drivables[i] == d){
+				continue;
+			}
+			if (drivableCount == drivables.length){
+				drivables = Arrays.copyOf(drivables, Math.max(16, drivableCount * 2));
+			}
+			if (this.containsVertex(d)){
+				move(vertexCount, drivableCount);
+				drivables[vertexCount] = d;
+				d.setGraphIndex(vertexCount++);
+			} else {
+				drivables[drivableCount] = d;
+				d.setGraphIndex(drivableCount);
+			}
+			drivableCount++;
+		}
+		if (drivableCount != this.vertexSet().size() + this.edgeSet().size()){
+			indexDrivables();
+		}
+	}
+
+	/**
+	 * Moves the Drivable at index <tt>from</tt> to index <tt>to</tt>, leaving it at both until <tt>from</tt> is filled.
+	 */
+	private void move(int from, int to){
+		if (from != to){
+			drivables[to] = drivables[from];
+			drivables[to].setGraphIndex(to);
+		}
+	}
+	
+	/**
+	 * Returns Drivable with graph index <tt>index</tt> as of the last call to <tt>indexDrivables</tt> or <tt>reindex</tt>.
+	 * @param index int graph index
+	 * @return Drivable with that index
+	 */
+	public Drivable getDrivable(int index){
+		if (index >= drivableCount) throw new IndexOutOfBoundsException("No Drivable " + index + " among " + drivableCount + " indexed.");
+		return drivables[index];
+	}
+	
+	/**
+	 * Returns number of Drivables indexed by the last call to <tt>indexDrivables</tt> or <tt>reindex</tt>.
+	 */
+	public int getDrivableCount(){
+		return drivableCount;
+	}
+	
+	/**
+	 * Returns number of vertices indexed by the last call to <tt>indexDrivables</tt> or <tt>reindex</tt>; these have the lowest indices.
+	 */
+	public int getVertexCount(){
+		return vertexCount;
+	}
+	
+	public City getCity(){
+		return city;
 	}
 	
 	/**
@@ -2,17 +2,23 @@ package com.underplex.tranopolis;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jgrapht.GraphPath;
 
 /**
  * Manages all the <tt>DrivableGraph</tt> instances associated with a single instance of a <tt>City</tt>.
  * <p>
- * Also manages parts of the drivable graph that are not locations, specifically Xings and Roads.
+ * Also manages parts of the drivable graph that are not locations, specifically Xings and Roads. These are indexed by the Lots they cover, so
+ * that a few changed Lots can be spliced into the current graph with <tt>updateLots</tt> instead of finding the whole graph again.
  * 
  * @author Brandon Irvine, brandon@underplex.com
  */
@@ -20,14 +26,32 @@ public class DrivableGraphManager {
 
 	private final City city;
 	private DrivableGraph currentGraph;
-	private Set<Xing> xings;
-	private Set<Road> roads;
+	private CompactGraph compactGraph;
+	private int version; // number of times the graph has been updated
+	private final RouteCache routes;
+	private Router router;
+	private boolean usingHierarchy; // whether routes are found with a ContractionHierarchy
+	private ForkJoinPool discoveryPool; // pool the whole graph is found on, or null to find it on the calling thread
+	private final Set<Xing> xings; // Xings of the current graph
+	private Xing[][] xingsByLot; // same Xings by the x and y coordinates of their Lots
+	private final Set<Road> roads; // Roads between Xings of the current graph, not counting Parking
+	private final Map<Lot, List<Road>> roadsByLot; // Roads running through or ending at each Lot
+	private final Map<Road, RoutedDrives> routedByRoad; // begun Drives routed over each Road, so those a change cuts off can be found
 	
 	public DrivableGraphManager(City city){
 		this.city = city;
 		this.currentGraph = null;
+		this.compactGraph = null;
+		this.version = 0;
+		this.routes = new RouteCache(this);
+		this.router = null;
+		this.usingHierarchy = false;
+		this.discoveryPool = null;
 		this.roads = new HashSet<>();
 		this.xings = new HashSet<>();
+		this.xingsByLot = null;
+		this.roadsByLot = new HashMap<>();
+		this.routedByRoad = new HashMap<>();
 	}
 
 	/**
@@ -38,18 +62,390 @@ public class DrivableGraphManager {
 		return currentGraph;
 	}
 	
+	/**
+	 * Returns compact snapshot of the current graph or <tt>null</tt> if the graph hasn't been set yet.
+	 * <p>
+	 * The snapshot is replaced, not changed, whenever the graph is updated.
+	 * @return <tt>CompactGraph</tt> of the current road graph
+	 */
+	public CompactGraph getCompactGraph() {
+		return compactGraph;
+	}
+	
+	/**
+	 * Returns number of times the graph has been updated, which identifies the current graph.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns cache of fastest paths between Locations on the current graph.
+	 */
+	public RouteCache getRouteCache() {
+		return routes;
+	}
+	
+	/**
+	 * Returns router over the current graph with edges weighed by current traffic as of <tt>time</tt>, or <tt>null</tt> if the graph hasn't been set yet.
+	 * <p>
+	 * Edges are weighed again only when <tt>time</tt> differs from the last time asked for, so routes found in the same step share the work.
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt>
+	 * @return <tt>Router</tt> for the current graph
+	 */
+	public Router getRouter(long time) {
+		if (compactGraph == null){
+			return null;
+		}
+		if (router == null || router.getGraph() != compactGraph){
+			router = new Router(compactGraph, time);
+		} else if (router.getTime() != time){
+			router.update(time);
+		}
+		return router;
+	}
+	
+	/**
+	 * Returns contraction hierarchy that the route cache finds paths with, built over its current travel time weights, or <tt>null</tt> if
+	 * hierarchies aren't being used or the graph hasn't been set yet.
+	 */
+	public ContractionHierarchy getHierarchy() {
+		return routes.getHierarchy();
+	}
+	
+	public boolean isUsingHierarchy() {
+		return usingHierarchy;
+	}
+	
+	/**
+	 * Sets whether the route cache builds a <tt>ContractionHierarchy</tt> every time it weighs the graph, and finds paths with it.
+	 * <p>
+	 * Building one takes much longer than a single search, so this only pays off on large graphs with many routes to find between weighings.
+	 * <p>
+	 * Paths already cached are dropped.
+	 * @param usingHierarchy boolean
+	 */
+	public void setUsingHierarchy(boolean usingHierarchy) {
+		this.usingHierarchy = usingHierarchy;
+		routes.clear();
+	}
+	
+	public ForkJoinPool getDiscoveryPool() {
+		return discoveryPool;
+	}
+	
+	/**
+	 * Sets pool that <tt>updateGraph</tt> finds the whole graph on, or <tt>null</tt> to find it on the calling thread.
+	 * <p>
+	 * The graph found is the same either way; a pool only pays off for very large cities.
+	 * @param discoveryPool ForkJoinPool to use, or <tt>null</tt>
+	 */
+	public void setDiscoveryPool(ForkJoinPool discoveryPool) {
+		this.discoveryPool = discoveryPool;
+	}
+	
 	/**
 	 * Update the internal representation of the road graph.
+	 * <p>
+	 * Paths cached for the old graph are dropped.
 	 */
 	public void updateGraph(){
-		// update set of Xings
-		// update set of Roads
-		this.currentGraph = GraphFinder.findDrivableGraph(city);
+		this.currentGraph = GraphFinder.findDrivableGraph(city, discoveryPool);
+		currentGraph.indexDrivables();
+		
+		// update set of Xings and Roads
+		xings.clear();
+		roads.clear();
+		roadsByLot.clear();
+		for (Drivable v : currentGraph.vertexSet()){
+			if (v instanceof Xing){
+				xings.add((Xing) v);
+			}
+		}
+		xingsByLot = GraphFinder.indexXings(city, xings);
+		for (Drivable e : currentGraph.edgeSet()){
+			if (e instanceof Road && !(e instanceof Parking)){
+				addRoad((Road) e);
+			}
+		}
+		routedByRoad.keySet().retainAll(roads);
+		snapshot();
+	}
+	
+	/**
+	 * Updates the current graph after <tt>changed</tt> Lots have been paved, built, or cleared, and returns the Drivables taken out of it.
+	 * <p>
+	 * Only the changed Lots and their neighbors are looked at again. Xings appear or disappear there, Roads running through or ending there
+	 * are traced again, and every other Xing and Road is kept as it is, along with the Drives on it. New Roads equal to old ones are not
+	 * swapped in, so Drives on them stay put. Only the Drivables taken out or put in, and the few moved to fill the gaps, are given new graph
+	 * indices, and cached routes are only searched for again if they run over what was taken out.
+	 * <p>
+	 * What is derived from the whole graph is not patched, though: the new snapshot is built in full, copying unchanged edges from the last
+	 * one, and the route cache weighs every edge of it again on its next search and searches without a hierarchy until it next reweighs. So
+	 * each call still costs time in proportion to the size of the graph, if far less than <tt>updateGraph</tt>.
+	 * <p>
+	 * Drives on Roads taken out are aborted and their drivers sent back to where they started, as are Drives whose destination can no longer
+	 * be reached. Other begun Drives whose routes run over Roads taken out are given the fastest route on the new graph from the next vertex
+	 * they reach. Drives that haven't begun are checked when they do.
+	 * <p>
+	 * Changes to Locations or their connections still need <tt>updateGraph</tt>. If the graph hasn't been set yet, this just sets it.
+	 * @param changed Collection of Lots that have changed
+	 * @return Set of Drivables no longer in the graph
+	 */
+	public Set<Drivable> updateLots(Collection<Lot> changed){
+		if (changed == null) throw new IllegalArgumentException("Parameter changed may not be null.");
+		if (currentGraph == null){
+			updateGraph();
+			return new HashSet<>();
+		}
+		long time = city.getTimeManager().getCurrentSecond();
+		Set<Lot> connections = city.getLocationManager().connectionLots();
+		
+		// whether a Lot is an Xing depends only on it and its neighbors, so nothing outside this can change
+		LotManager lots = city.getLotManager();
+		Set<Lot> region = new LinkedHashSet<>();
+		for (Lot lot : changed){
+			region.add(lot);
+			lots.forEachNeighbor(lot.getX(), lot.getY(), (x, y) -> region.add(lots.getLot(x, y)));
+		}
+		
+		// Roads that may have changed, and Xings they need to be traced again from
+		Set<Road> stale = new LinkedHashSet<>();
+		Set<Xing> ends = new LinkedHashSet<>();
+		for (Lot lot : region){
+			List<Road> through = roadsByLot.get(lot);
+			if (through != null){
+				for (Road road : through){
+					stale.add(road);
+					ends.add((Xing) road.getSource());
+				}
+			}
+		}
+		
+		List<Xing> vanished = new ArrayList<>();
+		Set<Drivable> added = new LinkedHashSet<>();
+		for (Lot lot : region){
+			Xing xing = xingsByLot[lot.getX()][lot.getY()];
+			boolean isXing = GraphFinder.isXingLot(city, lot, connections);
+			if (xing != null && !isXing){
+				xings.remove(xing);
+				xingsByLot[lot.getX()][lot.getY()] = null;
+				vanished.add(xing);
+			} else if (xing == null && isXing){
+				xing = new Xing(lot);
+				xings.add(xing);
+				xingsByLot[lot.getX()][lot.getY()] = xing;
+				currentGraph.addVertex(xing);
+				added.add(xing);
+			}
+			if (isXing){
+				ends.add(xing);
+			}
+		}
+		ends.removeAll(vanished);
+		
+		Set<Road> traced = new LinkedHashSet<>();
+		for (Xing xing : ends){
+			for (Lot n : GraphFinder.findPavedNeighbors(city, xing.getLot())){
+				traced.add(GraphFinder.traceRoad(city, xing, n, xingsByLot));
+			}
+		}
+		
+		Set<Drivable> removed = new LinkedHashSet<>();
+		for (Road road : stale){
+			if (!traced.contains(road)){
+				currentGraph.removeEdge(road);
+				removeRoad(road);
+				removed.add(road);
+			}
+		}
+		for (Road road : traced){
+			if (!currentGraph.containsEdge(road)){
+				currentGraph.addEdge(road.getSource(), road.getTarget(), road);
+				addRoad(road);
+				added.add(road);
+			}
+		}
+		for (Xing xing : vanished){
+			currentGraph.removeVertex(xing);
+			removed.add(xing);
+		}
+		
+		Set<Drive> cutOff = new LinkedHashSet<>();
+		for (Drivable d : removed){
+			for (Drive drive : drivesInOrder(d)){
+				abort(drive, d, time);
+			}
+			RoutedDrives routed = routedByRoad.remove(d);
+			if (routed != null){
+				cutOff.addAll(routed.drives);
+			}
+		}
+		currentGraph.reindex(removed, added);
+		this.version++;
+		this.compactGraph = new CompactGraph(compactGraph, version);
+		
+		// Drives already on the network go around what was taken out
+		for (Drive drive : cutOff){
+			if (drive.getDisposition() == DriveDisposition.BEGUN && !drive.isRouteOn(currentGraph)){
+				reroute(drive, time);
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Makes a new snapshot of the current graph, and drops what was found on the old one.
+	 */
+	private void snapshot(){
+		this.version++;
+		this.compactGraph = new CompactGraph(currentGraph, version);
+		this.routes.clear();
+	}
+	
+	/**
+	 * Remembers that <tt>drive</tt>, which has begun, is routed over <tt>edges</tt>, so that it can be given a new route if any of them is
+	 * taken out by <tt>updateLots</tt>.
+	 * <p>
+	 * Called on the thread advancing the city whenever a Drive begins or is given a new route.
+	 * @param drive Drive that has begun
+	 * @param edges Collection of Drivables it is routed over
+	 */
+	void addRouted(Drive drive, Collection<Drivable> edges){
+		for (Drivable edge : edges){
+			if (!(edge instanceof Road) || edge instanceof Parking){
+				continue;
+			}
+			RoutedDrives routed = routedByRoad.get(edge);
+			if (routed == null){
+				routed = new RoutedDrives();
+				routedByRoad.put((Road) edge, routed);
+			}
+			routed.add(drive);
+		}
+	}
+	
+	private void addRoad(Road road){
+		roads.add(road);
+		for (Lot lot : lotsOf(road)){
+			List<Road> through = roadsByLot.get(lot);
+			if (through == null){
+				through = new ArrayList<>();
+				roadsByLot.put(lot, through);
+			}
+			through.add(road);
+		}
+	}
+	
+	private void removeRoad(Road road){
+		roads.remove(road);
+		for (Lot lot : lotsOf(road)){
+			List<Road> through = roadsByLot.get(lot);
+			through.remove(road);
+			if (through.isEmpty()){
+				roadsByLot.remove(lot);
+			}
+		}
+	}
+	
+	/**
+	 * Returns Lots of the Xings at either end of <tt>road</tt> and the Lots between them.
+	 */
+	private List<Lot> lotsOf(Road road){
+		List<Lot> lots = road.getSegments();
+		lots.add(((Xing) road.getSource()).getLot());
+		lots.add(((Xing) road.getTarget()).getLot());
+		return lots;
+	}
+	
+	/**
+	 * Gives <tt>drive</tt> the fastest route on the current graph from the next vertex it reaches, or aborts it if there is none.
+	 * <p>
+	 * The vertex is read off the route, since the edge leading to it may already have been taken out of the graph. A Drive at an Xing whose
+	 * next edge was taken out is routed from that Xing.
+	 */
+	private void reroute(Drive drive, long time){
+		Drivable at = drive.getCurrentDrivable();
+		Drivable from;
+		if (currentGraph.containsEdge(at)){
+			from = drive.next(at);
+		} else {
+			Drivable edge = drive.next(at);
+			if (edge != null && currentGraph.containsEdge(edge)){
+				from = drive.next(edge);
+			} else {
+				from = (at instanceof Xing) ? at : null;
+			}
+		}
+		GraphPath<Drivable, Drivable> ahead = null;
+		if (from != null && currentGraph.containsVertex(from)){
+			ahead = getRouter(time).findRoute(from, drive.getEnd());
+		}
+		if (ahead == null){
+			abort(drive, at, time);
+		} else {
+			drive.reroute(ahead);
+			addRouted(drive, ahead.getEdgeList());
+		}
+	}
+	
+	/**
+	 * Takes <tt>drive</tt> off <tt>at</tt>, aborts it, and sends its driver back to where it started.
+	 */
+	/**
+	 * Returns the Drives on <tt>d</tt> in an order that doesn't depend on how they hash: by ETA on Roads, and in turn-on order anywhere else.
+	 */
+	private static List<Drive> drivesInOrder(Drivable d){
+		List<Drive> drives = new ArrayList<>();
+		if (d instanceof Road){
+			for (Road.Eta eta : ((Road) d).getEtas()){
+				drives.add(eta.getDrive());
+			}
+		} else {
+			drives.addAll(d.getDrives());
+		}
+		return drives;
+	}
+	
+	private void abort(Drive drive, Drivable at, long time){
+		if (at instanceof Road){
+			((Road) at).evict(drive);
+		} else if (at instanceof Location){
+			((Location) at).evict(drive);
+		}
+		drive.abort(time);
+		city.getTracer().trace(Tracer.Event.ABORT, time, drive, at);
+		if (drive.getOnPoint() instanceof Location){
+			Location start = (Location) drive.getOnPoint();
+			drive.getDriver().setCurrentLocation(start);
+			start.addResident(drive.getDriver());
+		}
+		city.getResidentManager().getArchive().retire(drive);
 	}
 
 	public City getCity() {
 		return city;
 	}
+	
+	/**
+	 * Begun Drives last known to be routed over a Road, some of which may since have ended or gone another way.
+	 * <p>
+	 * Ended Drives are let go of whenever the list doubles, so it stays within twice the number still driving plus a few.
+	 */
+	private static class RoutedDrives {
+		private static final int MINIMUM_PURGE = 16;
+		
+		private final List<Drive> drives = new ArrayList<>();
+		private int purgeAt = MINIMUM_PURGE;
+		
+		public void add(Drive drive){
+			if (drives.size() >= purgeAt){
+				drives.removeIf(d -> d.getDisposition() != DriveDisposition.BEGUN);
+				purgeAt = Math.max(MINIMUM_PURGE, drives.size() * 2);
+			}
+			drives.add(drive);
+		}
+	}
 
 	/**
 	 * Returns defensive copy of set of Xings.
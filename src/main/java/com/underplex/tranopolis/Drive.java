@@ -2,9 +2,12 @@ package com.underplex.tranopolis;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.jgrapht.Graph;
 import org.jgrapht.GraphPath;
+import org.jgrapht.graph.GraphWalk;
 
 /**
  * Represents a single Drive by a single Resident with a defined way to get from start to end.
@@ -14,18 +17,26 @@ import org.jgrapht.GraphPath;
 public class Drive implements Comparable<Drive>{
 	
 	private static final int DEFAULT_DROP_SECONDS = 60 * 60;
+	private static final int CURSOR_WINDOW = 3; // a move never skips more than the vertex between two edges
 	
-	private final GraphPath<Drivable, Drivable> path; // primary path to be used, minus any other information
-	private final LocalDateTime attemptStartTime; // earliest time the Drive should start, if possible; otherwise will begin as soon as possible
-	private final LocalDateTime dropTime; // latest time the Drive could begin, if possible; after this time this Drive will not even be started
+	private static volatile boolean checkingCursor = Boolean.getBoolean("tranopolis.checkCursor"); // read by every thread moving Drives
+	
+	private long number; // unique among the Drives of a city, in the order they were scheduled, or -1 until then
+	private GraphPath<Drivable, Drivable> path; // primary path to be used, minus any other information; null once released
+	private double weight; // weight of path
+	private int length; // number of edges in path
+	// all times are seconds since City.DEFAULT_START, see SimTime
+	private final long attemptStartTime; // earliest time the Drive should start, if possible; otherwise will begin as soon as possible
+	private final long dropTime; // latest time the Drive could begin, if possible; after this time this Drive will not even be started
 	private DriveDisposition disposition;
 
-	private LocalDateTime actualStartTime;
+	private long actualStartTime;
 
 
-	private LocalDateTime actualEndTime;
+	private long actualEndTime;
 	private final Resident driver;
-	private final List<Drivable> route;
+	private List<Drivable> route; // only the start and end once released
+	private int cursor; // index in route of the Drivable this is currently on
 	private final OnOffPoint onPoint;
 	private final OnOffPoint offPoint;
 
@@ -46,14 +57,19 @@ public class Drive implements Comparable<Drive>{
 		
 		if (path.getEdgeList().size() < 1) throw new IllegalArgumentException("GraphPath must have at least 1 edge.");
 
+		this.number = -1L;
 		this.path = path;
+		this.weight = path.getWeight();
+		this.length = path.getEdgeList().size();
 		this.driver = driver;
-		this.attemptStartTime = startTime;
-		this.actualEndTime = null;
+		this.attemptStartTime = SimTime.toSeconds(startTime);
+		this.actualStartTime = SimTime.NEVER;
+		this.actualEndTime = SimTime.NEVER;
 		this.route = new ArrayList<>();
+		this.cursor = 0;
 		this.onPoint = startLocation;
 		this.offPoint = endLocation;
-		this.dropTime = dropTime;
+		this.dropTime = SimTime.toSeconds(dropTime);
 		this.disposition = DriveDisposition.WAITING;
 		
 		// notice that a Drive has to have at least 1 edge...
@@ -83,14 +99,35 @@ public class Drive implements Comparable<Drive>{
 
 	}
 
+	/**
+	 * Constructs a Drive restored from a <tt>Checkpoint</tt>, as it was when saved.
+	 */
+	Drive(GraphPath<Drivable, Drivable> path,
+			Resident driver,
+			long attemptStartTime,
+			long dropTime,
+			Location startLocation,
+			Location endLocation,
+			DriveDisposition disposition,
+			long actualStartTime,
+			long actualEndTime,
+			int cursor) {
+		this(path, driver, SimTime.toDateTime(attemptStartTime), startLocation, endLocation, SimTime.toDateTime(dropTime));
+		if (cursor < 0 || cursor >= route.size()) throw new IllegalArgumentException("Parameter cursor must be on the route.");
+		this.disposition = disposition;
+		this.actualStartTime = actualStartTime;
+		this.actualEndTime = actualEndTime;
+		this.cursor = cursor;
+	}
+
 	/**
 	 * If possible, make this <tt>Drive</tt> finished, in which case it is immutable. Returns true iff this method actually made this finished.
-	 * @param time end time of this drive
+	 * @param time end time of this drive in seconds since <tt>City.DEFAULT_START</tt>
 	 * @return true iff this method actually made this finished
 	 */
-	public boolean finish(LocalDateTime time){
+	public boolean finish(long time){
 		boolean rVal = false;
-		if (this.actualEndTime == null && disposition == DriveDisposition.BEGUN){
+		if (this.actualEndTime == SimTime.NEVER && disposition == DriveDisposition.BEGUN){
 			this.actualEndTime = time;
 			this.disposition = DriveDisposition.FINISHED;
 			rVal = true;
@@ -100,14 +137,17 @@ public class Drive implements Comparable<Drive>{
 	
 	/**
 	 * Notifies this Drive that it has begun. Returns truee iff this method actually began the Drive.
-	 * @param time
+	 * <p>
+	 * The graph manager of the city is told which Roads this is routed over, so that it can be given a new route if any is taken out.
+	 * @param time start time of this drive in seconds since <tt>City.DEFAULT_START</tt>
 	 * @return
 	 */
-	public boolean begin(LocalDateTime time){
+	public boolean begin(long time){
 		boolean rVal = false;
-		if (this.actualStartTime == null && disposition == DriveDisposition.WAITING){
+		if (this.actualStartTime == SimTime.NEVER && disposition == DriveDisposition.WAITING){
 			this.actualStartTime = time;
 			this.disposition = DriveDisposition.BEGUN;
+			((Location) onPoint).getCity().getGraphManager().addRouted(this, path.getEdgeList());
 			rVal = true;
 		}		
 		return rVal;
@@ -126,36 +166,264 @@ public class Drive implements Comparable<Drive>{
 		return rVal;
 	}
 
+	/**
+	 * If possible, make this <tt>Drive</tt> aborted, in which case it is immutable. Returns true iff this method actually made this aborted.
+	 * <p>
+	 * Only Drives waiting or begun can be aborted, which happens when the road network changes so that they can't go on.
+	 * @param time end time of this drive in seconds since <tt>City.DEFAULT_START</tt>
+	 * @return true iff this method actually made this aborted
+	 */
+	public boolean abort(long time){
+		boolean rVal = false;
+		if (disposition == DriveDisposition.WAITING || disposition == DriveDisposition.BEGUN){
+			this.actualEndTime = time;
+			this.disposition = DriveDisposition.ABORTED;
+			rVal = true;
+		}
+		return rVal;
+	}
+
+	/**
+	 * Replaces the rest of the route of this with <tt>ahead</tt>, which must start at a vertex of the route at or ahead of the Drivable this
+	 * is on and end where this does. Returns true iff this method actually changed the route.
+	 * <p>
+	 * The path of this is replaced by the part of the old one leading up to <tt>ahead</tt> followed by <tt>ahead</tt>, and is weighted by the
+	 * graph of <tt>ahead</tt>.
+	 * @param ahead GraphPath to follow from its start vertex on
+	 * @return true iff the route was changed
+	 */
+	public boolean reroute(GraphPath<Drivable, Drivable> ahead){
+		if (ahead == null) throw new IllegalArgumentException("Parameter ahead may not be null.");
+		if (path == null || (disposition != DriveDisposition.WAITING && disposition != DriveDisposition.BEGUN)){
+			return false;
+		}
+		if (!ahead.getEndVertex().equals(getEnd())) throw new IllegalArgumentException("New route must end where this Drive does.");
+		int k = -1;
+		for (int i = cursor; i < route.size() && k < 0; i++){
+			if (route.get(i).equals(ahead.getStartVertex())){
+				k = i;
+			}
+		}
+		if (k < 0) throw new IllegalArgumentException("New route must start on the route of this Drive, at or ahead of where it is.");
+
+		// the route alternates vertices and edges, starting with a vertex
+		Graph<Drivable, Drivable> graph = ahead.getGraph();
+		List<Drivable> vertices = new ArrayList<>();
+		List<Drivable> edges = new ArrayList<>();
+		List<Drivable> newRoute = new ArrayList<>(route.subList(0, k));
+		double w = ahead.getWeight();
+		for (int i = 0; i < k; i++){
+			if (i % 2 == 0){
+				vertices.add(route.get(i));
+			} else {
+				edges.add(route.get(i));
+				w += graph.getEdgeWeight(route.get(i));
+			}
+		}
+		List<Drivable> aheadEdges = ahead.getEdgeList();
+		List<Drivable> aheadVertices = ahead.getVertexList();
+		for (int i = 0; i < aheadVertices.size(); i++){
+			newRoute.add(aheadVertices.get(i));
+			vertices.add(aheadVertices.get(i));
+			if (i < aheadEdges.size()){
+				newRoute.add(aheadEdges.get(i));
+				edges.add(aheadEdges.get(i));
+			}
+		}
+
+		this.path = new GraphWalk<>(graph, getStart(), getEnd(), vertices, edges, w);
+		this.weight = w;
+		this.length = edges.size();
+		this.route = newRoute;
+		return true;
+	}
+
+	/**
+	 * Returns true iff every edge from the Drivable this is on to the end of the route is still in <tt>graph</tt>.
+	 * @param graph DrivableGraph to check against
+	 * @return true iff the rest of the route can still be driven on <tt>graph</tt>
+	 */
+	public boolean isRouteOn(Graph<Drivable, Drivable> graph){
+		for (int i = cursor; i < route.size(); i++){
+			if (i % 2 == 1 && !graph.containsEdge(route.get(i))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Lets go of the path and route of this once it is finished, dropped or aborted, so that they can be garbage collected while this is still
+	 * referred to.
+	 * <p>
+	 * Afterwards <tt>getGraphPath</tt> returns <tt>null</tt>, and the route is only the start and end, with this on the end if it finished and
+	 * on the start otherwise. Returns true iff this method actually released anything.
+	 * @return true iff this was released by this method
+	 */
+	public boolean release(){
+		if (path == null || (disposition != DriveDisposition.FINISHED && disposition != DriveDisposition.DROPPED
+				&& disposition != DriveDisposition.ABORTED)){
+			return false;
+		}
+		this.route = Arrays.asList(getStart(), getEnd());
+		this.cursor = (disposition == DriveDisposition.FINISHED) ? 1 : 0;
+		this.path = null;
+		return true;
+	}
+	
+	/**
+	 * Returns true iff the path of this has been released.
+	 */
+	public boolean isReleased(){
+		return path == null;
+	}
+	
 	/**
 	 * Given Drivable, returns the next <tt>Drivable</tt> for the planned route or null if last is the end of this Drive or if last is not on this route.
+	 * <p>
+	 * This runs in constant time when <tt>last</tt> is the Drivable this is on or one of the next two along the route, which is always the case while
+	 * this moves through the road network. Other Drivables are looked up with a scan of the route.
 	 * @param Drivable that is last item
 	 * @return Drivable that is next item
 	 */
 	public Drivable next(Drivable last){
 		Drivable r = null;
-		int i = this.route.indexOf(last);
-		if (i < route.size() - 1){
+		int i = this.locate(last);
+		if (i >= 0 && i < route.size() - 1){
 			r = route.get(i + 1);
 		}
 		return r;
 	}
 	
+	/**
+	 * Notifies this that it is now on <tt>drivable</tt>, so that the route cursor can move forward. Returns true iff <tt>drivable</tt> is on the route.
+	 * @param drivable Drivable that has just taken this
+	 * @return true iff <tt>drivable</tt> is on the route of this
+	 */
+	public boolean moveTo(Drivable drivable){
+		int i = this.locate(drivable);
+		if (i >= 0){
+			this.cursor = i;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the Drivable on the route that this is currently on, as far as this knows.
+	 * <p>
+	 * Before this begins, and while it waits to turn on, this is the start of the route.
+	 */
+	public Drivable getCurrentDrivable(){
+		return route.get(cursor);
+	}
+	
+	/**
+	 * Returns index in the route of the Drivable this is on, counting vertices and edges alike.
+	 */
+	int getCursor(){
+		return cursor;
+	}
+	
+	/**
+	 * Returns defensive copy of the route of this, alternating vertices and edges from the start to the end.
+	 */
+	List<Drivable> getRoute(){
+		return new ArrayList<>(route);
+	}
+	
+	/**
+	 * Returns index in the route of <tt>drivable</tt>, or -1 if it's not on the route.
+	 * <p>
+	 * Drivables at or just ahead of the cursor are found by identity without touching the rest of the route.
+	 */
+	private int locate(Drivable drivable){
+		int found = -1;
+		int end = Math.min(cursor + CURSOR_WINDOW, route.size());
+		for (int i = cursor; i < end; i++){
+			if (route.get(i) == drivable){
+				found = i;
+				break;
+			}
+		}
+		if (found < 0){
+			found = route.indexOf(drivable);
+		} else if (checkingCursor && route.indexOf(drivable) != found){
+			throw new IllegalStateException("Route cursor of " + this + " found " + drivable + " at " + found + " but the route has it at " + route.indexOf(drivable) + ".");
+		}
+		return found;
+	}
+	
+	/**
+	 * Turns on or off checking of every cursor lookup against a full scan of the route, which is slow and meant only for debugging.
+	 * <p>
+	 * Checking is off by default, unless the system property <tt>tranopolis.checkCursor</tt> is true. It applies to every City in the JVM and
+	 * to all threads moving their Drives, so callers turning it on for a while should turn it back off in a <tt>finally</tt> block.
+	 * @param checking true iff lookups should be checked
+	 */
+	public static void setCursorChecking(boolean checking){
+		checkingCursor = checking;
+	}
+	
 	public LocalDateTime getAttemptStartTime() {
+		return SimTime.toDateTime(attemptStartTime);
+	}
+	
+	/**
+	 * Returns attempted start time in seconds since <tt>City.DEFAULT_START</tt>.
+	 */
+	public long getAttemptStartSecond() {
 		return attemptStartTime;
 	}
 
 	public String toString(){
-		return "Drive (" + this.driver +  " from " + this.getGraphPath().getStartVertex() + " to " + this.getGraphPath().getEndVertex() + ")"; 
+		return "Drive (" + this.driver +  " from " + this.getStart() + " to " + this.getEnd() + ")"; 
 	}
 
+	/**
+	 * Returns the path of this, or <tt>null</tt> if it has been released.
+	 */
 	public GraphPath<Drivable, Drivable> getGraphPath(){
 		return this.path;
 	}
 	
+	/**
+	 * Returns weight of the path of this, which is kept after the path is released.
+	 */
+	public double getWeight(){
+		return weight;
+	}
+	
+	/**
+	 * Returns number of edges in the path of this, which is kept after the path is released.
+	 */
+	public int getLength(){
+		return length;
+	}
+	
 	@Override
 	public int compareTo(Drive other) {
-		Double w = this.path.getWeight();
-		return w.compareTo(other.getGraphPath().getWeight());
+		return Double.compare(this.weight, other.getWeight());
+	}
+
+	/**
+	 * Returns number of this, which is unique among the Drives of its city, counting from 0 in the order they were scheduled, or -1 if it
+	 * hasn't been scheduled.
+	 * @see ResidentManager
+	 */
+	public long getNumber(){
+		return number;
+	}
+
+	void setNumber(long number){
+		this.number = number;
+	}
+
+	/**
+	 * Returns the Tracer of the city this is driven in.
+	 */
+	Tracer getTracer(){
+		return ((Location) onPoint).getCity().getTracer();
 	}
 
 	public Resident getDriver() {
@@ -189,14 +457,41 @@ public class Drive implements Comparable<Drive>{
 	 * @return LocalDateTime.
 	 */
 	public LocalDateTime getDropTime() {
+		return SimTime.toDateTime(dropTime);
+	}
+	
+	/**
+	 * Returns drop time in seconds since <tt>City.DEFAULT_START</tt>.
+	 */
+	public long getDropSecond() {
 		return dropTime;
 	}
 	
+	/**
+	 * Returns time this began or null if it hasn't.
+	 */
 	public LocalDateTime getActualStartTime() {
+		return SimTime.toDateTime(actualStartTime);
+	}
+
+	/**
+	 * Returns time this began in seconds since <tt>City.DEFAULT_START</tt>, or <tt>SimTime.NEVER</tt> if it hasn't.
+	 */
+	public long getActualStartSecond() {
 		return actualStartTime;
 	}
 
+	/**
+	 * Returns time this finished or null if it hasn't.
+	 */
 	public LocalDateTime getActualEndTime() {
+		return SimTime.toDateTime(actualEndTime);
+	}
+
+	/**
+	 * Returns time this finished in seconds since <tt>City.DEFAULT_START</tt>, or <tt>SimTime.NEVER</tt> if it hasn't.
+	 */
+	public long getActualEndSecond() {
 		return actualEndTime;
 	}
 
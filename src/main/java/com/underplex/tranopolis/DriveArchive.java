@@ -0,0 +1,310 @@
+package com.underplex.tranopolis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where finished, dropped and aborted Drives are retired to.
+ * <p>
+ * Retiring a Drive summarizes it as a <tt>DriveRecord</tt>, adds it to running totals, and releases the path and route of the Drive right away.
+ * Only the most recent records are kept in memory, packed into a fixed-size buffer. If an output file has been set, every record is also
+ * appended to it, so a whole run can be read back with <tt>read</tt> however long it was.
+ * <p>
+ * So that records can be made sense of after the run, Locations are numbered by their place in the order of labels that map files list them
+ * in, <tt>CityMap.getLocations</tt>, which only depends on what Locations the city has. Making a Location numbers those labelled after it
+ * one higher from then on. Drivers are numbered by the key <tt>ResidentManager.addResidents</tt> gave them in their city, which checkpoints
+ * keep.
+ * <p>
+ * Threads flowing regions of the graph side by side each put the Drives they retire in a list of their own, which the thread advancing the
+ * city records region by region once they are all done, so records come out in the same order however the threads were scheduled.
+ */
+public class DriveArchive implements Closeable {
+
+	public static final int DEFAULT_RETENTION = 4096; // number of recent records kept in memory
+	private static final int OUTPUT_BUFFER_RECORDS = 256; // number of records written to the output file at once
+
+	private final int retention;
+	private final ByteBuffer recent; // ring of the last records retired
+	private City city; // of the Locations numbered, once any have been
+	private final Map<Location, Integer> locationNumbers;
+	private List<Location> locations; // of the city by label, as last numbered
+	private long retired;
+	private long finished;
+	private long dropped;
+	private long aborted;
+	private long finishedSeconds; // total time taken by finished Drives
+	private FileChannel output;
+	private ByteBuffer outputBuffer;
+	private final ThreadLocal<List<Drive>> deferring; // where Drives retired on a thread flowing a region wait, if anywhere
+
+	/**
+	 * Constructor.
+	 * @param retention int number of recent records kept in memory, at least 1
+	 */
+	public DriveArchive(int retention){
+		if (retention < 1) throw new IllegalArgumentException("Parameter retention must be at least 1.");
+		this.retention = retention;
+		this.recent = ByteBuffer.allocate(retention * DriveRecord.BYTES);
+		this.city = null;
+		this.locationNumbers = new HashMap<>();
+		this.locations = new ArrayList<>();
+		this.retired = 0;
+		this.finished = 0;
+		this.dropped = 0;
+		this.aborted = 0;
+		this.finishedSeconds = 0;
+		this.output = null;
+		this.outputBuffer = null;
+		this.deferring = new ThreadLocal<>();
+	}
+
+	public DriveArchive(){
+		this(DEFAULT_RETENTION);
+	}
+
+	/**
+	 * Records <tt>drive</tt> and releases its path and route. Returns the record made, or <tt>null</tt> if <tt>drive</tt> was retired on a
+	 * thread flowing a region of the graph and waits to be recorded in order with the others.
+	 * @param drive Drive that is finished, dropped or aborted
+	 * @return DriveRecord summarizing <tt>drive</tt>, or <tt>null</tt> if it waits
+	 */
+	public DriveRecord retire(Drive drive){
+		if (drive == null) throw new IllegalArgumentException("Parameter drive may not be null.");
+		DriveDisposition disposition = drive.getDisposition();
+		if (disposition != DriveDisposition.FINISHED && disposition != DriveDisposition.DROPPED && disposition != DriveDisposition.ABORTED){
+			throw new IllegalArgumentException("Only finished, dropped or aborted Drives can be retired.");
+		}
+		List<Drive> waiting = deferring.get();
+		if (waiting != null){
+			waiting.add(drive);
+			return null;
+		}
+		return record(drive);
+	}
+
+	/**
+	 * Makes Drives retired on the current thread wait in <tt>waiting</tt> until they are recorded with <tt>apply</tt>, or, if
+	 * <tt>waiting</tt> is <tt>null</tt>, records them straight away again.
+	 */
+	void defer(List<Drive> waiting){
+		if (waiting == null){
+			deferring.remove();
+		} else {
+			deferring.set(waiting);
+		}
+	}
+
+	/**
+	 * Records the Drives in <tt>waiting</tt>, in the order they were retired, and empties it.
+	 */
+	synchronized void apply(List<Drive> waiting){
+		for (Drive drive : waiting){
+			record(drive);
+		}
+		waiting.clear();
+	}
+
+	private synchronized DriveRecord record(Drive drive){
+		DriveDisposition disposition = drive.getDisposition();
+
+		long driver = (drive.getDriver() instanceof AbstractResident) ? ((AbstractResident) drive.getDriver()).getRandomKey() : -1;
+		DriveRecord record = new DriveRecord(driver,
+				number(drive.getOnPoint()),
+				number(drive.getOffPoint()),
+				drive.getAttemptStartSecond(),
+				drive.getDropSecond(),
+				drive.getActualStartSecond(),
+				drive.getActualEndSecond(),
+				drive.getWeight(),
+				drive.getLength(),
+				disposition);
+
+		recent.position((int)(retired % retention) * DriveRecord.BYTES);
+		record.write(recent);
+		retired++;
+		if (disposition == DriveDisposition.FINISHED){
+			finished++;
+			finishedSeconds += record.getDriveSeconds();
+		} else if (disposition == DriveDisposition.DROPPED){
+			dropped++;
+		} else {
+			aborted++;
+		}
+
+		if (output != null){
+			if (outputBuffer.remaining() < DriveRecord.BYTES){
+				flush();
+			}
+			record.write(outputBuffer);
+		}
+
+		drive.release();
+		return record;
+	}
+
+	/**
+	 * Returns the records still kept in memory, oldest first.
+	 */
+	public synchronized List<DriveRecord> getRecent(){
+		int n = (int)Math.min(retired, retention);
+		List<DriveRecord> records = new ArrayList<>(n);
+		ByteBuffer view = recent.duplicate();
+		for (long i = retired - n; i < retired; i++){
+			view.position((int)(i % retention) * DriveRecord.BYTES);
+			records.add(DriveRecord.read(view));
+		}
+		return records;
+	}
+
+	/**
+	 * Appends every record retired from now on to <tt>file</tt>, which is created if need be. Any earlier output file is closed first.
+	 * @param file Path of file to append to
+	 * @throws IOException if the file can't be opened
+	 */
+	public synchronized void setOutput(Path file) throws IOException {
+		if (file == null) throw new IllegalArgumentException("Parameter file may not be null.");
+		close();
+		this.output = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.outputBuffer = ByteBuffer.allocate(OUTPUT_BUFFER_RECORDS * DriveRecord.BYTES);
+	}
+
+	/**
+	 * Writes any records waiting to be appended to the output file.
+	 */
+	public synchronized void flush(){
+		if (output == null){
+			return;
+		}
+		outputBuffer.flip();
+		try {
+			while (outputBuffer.hasRemaining()){
+				output.write(outputBuffer);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Couldn't append Drive records.", e);
+		}
+		outputBuffer.clear();
+	}
+
+	/**
+	 * Flushes and closes the output file, if any. Records retired afterwards are only kept in memory.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (output == null){
+			return;
+		}
+		flush();
+		output.close();
+		output = null;
+		outputBuffer = null;
+	}
+
+	/**
+	 * Returns all records in a file written by a <tt>DriveArchive</tt>.
+	 * @param file Path of file to read
+	 * @return List of records in the order they were retired
+	 * @throws IOException if the file can't be read
+	 */
+	public static List<DriveRecord> read(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		List<DriveRecord> records = new ArrayList<>(buffer.remaining() / DriveRecord.BYTES);
+		while (buffer.remaining() >= DriveRecord.BYTES){
+			records.add(DriveRecord.read(buffer));
+		}
+		return records;
+	}
+
+	/**
+	 * Returns Location with <tt>number</tt> in records made now, or <tt>null</tt> if there is none.
+	 */
+	public synchronized Location getLocation(int number){
+		renumberIfChanged();
+		if (number < 0 || number >= locations.size()){
+			return null;
+		}
+		return locations.get(number);
+	}
+
+	/**
+	 * Returns number of Drives retired.
+	 */
+	public synchronized long getRetiredCount(){
+		return retired;
+	}
+
+	public synchronized long getFinishedCount(){
+		return finished;
+	}
+
+	public synchronized long getDroppedCount(){
+		return dropped;
+	}
+
+	public synchronized long getAbortedCount(){
+		return aborted;
+	}
+
+	synchronized long getFinishedSeconds(){
+		return finishedSeconds;
+	}
+
+	/**
+	 * Sets the running totals, as they were when saved. Records themselves aren't restored.
+	 */
+	synchronized void restoreTotals(long retired, long finished, long dropped, long aborted, long finishedSeconds){
+		this.retired = retired;
+		this.finished = finished;
+		this.dropped = dropped;
+		this.aborted = aborted;
+		this.finishedSeconds = finishedSeconds;
+	}
+
+	/**
+	 * Returns average number of seconds finished Drives took, or 0 if none have finished.
+	 */
+	public synchronized double getAverageDriveSeconds(){
+		return (finished == 0) ? 0.0 : (double)finishedSeconds / (double)finished;
+	}
+
+	public int getRetention(){
+		return retention;
+	}
+
+	private int number(OnOffPoint point){
+		if (!(point instanceof Location)){
+			return -1;
+		}
+		Location location = (Location) point;
+		if (city == null){
+			city = location.getCity();
+		}
+		renumberIfChanged();
+		Integer n = locationNumbers.get(location);
+		return (n == null) ? -1 : n;
+	}
+
+	/**
+	 * Numbers the Locations of the city again if any have been made since they were last numbered.
+	 */
+	private void renumberIfChanged(){
+		if (city == null || locations.size() == city.getLocationManager().getLocationCount()){
+			return;
+		}
+		locations = CityMap.getLocations(city);
+		locationNumbers.clear();
+		for (int i = 0; i < locations.size(); i++){
+			locationNumbers.put(locations.get(i), i);
+		}
+	}
+}
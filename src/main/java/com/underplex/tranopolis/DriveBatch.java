@@ -0,0 +1,234 @@
+package com.underplex.tranopolis;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Reusable buffer of Drives handed from one <tt>Drivable</tt> to another by <tt>Drivable.take</tt>.
+ * <p>
+ * A batch is an array of Drives in order that grows as needed and is never shrunk, so that once warmed up, moving Drives around the network
+ * doesn't allocate any collections. Alongside each Drive a batch can hold the Drivable it's to be handed on to, which <tt>handOn</tt> uses to
+ * pass a batch taken by a vertex on to the edges leaving it.
+ * <p>
+ * Batches are borrowed from a pool kept for each thread with <tt>borrow</tt> and given back with <tt>release</tt> once done with; a batch
+ * mustn't be used after it's released, or shared between threads.
+ */
+public class DriveBatch {
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final ThreadLocal<ArrayDeque<DriveBatch>> POOL = ThreadLocal.withInitial(ArrayDeque::new);
+
+	private Drive[] drives;
+	private Drivable[] nexts; // where each Drive is to be handed on to, if anywhere
+	private int size;
+
+	// scratch for handOn, as long as drives once used
+	private boolean[] kept; // whether each Drive was left over
+	private int[] groupOf; // group of each Drive, numbered in the order their nexts first come, or -1 if it has no next
+	private int[] groupStart; // start in order of each group, and then the end of the last
+	private int[] order; // positions of the Drives with nexts, group by group and in order within each
+	private Drivable[] table; // nexts seen, open addressed by identity hash in twice the room of drives
+	private int[] tableGroups; // group of each next in table
+	private int[] groupSlots; // slot in table of the next of each group, so the table can be emptied group by group
+
+	public DriveBatch(){
+		this.drives = new Drive[INITIAL_CAPACITY];
+		this.nexts = new Drivable[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns empty batch from the pool of the calling thread, or a new one if the pool is empty.
+	 */
+	public static DriveBatch borrow(){
+		DriveBatch batch = POOL.get().poll();
+		return (batch == null) ? new DriveBatch() : batch;
+	}
+
+	/**
+	 * Empties this and gives it back to the pool of the calling thread.
+	 */
+	public void release(){
+		clear();
+		POOL.get().push(this);
+	}
+
+	public void add(Drive drive){
+		if (drive == null) throw new IllegalArgumentException("Parameter drive may not be null.");
+		if (size == drives.length){
+			drives = Arrays.copyOf(drives, size * 2);
+			nexts = Arrays.copyOf(nexts, size * 2);
+		}
+		drives[size++] = drive;
+	}
+
+	public void addAll(Collection<Drive> drives){
+		for (Drive d : drives){
+			add(d);
+		}
+	}
+
+	public Drive get(int i){
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("No Drive at " + i + " in a batch of " + size + ".");
+		return drives[i];
+	}
+
+	/**
+	 * Sets Drivable that <tt>handOn</tt> hands Drive at <tt>i</tt> to, or <tt>null</tt> if it's been taken where it is and isn't handed on.
+	 */
+	public void setNext(int i, Drivable next){
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("No Drive at " + i + " in a batch of " + size + ".");
+		nexts[i] = next;
+	}
+
+	public Drivable getNext(int i){
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("No Drive at " + i + " in a batch of " + size + ".");
+		return nexts[i];
+	}
+
+	/**
+	 * Hands each Drive to the Drivable set as its next, and leaves this holding only those that weren't taken, in order.
+	 * <p>
+	 * Drives going to the same Drivable are handed over together in one batch, in order, and Drivables are handed their batches in the order
+	 * their first Drives come in this. Drives whose next is <tt>null</tt> count as taken already.
+	 * <p>
+	 * The Drives are grouped by next in one pass, counting them per next and then placing them, so this takes time in proportion to the
+	 * number of Drives however many Drivables they go to.
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> the Drives are handed over at
+	 * @return int number of Drives taken
+	 */
+	public int handOn(long time){
+		int n = size;
+		ensureScratch();
+
+		// number the nexts in the order they first come, and count the Drives going to each
+		int mask = table.length - 1;
+		int groups = 0;
+		for (int i = 0; i < n; i++){
+			Drivable next = nexts[i];
+			kept[i] = false;
+			if (next == null){
+				groupOf[i] = -1;
+				continue;
+			}
+			int slot = System.identityHashCode(next) & mask;
+			while (table[slot] != null && table[slot] != next){
+				slot = (slot + 1) & mask;
+			}
+			if (table[slot] == null){
+				table[slot] = next;
+				tableGroups[slot] = groups;
+				groupSlots[groups] = slot;
+				groupStart[groups++] = 0;
+			}
+			int g = tableGroups[slot];
+			groupOf[i] = g;
+			groupStart[g]++;
+		}
+
+		// counts to starts, then place each Drive after the ones before it in its group
+		int placed = 0;
+		for (int g = 0; g < groups; g++){
+			int count = groupStart[g];
+			groupStart[g] = placed;
+			placed += count;
+		}
+		groupStart[groups] = placed;
+		for (int i = 0; i < n; i++){
+			if (groupOf[i] >= 0){
+				order[groupStart[groupOf[i]]++] = i;
+			}
+		}
+		for (int g = groups; g > 0; g--){
+			groupStart[g] = groupStart[g - 1];
+		}
+		groupStart[0] = 0;
+
+		DriveBatch group = borrow();
+		try {
+			for (int g = 0; g < groups; g++){
+				group.clear();
+				for (int k = groupStart[g]; k < groupStart[g + 1]; k++){
+					group.add(drives[order[k]]);
+				}
+				nexts[order[groupStart[g]]].take(group, time);
+
+				// the group is left holding the Drives it didn't take, in the same order
+				int left = 0;
+				for (int k = groupStart[g]; k < groupStart[g + 1] && left < group.size(); k++){
+					if (group.get(left) == drives[order[k]]){
+						kept[order[k]] = true;
+						left++;
+					}
+				}
+			}
+		} finally {
+			group.release();
+			for (int g = 0; g < groups; g++){
+				table[groupSlots[g]] = null;
+			}
+		}
+
+		int w = 0;
+		for (int i = 0; i < n; i++){
+			if (kept[i]){
+				drives[w++] = drives[i];
+			}
+		}
+		Arrays.fill(nexts, 0, n, null);
+		truncate(w);
+		return n - w;
+	}
+
+	/**
+	 * Makes the scratch arrays of <tt>handOn</tt> as long as needed for as many Drives as this has room for.
+	 */
+	private void ensureScratch(){
+		int capacity = drives.length;
+		if (order != null && order.length >= capacity){
+			return;
+		}
+		this.kept = new boolean[capacity];
+		this.groupOf = new int[capacity];
+		this.groupStart = new int[capacity + 1];
+		this.order = new int[capacity];
+		this.table = new Drivable[capacity * 2];
+		this.tableGroups = new int[capacity * 2];
+		this.groupSlots = new int[capacity];
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * Removes first <tt>n</tt> Drives, keeping the rest in order.
+	 * @param n int from 0 to <tt>size()</tt>
+	 */
+	public void removeFirst(int n){
+		if (n < 0 || n > size) throw new IllegalArgumentException("Can't remove " + n + " Drives from a batch of " + size + ".");
+		System.arraycopy(drives, n, drives, 0, size - n);
+		System.arraycopy(nexts, n, nexts, 0, size - n);
+		truncate(size - n);
+	}
+
+	/**
+	 * Removes all Drives from <tt>newSize</tt> on.
+	 * @param newSize int from 0 to <tt>size()</tt>
+	 */
+	public void truncate(int newSize){
+		if (newSize < 0 || newSize > size) throw new IllegalArgumentException("Can't truncate a batch of " + size + " to " + newSize + ".");
+		Arrays.fill(drives, newSize, size, null);
+		Arrays.fill(nexts, newSize, size, null);
+		size = newSize;
+	}
+
+	public void clear(){
+		truncate(0);
+	}
+}
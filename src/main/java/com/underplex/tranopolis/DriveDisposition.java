@@ -6,6 +6,7 @@ public enum DriveDisposition {
 	FINISHED, // completed 
 	DROPPED, // never begun, and never will be begun
 	BEGUN, // begun but not completed
+	ABORTED, // begun or waiting, but stopped because the road network changed under it
 	;
 
 }
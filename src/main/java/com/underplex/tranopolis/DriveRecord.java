@@ -0,0 +1,134 @@
+package com.underplex.tranopolis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact summary of a finished, dropped or aborted <tt>Drive</tt>, made of primitives only and written as a fixed number of bytes.
+ * <p>
+ * Locations are referred to by their place in <tt>CityMap.getLocations</tt>, as numbered by the <tt>DriveArchive</tt> that made the record,
+ * and drivers by the key their <tt>AbstractResident</tt> was given in its city, or -1 for other Residents. Times are seconds since <tt>City.DEFAULT_START</tt>, with <tt>SimTime.NEVER</tt>
+ * for times that never came.
+ */
+public class DriveRecord {
+
+	public static final int BYTES = 8 + 4 + 4 + 8 + 8 + 8 + 8 + 8 + 4 + 4; // fields in the order they're written
+
+	private final long driver;
+	private final int origin;
+	private final int destination;
+	private final long attemptStart;
+	private final long drop;
+	private final long actualStart;
+	private final long actualEnd;
+	private final double weight;
+	private final int length;
+	private final DriveDisposition disposition;
+
+	public DriveRecord(long driver, int origin, int destination, long attemptStart, long drop, long actualStart, long actualEnd, double weight,
+			int length, DriveDisposition disposition) {
+		if (disposition == null) throw new IllegalArgumentException("Parameter disposition may not be null.");
+		this.driver = driver;
+		this.origin = origin;
+		this.destination = destination;
+		this.attemptStart = attemptStart;
+		this.drop = drop;
+		this.actualStart = actualStart;
+		this.actualEnd = actualEnd;
+		this.weight = weight;
+		this.length = length;
+		this.disposition = disposition;
+	}
+
+	/**
+	 * Writes this at the position of <tt>buffer</tt>, which moves forward <tt>BYTES</tt>.
+	 */
+	public void write(ByteBuffer buffer){
+		buffer.putLong(driver);
+		buffer.putInt(origin);
+		buffer.putInt(destination);
+		buffer.putLong(attemptStart);
+		buffer.putLong(drop);
+		buffer.putLong(actualStart);
+		buffer.putLong(actualEnd);
+		buffer.putDouble(weight);
+		buffer.putInt(length);
+		buffer.putInt(disposition.ordinal());
+	}
+
+	/**
+	 * Returns record read from the position of <tt>buffer</tt>, which moves forward <tt>BYTES</tt>.
+	 */
+	public static DriveRecord read(ByteBuffer buffer){
+		return new DriveRecord(buffer.getLong(),
+				buffer.getInt(),
+				buffer.getInt(),
+				buffer.getLong(),
+				buffer.getLong(),
+				buffer.getLong(),
+				buffer.getLong(),
+				buffer.getDouble(),
+				buffer.getInt(),
+				DriveDisposition.values()[buffer.getInt()]);
+	}
+
+	public long getDriver() {
+		return driver;
+	}
+
+	public int getOrigin() {
+		return origin;
+	}
+
+	public int getDestination() {
+		return destination;
+	}
+
+	public long getAttemptStart() {
+		return attemptStart;
+	}
+
+	public long getDrop() {
+		return drop;
+	}
+
+	public long getActualStart() {
+		return actualStart;
+	}
+
+	public long getActualEnd() {
+		return actualEnd;
+	}
+
+	/**
+	 * Returns weight of the path the Drive was planned with.
+	 */
+	public double getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Returns number of edges in the path the Drive was planned with.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public DriveDisposition getDisposition() {
+		return disposition;
+	}
+
+	/**
+	 * Returns number of seconds the Drive took, or -1 if it didn't finish.
+	 */
+	public long getDriveSeconds() {
+		if (disposition != DriveDisposition.FINISHED){
+			return -1;
+		}
+		return actualEnd - actualStart;
+	}
+
+	@Override
+	public String toString(){
+		return "DriveRecord (" + disposition + " by " + driver + " from " + origin + " to " + destination + ")";
+	}
+}
@@ -0,0 +1,275 @@
+package com.underplex.tranopolis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Calendar queue of Drives waiting to start, keyed by attempted start time.
+ * <p>
+ * Time is divided into buckets of a fixed number of seconds, and each Drive is kept in the bucket holding its attempted start time. Taking the
+ * due Drives only looks at the buckets between the last time asked for and now, so when asked once a bucket its cost depends on how many
+ * Drives are due rather than on how many are waiting. After long gaps it skips ahead to the first bucket with Drives.
+ * <p>
+ * The buckets from the first that may have Drives on are kept in a ring of lists, bucket <tt>b</tt> in slot <tt>b % slots</tt>, so finding a
+ * bucket is an array index and bucket numbers are never boxed. Drives in buckets too far ahead for the ring wait in a list of their own until
+ * the ring reaches them.
+ * <p>
+ * Drives that are due but can't start yet can be put back for the next bucket with <tt>retry</tt>, which is how they wait for their drop time.
+ */
+public class DriveSchedule {
+
+	public static final int DEFAULT_SLOTS = 4096; // a little under three days of minute-long buckets
+
+	private static final Comparator<Drive> BY_ATTEMPT = new Comparator<Drive>() {
+		@Override
+		public int compare(Drive o1, Drive o2) {
+			return Long.compare(o1.getAttemptStartSecond(), o2.getAttemptStartSecond());
+		}
+	};
+
+	private final long bucketSeconds;
+	private final List<Drive>[] ring; // bucket b from cursor up to cursor + ring.length in slot b & mask, or null if never used
+	private final int mask;
+	private int ringSize; // number of Drives in the ring
+	private final List<Drive> overflow; // Drives in buckets too far ahead for the ring, in the order they were added
+	private long[] overflowBuckets; // bucket of each of overflow
+	private long overflowFirst; // first bucket in overflow, or Long.MAX_VALUE if it's empty
+	private long cursor; // no bucket before this has any Drives
+	private int size;
+
+	/**
+	 * Constructor.
+	 * @param bucketSeconds long number of seconds covered by each bucket, at least 1
+	 * @param slots int number of buckets in the ring, a power of two
+	 */
+	public DriveSchedule(long bucketSeconds, int slots){
+		if (bucketSeconds < 1) throw new IllegalArgumentException("Parameter bucketSeconds must be at least 1.");
+		if (slots < 1 || Integer.bitCount(slots) != 1) throw new IllegalArgumentException("Parameter slots must be a power of two.");
+		this.bucketSeconds = bucketSeconds;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		List<Drive>[] ring = (List<Drive>[]) new List[slots];
+		this.ring = ring;
+		this.mask = slots - 1;
+		this.ringSize = 0;
+		this.overflow = new ArrayList<>();
+		this.overflowBuckets = new long[16];
+		this.overflowFirst = Long.MAX_VALUE;
+		this.cursor = Long.MIN_VALUE;
+		this.size = 0;
+	}
+
+	/**
+	 * Constructor with <tt>DEFAULT_SLOTS</tt> buckets in the ring.
+	 * @param bucketSeconds long number of seconds covered by each bucket, at least 1
+	 */
+	public DriveSchedule(long bucketSeconds){
+		this(bucketSeconds, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * Adds <tt>drive</tt> to be due at its attempted start time, or as soon as possible if that bucket has already been taken.
+	 * @param drive Drive to add
+	 */
+	public void add(Drive drive){
+		put(Math.max(bucketOf(drive.getAttemptStartSecond()), cursor), drive);
+	}
+
+	/**
+	 * Puts back <tt>drive</tt>, which was due at or before <tt>time</tt>, to be due again in the bucket after the one holding <tt>time</tt>.
+	 * @param drive Drive to retry
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> it was last due
+	 */
+	public void retry(Drive drive, long time){
+		put(Math.max(bucketOf(time) + 1, cursor), drive);
+	}
+
+	/**
+	 * Removes and returns all Drives attempting to start at or before <tt>time</tt>, in order of attempted start time, and otherwise in the
+	 * order they were added.
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt>
+	 * @return List of due Drives, which may be empty
+	 */
+	public List<Drive> pollDue(long time){
+		List<Drive> due = new ArrayList<>();
+		long last = bucketOf(time);
+		if (size == 0){
+			cursor = Math.max(cursor, last);
+			return due;
+		}
+		while (cursor < last){
+			if (ringSize == 0){
+				// nothing in the ring, so skip straight to the first bucket that may have Drives
+				cursor = Math.min(last, Math.max(cursor, overflowFirst));
+				fill();
+				continue;
+			}
+			List<Drive> bucket = ring[slot(cursor)];
+			if (bucket != null && !bucket.isEmpty()){
+				due.addAll(bucket);
+				ringSize -= bucket.size();
+				size -= bucket.size();
+				bucket.clear();
+			}
+			cursor++;
+			fill();
+		}
+
+		// the bucket holding time may also hold Drives that are due later in it
+		List<Drive> bucket = (cursor == last) ? ring[slot(last)] : null;
+		if (bucket != null && !bucket.isEmpty()){
+			int later = 0;
+			for (int i = 0; i < bucket.size(); i++){
+				Drive d = bucket.get(i);
+				if (d.getAttemptStartSecond() <= time){
+					due.add(d);
+				} else {
+					bucket.set(later++, d);
+				}
+			}
+			int taken = bucket.size() - later;
+			bucket.subList(later, bucket.size()).clear();
+			ringSize -= taken;
+			size -= taken;
+		}
+
+		Collections.sort(due, BY_ATTEMPT);
+		return due;
+	}
+
+	/**
+	 * Returns all Drives waiting, bucket by bucket.
+	 */
+	public List<Drive> toList(){
+		List<Drive> all = new ArrayList<>(size);
+		for (List<Drive> bucket : getBuckets().values()){
+			all.addAll(bucket);
+		}
+		return all;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public long getBucketSeconds(){
+		return bucketSeconds;
+	}
+
+	/**
+	 * Returns number of buckets in the ring.
+	 */
+	public int getSlots(){
+		return ring.length;
+	}
+
+	/**
+	 * Returns copy of the Drives waiting, by the bucket they are in.
+	 */
+	SortedMap<Long, List<Drive>> getBuckets(){
+		SortedMap<Long, List<Drive>> copy = new TreeMap<>();
+		for (int k = 0; k < ring.length; k++){
+			List<Drive> bucket = ring[slot(cursor + k)];
+			if (bucket != null && !bucket.isEmpty()){
+				copy.put(cursor + k, new ArrayList<>(bucket));
+			}
+		}
+		for (int i = 0; i < overflow.size(); i++){
+			List<Drive> bucket = copy.get(overflowBuckets[i]);
+			if (bucket == null){
+				bucket = new ArrayList<>();
+				copy.put(overflowBuckets[i], bucket);
+			}
+			bucket.add(overflow.get(i));
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns the first bucket that may have Drives.
+	 */
+	long getCursor(){
+		return cursor;
+	}
+
+	/**
+	 * Moves the cursor to <tt>cursor</tt>, as it was when saved, before any Drives are restored.
+	 */
+	void setCursor(long cursor){
+		if (size > 0) throw new IllegalStateException("The cursor can only be set while no Drives are waiting.");
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Puts <tt>drive</tt> straight into <tt>bucket</tt>, as it was when saved.
+	 */
+	void restore(long bucket, Drive drive){
+		put(Math.max(bucket, cursor), drive);
+	}
+
+	private long bucketOf(long second){
+		return Math.floorDiv(second, bucketSeconds);
+	}
+
+	private int slot(long bucket){
+		return (int) (bucket & mask);
+	}
+
+	/**
+	 * Returns true iff <tt>bucket</tt>, which is no earlier than the cursor, is close enough to it to be kept in the ring.
+	 */
+	private boolean fits(long bucket){
+		// unsigned, since the cursor starts out at Long.MIN_VALUE
+		return Long.compareUnsigned(bucket - cursor, ring.length) < 0;
+	}
+
+	private void put(long bucket, Drive drive){
+		if (fits(bucket)){
+			putInRing(bucket, drive);
+		} else {
+			if (overflow.size() == overflowBuckets.length){
+				overflowBuckets = Arrays.copyOf(overflowBuckets, overflowBuckets.length * 2);
+			}
+			overflowBuckets[overflow.size()] = bucket;
+			overflow.add(drive);
+			overflowFirst = Math.min(overflowFirst, bucket);
+		}
+		size++;
+	}
+
+	private void putInRing(long bucket, Drive drive){
+		int slot = slot(bucket);
+		if (ring[slot] == null){
+			ring[slot] = new ArrayList<>();
+		}
+		ring[slot].add(drive);
+		ringSize++;
+	}
+
+	/**
+	 * Moves Drives waiting in overflow into the ring once it reaches their buckets.
+	 */
+	private void fill(){
+		if (overflow.isEmpty() || !fits(overflowFirst)){
+			return;
+		}
+		int kept = 0;
+		long first = Long.MAX_VALUE;
+		for (int i = 0; i < overflow.size(); i++){
+			long bucket = overflowBuckets[i];
+			if (fits(bucket)){
+				putInRing(bucket, overflow.get(i));
+			} else {
+				overflow.set(kept, overflow.get(i));
+				overflowBuckets[kept++] = bucket;
+				first = Math.min(first, bucket);
+			}
+		}
+		overflow.subList(kept, overflow.size()).clear();
+		overflowFirst = first;
+	}
+}
@@ -0,0 +1,168 @@
+package com.underplex.tranopolis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Global queue of timed events used by <tt>TrafficManager</tt> when it runs in <tt>FlowMode.EVENT_DRIVEN</tt>.
+ * <p>
+ * Two kinds of events are kept: the start of a <tt>Drive</tt>, keyed on its attempted start time, and the flow of a <tt>Drivable</tt>, keyed on
+ * <tt>Drivable.getNextFlowTime()</tt>. Only Drivables with due events are flowed, so idle parts of the road network cost nothing.
+ * <p>
+ * A Drivable that still has due Drives after it flows (because the Drivables downstream couldn't take them) is retried after a fixed delay.
+ */
+public class EventScheduler implements FlowScheduler {
+
+	private final PriorityQueue<Event> events;
+	private final Map<Drivable, Long> pending; // earliest flow event queued for each Drivable
+	private final long retrySeconds;
+	private long now; // seconds since City.DEFAULT_START
+	private long sequence;
+
+	/**
+	 * Constructor.
+	 * @param start long seconds since <tt>City.DEFAULT_START</tt> at which this scheduler begins
+	 * @param retrySeconds long number of seconds to wait before retrying a Drivable whose due Drives could not move
+	 */
+	public EventScheduler(long start, long retrySeconds){
+		if (retrySeconds < 1) throw new IllegalArgumentException("Parameter retrySeconds must be at least 1.");
+		this.events = new PriorityQueue<>();
+		this.pending = new HashMap<>();
+		this.retrySeconds = retrySeconds;
+		this.now = start;
+		this.sequence = 0;
+	}
+
+	/**
+	 * Schedules <tt>drive</tt> to begin at its attempted start time or, if that has already passed, as soon as possible.
+	 * @param drive Drive assumed to be legal and valid
+	 */
+	public void scheduleStart(Drive drive){
+		long time = Math.max(drive.getAttemptStartSecond(), now);
+		events.add(new Event(time, sequence++, null, drive));
+	}
+
+	@Override
+	public void wake(Drivable drivable){
+		schedule(drivable, drivable.getNextFlowTime());
+	}
+
+	/**
+	 * Processes all events due at or before <tt>target</tt> in time order, then moves the time of this to <tt>target</tt>.
+	 * @param target long seconds since <tt>City.DEFAULT_START</tt> to advance to
+	 */
+	public void runUntil(long target){
+		while (!events.isEmpty() && events.peek().getTime() <= target){
+			Event e = events.poll();
+			now = e.getTime();
+
+			if (e.getDrive() != null){
+				Drive drive = e.getDrive();
+				drive.getDriver().startDrive(drive);
+				drive.begin(now);
+				drive.getOnPoint().turnOn(drive);
+				continue;
+			}
+
+			Drivable drivable = e.getDrivable();
+			Long due = pending.get(drivable);
+			if (due == null || due.longValue() != now){
+				continue; // superseded by an earlier event for the same Drivable
+			}
+			pending.remove(drivable);
+			drivable.flow(now);
+
+			long next = drivable.getNextFlowTime();
+			if (next <= now){
+				// drives are due but blocked, so try again later
+				next = now + retrySeconds;
+			}
+			schedule(drivable, next);
+		}
+		now = Math.max(now, target);
+	}
+
+	/**
+	 * Returns the time of the last event processed, or the time this was last run until, whichever is later.
+	 */
+	public long getNow(){
+		return now;
+	}
+
+	/**
+	 * Returns number of events waiting to be processed, including superseded ones.
+	 */
+	public int size(){
+		return events.size();
+	}
+
+	/**
+	 * Returns Drives scheduled to begin but not begun yet, in the order they will.
+	 */
+	List<Drive> getPendingStarts(){
+		List<Event> starts = new ArrayList<>();
+		for (Event e : events){
+			if (e.getDrive() != null){
+				starts.add(e);
+			}
+		}
+		Collections.sort(starts);
+		List<Drive> drives = new ArrayList<>(starts.size());
+		for (Event e : starts){
+			drives.add(e.getDrive());
+		}
+		return drives;
+	}
+
+	private void schedule(Drivable drivable, long time){
+		if (time == SimTime.NEVER){
+			return;
+		}
+		time = Math.max(time, now);
+		Long existing = pending.get(drivable);
+		if (existing != null && time >= existing.longValue()){
+			return;
+		}
+		pending.put(drivable, time);
+		events.add(new Event(time, sequence++, drivable, null));
+	}
+
+	private static class Event implements Comparable<Event>{
+		private final long time;
+		private final long sequence; // breaks ties so that events at the same time are processed in the order they were scheduled
+		private final Drivable drivable;
+		private final Drive drive;
+
+		public Event(long time, long sequence, Drivable drivable, Drive drive) {
+			this.time = time;
+			this.sequence = sequence;
+			this.drivable = drivable;
+			this.drive = drive;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public Drivable getDrivable() {
+			return drivable;
+		}
+
+		public Drive getDrive() {
+			return drive;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			int c = Long.compare(this.time, other.time);
+			if (c == 0){
+				c = Long.compare(this.sequence, other.sequence);
+			}
+			return c;
+		}
+	}
+}
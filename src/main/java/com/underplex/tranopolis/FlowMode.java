@@ -0,0 +1,13 @@
+package com.underplex.tranopolis;
+
+/**
+ * Strategy used by <tt>TrafficManager</tt> to move traffic forward.
+ */
+public enum FlowMode {
+
+	FIXED_STEP, // every Drivable in the graph holding Drives flows once per step
+	EVENT_DRIVEN, // only Drivables with due events flow, at the time the events are due
+	PARTITIONED, // every Drivable holding Drives flows once per step, regions of the graph side by side and then the edges between them
+	;
+
+}
@@ -0,0 +1,143 @@
+package com.underplex.tranopolis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Drivables that flow together at each step, each time in a new random order, of which only those with Drives flow at all.
+ * <p>
+ * The Drivables are kept in an array made once for the graph they belong to. A Drivable becomes active when it's given to
+ * <tt>setFlowScheduler</tt> with this and then wakes this, which Roads do when they take Drives and Locations do when Drives turn on
+ * from them. Every step draws a fresh permutation of the active Drivables into a second array kept alongside and flows them in that order,
+ * after which those left with nothing to do become inactive again. The permutation is drawn from the active Drivables in graph order, not
+ * the order they woke in, so the same stream draws the same order even when they're woken from several threads at once. So a step costs as much as the Drivables with Drives, however many there
+ * are in all, and allocates nothing.
+ * <p>
+ * Every order of the active Drivables is as likely as every other at each step, as with shuffling a list of all of them, and doesn't depend
+ * on the orders drawn before. The Drivables left out have nothing to flow, and any woken while a step is under way only take Drives due
+ * later, so flowing them too would change nothing.
+ */
+public class FlowOrder implements FlowScheduler {
+
+	private final Drivable[] drivables; // in order of graph index
+	private final int[] graphIndices; // of each of drivables
+	private final boolean[] active; // by position in drivables
+	private final int[] members; // positions of the active Drivables, the first memberCount of them
+	private final Drivable[] order; // as last drawn
+	private int memberCount;
+
+	/**
+	 * Constructor.
+	 * @param drivables List of Drivables to flow, in increasing order of graph index
+	 */
+	public FlowOrder(List<Drivable> drivables){
+		if (drivables == null) throw new IllegalArgumentException("Parameter drivables may not be null.");
+		this.drivables = drivables.toArray(new Drivable[drivables.size()]);
+		this.graphIndices = new int[this.drivables.length];
+		for (int i = 0; i < graphIndices.length; i++){
+			graphIndices[i] = this.drivables[i].getGraphIndex();
+			if (i > 0 && graphIndices[i] <= graphIndices[i - 1]){
+				throw new IllegalArgumentException("Drivables must be in increasing order of graph index.");
+			}
+		}
+		this.active = new boolean[this.drivables.length];
+		this.members = new int[this.drivables.length];
+		this.order = new Drivable[this.drivables.length];
+		this.memberCount = 0;
+	}
+
+	/**
+	 * Has every Drivable here report to this, and makes those that already have Drives active.
+	 */
+	public void attach(){
+		for (int i = 0; i < drivables.length; i++){
+			drivables[i].setFlowScheduler(this);
+			if (drivables[i].getNextFlowTime() != SimTime.NEVER){
+				activate(i);
+			}
+		}
+	}
+
+	/**
+	 * Stops every Drivable here from reporting to this.
+	 */
+	public void detach(){
+		for (Drivable drivable : drivables){
+			drivable.setFlowScheduler(null);
+		}
+	}
+
+	/**
+	 * Makes <tt>drivable</tt> active, if it's one of the Drivables here.
+	 * <p>
+	 * Safe to call from several threads, since Drivables flowed on one thread may hand Drives to those of another.
+	 */
+	@Override
+	public synchronized void wake(Drivable drivable){
+		int i = Arrays.binarySearch(graphIndices, drivable.getGraphIndex());
+		if (i >= 0 && drivables[i] == drivable){
+			activate(i);
+		}
+	}
+
+	private void activate(int i){
+		if (!active[i]){
+			active[i] = true;
+			members[memberCount++] = i;
+		}
+	}
+
+	/**
+	 * Flows every active Drivable once at <tt>time</tt>, in an order drawn from <tt>random</tt>, and then makes those with no Drives left
+	 * inactive.
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt>
+	 * @param random SplittableRandom to draw the order from
+	 */
+	public void flow(long time, SplittableRandom random){
+		int n = memberCount;
+		draw(random);
+		for (int k = 0; k < n; k++){
+			order[k].flow(time);
+		}
+
+		// keep those still holding Drives, including any woken during the step
+		int kept = 0;
+		for (int k = 0; k < memberCount; k++){
+			int i = members[k];
+			if (drivables[i].getNextFlowTime() == SimTime.NEVER){
+				active[i] = false;
+			} else {
+				members[kept++] = i;
+			}
+		}
+		memberCount = kept;
+	}
+
+	/**
+	 * Draws a new order of the active Drivables from <tt>random</tt> and returns the array holding it, whose first
+	 * <tt>getActiveCount()</tt> elements are overwritten by the next draw.
+	 */
+	Drivable[] draw(SplittableRandom random){
+		// wakes from other threads may come in any order, so start from the members in graph order
+		Arrays.sort(members, 0, memberCount);
+		// Fisher-Yates from the inside out, so the order is built straight from the members without changing them
+		for (int k = 0; k < memberCount; k++){
+			int j = random.nextInt(k + 1);
+			order[k] = order[j];
+			order[j] = drivables[members[k]];
+		}
+		return order;
+	}
+
+	public int size(){
+		return drivables.length;
+	}
+
+	/**
+	 * Returns number of Drivables that flow at the next step.
+	 */
+	public synchronized int getActiveCount(){
+		return memberCount;
+	}
+}
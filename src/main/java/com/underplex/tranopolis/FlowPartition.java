@@ -0,0 +1,133 @@
+package com.underplex.tranopolis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Split of the Drivables of a <tt>CompactGraph</tt> into regions that can flow side by side, used in <tt>FlowMode.PARTITIONED</tt>.
+ * <p>
+ * The city is cut into bands of equal width from west to east, one per region. A Xing belongs to the band of its Lot, and a Location to the
+ * band of its westernmost connection (or Lot, if it has no connections). An edge belongs to the region of its source, since a Road flowing
+ * hands its Drives to its target, which passes them on to the edges leaving it. So as long as an edge's target is in the same region, all
+ * the Drivables touched when it flows are in that region too.
+ * <p>
+ * Edges whose target is in another region are boundary edges. They're kept apart from every region, to be flowed one at a time once the
+ * regions are done.
+ */
+public class FlowPartition {
+
+	private final CompactGraph graph;
+	private final int regionCount;
+	private final int[] vertexRegions; // by vertex id
+	private final List<List<Drivable>> regions;
+	private final List<Drivable> boundary;
+	private final FlowOrder[] regionOrders;
+	private final FlowOrder boundaryOrder;
+
+	/**
+	 * Constructor.
+	 * @param city City that the graph is of
+	 * @param graph CompactGraph to split
+	 * @param regionCount int number of regions, at least 1
+	 */
+	public FlowPartition(City city, CompactGraph graph, int regionCount){
+		if (city == null) throw new IllegalArgumentException("Parameter city may not be null.");
+		if (graph == null) throw new IllegalArgumentException("Parameter graph may not be null.");
+		if (regionCount < 1) throw new IllegalArgumentException("Parameter regionCount must be at least 1.");
+		this.graph = graph;
+		this.regionCount = regionCount;
+		this.vertexRegions = new int[graph.getVertexCount()];
+
+		List<List<Drivable>> lists = new ArrayList<>(regionCount);
+		for (int r = 0; r < regionCount; r++){
+			lists.add(new ArrayList<>());
+		}
+		for (int v = 0; v < graph.getVertexCount(); v++){
+			Drivable vertex = graph.getDrivable(v);
+			vertexRegions[v] = band(westernmost(vertex), city.getWidth(), regionCount);
+			lists.get(vertexRegions[v]).add(vertex);
+		}
+
+		List<Drivable> crossing = new ArrayList<>();
+		for (int e = 0; e < graph.getEdgeCount(); e++){
+			Drivable edge = graph.getDrivable(graph.getVertexCount() + e);
+			int source = vertexRegions[graph.getEdgeSource(e)];
+			if (source == vertexRegions[graph.getEdgeTarget(e)]){
+				lists.get(source).add(edge);
+			} else {
+				crossing.add(edge);
+			}
+		}
+
+		this.regions = new ArrayList<>(regionCount);
+		this.regionOrders = new FlowOrder[regionCount];
+		for (int r = 0; r < regionCount; r++){
+			regions.add(Collections.unmodifiableList(lists.get(r)));
+			regionOrders[r] = new FlowOrder(lists.get(r));
+		}
+		this.boundary = Collections.unmodifiableList(crossing);
+		this.boundaryOrder = new FlowOrder(crossing);
+	}
+
+	private static int westernmost(Drivable vertex){
+		if (vertex instanceof Xing){
+			return ((Xing) vertex).getLot().getX();
+		}
+		Location location = (Location) vertex;
+		int x = Integer.MAX_VALUE;
+		for (Lot lot : location.getConnections().isEmpty() ? location.getLots() : location.getConnections()){
+			x = Math.min(x, lot.getX());
+		}
+		return (x == Integer.MAX_VALUE) ? 0 : x;
+	}
+
+	private static int band(int x, int width, int regionCount){
+		return (int) Math.min(regionCount - 1, Math.max(0, (long) x * regionCount / Math.max(1, width)));
+	}
+
+	public CompactGraph getGraph(){
+		return graph;
+	}
+
+	public int getRegionCount(){
+		return regionCount;
+	}
+
+	/**
+	 * Returns unmodifiable List of the vertices and edges in region <tt>region</tt>, vertices first, each in graph order.
+	 * @param region int from 0 to <tt>getRegionCount() - 1</tt>
+	 */
+	public List<Drivable> getRegion(int region){
+		return regions.get(region);
+	}
+
+	/**
+	 * Returns unmodifiable List of the edges whose source and target are in different regions, in graph order.
+	 */
+	public List<Drivable> getBoundary(){
+		return boundary;
+	}
+
+	/**
+	 * Returns FlowOrder of the Drivables in region <tt>region</tt>, which only the thread flowing that region may use at a time.
+	 * @param region int from 0 to <tt>getRegionCount() - 1</tt>
+	 */
+	public FlowOrder getRegionOrder(int region){
+		return regionOrders[region];
+	}
+
+	/**
+	 * Returns FlowOrder of the boundary edges.
+	 */
+	public FlowOrder getBoundaryOrder(){
+		return boundaryOrder;
+	}
+
+	/**
+	 * Returns region of the vertex with id <tt>vertexId</tt>.
+	 */
+	public int getVertexRegion(int vertexId){
+		return vertexRegions[vertexId];
+	}
+}
@@ -0,0 +1,14 @@
+package com.underplex.tranopolis;
+
+/**
+ * Receives notice from <tt>Drivable</tt>s that they have taken on work that will need a call to <tt>flow</tt> eventually.
+ */
+public interface FlowScheduler {
+
+	/**
+	 * Notifies this that <tt>drivable</tt> has new <tt>Drive</tt>s and should be flowed no later than <tt>drivable.getNextFlowTime()</tt>.
+	 * @param drivable <tt>Drivable</tt> that has taken on new Drives; cannot be null
+	 */
+	void wake(Drivable drivable);
+
+}
@@ -1,12 +1,15 @@
 package com.underplex.tranopolis;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Utility class for detecting roads and building them into a graph.
@@ -19,6 +22,9 @@ public class GraphFinder {
 	public static final int DEFAULT_ENTRANCE_MAX_SPEED = 16;
 	public static final int DEFAULT_EXIT_MAX_SPEED = 16;
 	
+	private static final int TILE_COLUMNS = 64; // most columns of Lots searched for Xings by one task
+	private static final int ROAD_BATCH = 1024; // most Xings whose Roads are traced by one task
+	
 	private GraphFinder() {
 		// don't instantiate
 	}
@@ -39,45 +45,61 @@ public class GraphFinder {
 	 * Any paved lots with a number of paved neighbors that is not 2 will be considered an Xing.
 	 * <p>
 	 * Any Locations will be represented as vertices, whether they actually connect to the network or not.
+	 * <p>
+	 * The returned graph isn't indexed, so that finding one doesn't disturb the graph indices of the Locations it shares with the current graph;
+	 * call <tt>indexDrivables</tt> on it before taking a <tt>CompactGraph</tt> of it.
 	 * @param city
 	 * @return
 	 */
 	public static DrivableGraph findDrivableGraph(City city) {
-		Map<Lot, Set<Lot>> xings = GraphFinder.findXingLots(city);
+		return findDrivableGraph(city, null);
+	}
+	
+	/**
+	 * Returns graph representing the networks of Drivables, found on <tt>pool</tt> if it isn't <tt>null</tt>.
+	 * <p>
+	 * With a pool, the Lots are split into tiles of columns whose Xings are found in parallel, and the Roads leaving each batch of Xings are
+	 * traced in parallel too, following paved Lots across tile borders as far as they go. Results are put together in the same order either
+	 * way, so the graph is the same as the one found without a pool, down to the order of its vertices and edges.
+	 * @see #findDrivableGraph(City)
+	 * @param city City to find graph of
+	 * @param pool ForkJoinPool to find it on, or <tt>null</tt> to find it on the calling thread
+	 * @return DrivableGraph of <tt>city</tt>
+	 */
+	public static DrivableGraph findDrivableGraph(City city, ForkJoinPool pool) {
+		BitSet connections = new BitSet(); // by y * width + x of Lots Locations connect at
+		for (Lot lot : city.getLocationManager().connectionLots()){
+			connections.set(lot.getY() * city.getWidth() + lot.getX());
+		}
+
+		// Xings in order of their Lots, column by column
+		XingTask xingTask = new XingTask(city, connections, 0, city.getWidth());
+		List<Xing> xings = (pool == null) ? xingTask.compute() : pool.invoke(xingTask);
+		Xing[][] xingsByLot = indexXings(city, xings);
+
+		// Roads in order of the Xings they leave, and the neighbors they leave by
+		RoadTask roadTask = new RoadTask(city, xings, xingsByLot, 0, xings.size());
+		List<Road> roads = (pool == null) ? roadTask.compute() : pool.invoke(roadTask);
 
-		// add entry points that may not already be xings
-		xings.putAll(GraphFinder.findEntryPointNeighbors(city));
-		
-		// convert them all into Xings with map to neighboring paved lots
-		Map<Xing, Set<Lot>> xingMap = makeXingMap(xings);
-		
-		// find all Roads between Xings (but not Locations and the network)
 		DrivableGraph graph = new DrivableGraph(city);
 
 		// first add all possible vertices...
 		// addEdge requires that vertices already be present in the graph before it's called, so we add all xings and locations as vertices
-
-		for (Drivable v : xingMap.keySet()){
+		for (Drivable v : xings){
 			graph.addVertex(v);
 		}
 		for (Drivable v : city.getLocationManager().getLocations()){
 			graph.addVertex(v);
 		}
 		
-		for (Road r : findRoadsWithXings(city, xingMap)) {
-			// add needed vertices before edges b/c addEdge method requires vertices to already exist
-
+		for (Road r : roads) {
 			graph.addEdge(r.getSource(),r.getTarget(),r);
 		}
-		
-//		for (Drivable d : graph.vertexSet()){
-//			System.out.println("Graph has vertex at " + d.toString());
-//		}
 			
 		Map<Location, Set<Lot>> locMap = city.getLocationManager().connectionMap();
 		for (Location loc : locMap.keySet()){
 			for (Lot lot : locMap.get(loc)){
-				Xing xing = findXing(xingMap.keySet(),lot);
+				Xing xing = xingsByLot[lot.getX()][lot.getY()];
 				Parking entrance = new Parking(xing, loc, loc);
 				Parking exit = new Parking(loc, xing, loc);
 				graph.addEdge(entrance.getSource(),entrance.getTarget(),entrance);
@@ -102,18 +124,13 @@ public class GraphFinder {
 			throw new IllegalArgumentException("Can't find xings in cities with any dimension < 3.");
 		}
 		
+		LotManager lots = city.getLotManager();
 		Map<Lot, Set<Lot>> xings = new HashMap<Lot, Set<Lot>>();
-		for (Lot lot : city.getLotManager().asSet()) {
-			if (lot.isPaved()) {
-				Set<Lot> pn = new HashSet<>();
-				for (Lot n : city.getLotManager().getNeighbors(lot)) {
-					if (n == null) throw new IllegalStateException("LotManager.getNeighbors(Lot lot) seems to have returned a null Lot");
-					if (n.isPaved()) {
-						pn.add(n);
-					}
-				}
-				if (pn.size() != 2) {
-					xings.put(lot, pn);
+		for (int x = 0; x < lots.getWidth(); x++) {
+			for (int y = 0; y < lots.getHeight(); y++) {
+				if (lots.isPaved(x, y) && lots.countPavedNeighbors(x, y) != 2) {
+					Lot lot = lots.getLot(x, y);
+					xings.put(lot, findPavedNeighbors(city, lot));
 				}
 			}
 		}
@@ -144,16 +161,7 @@ public class GraphFinder {
 		Set<Lot> lots = city.getLocationManager().connectionLots();
 		Map<Lot, Set<Lot>> map = new HashMap<>();
 		for (Lot lot : lots){
-			Set<Lot> pn = new HashSet<>();
-
-			for (Lot n : city.getLotManager().getNeighbors(lot)) {
-				
-				if (n != null & n.isPaved()) { // n is guaranteed not to be
-												// null, but double check
-					pn.add(n);
-				}
-			}
-			map.put(lot, pn);
+			map.put(lot, findPavedNeighbors(city, lot));
 		}
 		return map;
 	}
@@ -169,43 +177,14 @@ public class GraphFinder {
 	 * @return
 	 */
 	public static Set<Road> findRoadsWithXings(City city, Map<Xing, Set<Lot>> xings) {
+		Xing[][] byLot = indexXings(city, xings.keySet());
 		Set<Road> roadSet = new HashSet<>();
 		for (Xing sourceXing : xings.keySet()) {
 			Set<Lot> pavedNeighbors = xings.get(sourceXing);
 			
 			// notice that isolated Xings will simply not have any paved neighbors to form a Road with
 			for (Lot pn : pavedNeighbors) {
-				Xing targetXing = null;
-				Lot currentLot = pn;
-				Lot lastLot = sourceXing.getLot();
-				List<Lot> segments = new ArrayList<>();
-				while (targetXing == null) {
-					Xing currentXing = findXing(xings.keySet(), currentLot);
-					if (currentXing != null) { // if you've
-																// reached
-																// another
-																// xing...
-						targetXing = currentXing;
-					} else {
-						// logically, currentLot must be paved but not be an Xing,
-						// which implies that it has exactly 1 paved neighbor besides from the one we already processed (or the sourceXing itself)
-						// we need to find this paved neighbor among the lots surrounding currentLot
-						segments.add(currentLot);
-						Lot temp = currentLot;
-						for (Lot n : city.getLotManager().getNeighbors(currentLot)) {
-							if (!n.equals(lastLot) && n.isPaved()) {
-								// n is lot we're looking for!
-								currentLot = n;
-								lastLot = temp;
-								break; // for loop shouldn't execute any
-										// more checks
-							}
-
-						}
-						// System.out.println();
-					}
-				}
-				roadSet.add(new Road(sourceXing, targetXing, segments));
+				roadSet.add(traceRoad(city, sourceXing, pn, byLot));
 			}
 			
 		}
@@ -213,6 +192,89 @@ public class GraphFinder {
 		return roadSet;
 	}
 
+	/**
+	 * Returns array of <tt>xings</tt> by the x and y coordinates of their Lots, as wide and high as <tt>city</tt>, with <tt>null</tt> where there is no Xing.
+	 * <p>
+	 * Looking Xings up in this takes constant time, so tracing Roads takes time in proportion to the number of paved Lots.
+	 * @param city City the Xings are in
+	 * @param xings Collection of Xings to index
+	 * @return Xing[][] indexed by x, then y
+	 */
+	public static Xing[][] indexXings(City city, Collection<Xing> xings) {
+		Xing[][] byLot = new Xing[city.getWidth()][city.getHeight()];
+		for (Xing xing : xings){
+			byLot[xing.getLot().getX()][xing.getLot().getY()] = xing;
+		}
+		return byLot;
+	}
+
+	/**
+	 * Returns Road leaving <tt>source</tt> through its paved neighbor <tt>first</tt> and following paved Lots until it reaches an Xing.
+	 * <p>
+	 * The <tt>xings</tt> array must have every Xing the Road could reach.
+	 * @param city City the Lots are in
+	 * @param source Xing the Road starts at
+	 * @param first Lot next to the Lot of <tt>source</tt> the Road leaves by
+	 * @param xings Xing[][] of Xings by the x and y coordinates of their Lots
+	 * @return Road from <tt>source</tt> to the first Xing reached
+	 * @see #indexXings(City, Collection)
+	 */
+	public static Road traceRoad(City city, Xing source, Lot first, Xing[][] xings) {
+		LotManager lots = city.getLotManager();
+		List<Lot> segments = new ArrayList<>();
+		int lastX = source.getLot().getX();
+		int lastY = source.getLot().getY();
+		int x = first.getX();
+		int y = first.getY();
+		while (xings[x][y] == null) {
+			// logically, this Lot must be paved but not be an Xing,
+			// which implies that it has exactly 1 paved neighbor besides from the one we already processed (or the source Xing itself)
+			// we need to find this paved neighbor among the lots surrounding it
+			segments.add(segments.isEmpty() ? first : lots.getLot(x, y));
+			int next = -1;
+			for (int mask = lots.getPavedMask(x, y); mask != 0 && next < 0; mask &= mask - 1) {
+				int d = Integer.numberOfTrailingZeros(mask);
+				if (x + LotManager.offsetX(d) != lastX || y + LotManager.offsetY(d) != lastY) {
+					next = d;
+				}
+			}
+			if (next < 0) throw new IllegalStateException("Road from " + source + " ends at " + lots.getLot(x, y) + " without reaching an Xing.");
+			lastX = x;
+			lastY = y;
+			x += LotManager.offsetX(next);
+			y += LotManager.offsetY(next);
+		}
+		return new Road(source, xings[x][y], segments);
+	}
+
+	/**
+	 * Returns paved neighbors of <tt>lot</tt>.
+	 * @param city City <tt>lot</tt> is in
+	 * @param lot Lot whose neighbors are returned
+	 * @return Set of paved Lots next to <tt>lot</tt>
+	 */
+	public static Set<Lot> findPavedNeighbors(City city, Lot lot) {
+		LotManager lots = city.getLotManager();
+		Set<Lot> pn = new HashSet<>();
+		lots.forEachPavedNeighbor(lot.getX(), lot.getY(), (x, y) -> pn.add(lots.getLot(x, y)));
+		return pn;
+	}
+
+	/**
+	 * Returns true iff an Xing should be at <tt>lot</tt>: either it is paved and doesn't have exactly 2 paved neighbors, or it is one of
+	 * <tt>connectionLots</tt>, the Lots Locations connect to the network at.
+	 * @param city City <tt>lot</tt> is in
+	 * @param lot Lot to check
+	 * @param connectionLots Set of Lots where Locations connect
+	 * @return true iff <tt>lot</tt> should have an Xing
+	 */
+	public static boolean isXingLot(City city, Lot lot, Set<Lot> connectionLots) {
+		if (connectionLots.contains(lot)) {
+			return true;
+		}
+		return lot.isPaved() && city.getLotManager().countPavedNeighbors(lot.getX(), lot.getY()) != 2;
+	}
+
 	public static void extensiveXingReport(Map<Lot, Set<Lot>> xings) {
 		System.out.println("Xings found: ");
 		for (Lot x : xings.keySet()) {
@@ -223,26 +285,102 @@ public class GraphFinder {
 		}
 	}
 	
+	public static Set<Xing> convertToXings(Collection<Lot> lots){
+		Set<Xing> xings = new HashSet<>();
+		for (Lot lot : lots){
+			xings.add(new Xing(lot));
+		}
+		return xings;
+	}
+
 	/**
-	 * Return the first Xing in a Collection of Xings that is located at Lot.
-	 * @param xings
-	 * @param lot
-	 * @return
+	 * Finds the Xings in a range of columns of Lots, splitting it into tiles of at most <tt>TILE_COLUMNS</tt> columns.
 	 */
-	private static Xing findXing(Collection<Xing> xings, Lot lot){
-		for (Xing xing : xings){
-			if (xing.getLot().equals(lot)){
-				return xing;
+	@SuppressWarnings("serial")
+	private static class XingTask extends RecursiveTask<List<Xing>> {
+		
+		private final City city;
+		private final BitSet connections; // by y * width + x of Lots Locations connect at
+		private final int fromX; // first column, inclusive
+		private final int toX; // last column, exclusive
+		
+		public XingTask(City city, BitSet connections, int fromX, int toX){
+			this.city = city;
+			this.connections = connections;
+			this.fromX = fromX;
+			this.toX = toX;
+		}
+
+		@Override
+		protected List<Xing> compute() {
+			if (toX - fromX > TILE_COLUMNS && getPool() != null){
+				int mid = fromX + (toX - fromX) / 2;
+				XingTask left = new XingTask(city, connections, fromX, mid);
+				XingTask right = new XingTask(city, connections, mid, toX);
+				left.fork();
+				List<Xing> xings = right.compute();
+				List<Xing> all = left.join();
+				all.addAll(xings);
+				return all;
+			}
+			LotManager lots = city.getLotManager();
+			List<Xing> xings = new ArrayList<>();
+			for (int x = fromX; x < toX; x++){
+				for (int y = 0; y < lots.getHeight(); y++){
+					if (connections.get(y * lots.getWidth() + x) || (lots.isPaved(x, y) && lots.countPavedNeighbors(x, y) != 2)){
+						xings.add(new Xing(lots.getLot(x, y)));
+					}
+				}
 			}
+			return xings;
 		}
-		return null;
 	}
 	
-	public static Set<Xing> convertToXings(Collection<Lot> lots){
-		Set<Xing> xings = new HashSet<>();
-		for (Lot lot : lots){
-			xings.add(new Xing(lot));
+	/**
+	 * Traces the Roads leaving a range of Xings, splitting it into batches of at most <tt>ROAD_BATCH</tt> Xings.
+	 */
+	@SuppressWarnings("serial")
+	private static class RoadTask extends RecursiveTask<List<Road>> {
+		
+		private final City city;
+		private final List<Xing> xings;
+		private final Xing[][] xingsByLot;
+		private final int from; // inclusive
+		private final int to; // exclusive
+		
+		public RoadTask(City city, List<Xing> xings, Xing[][] xingsByLot, int from, int to){
+			this.city = city;
+			this.xings = xings;
+			this.xingsByLot = xingsByLot;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Road> compute() {
+			if (to - from > ROAD_BATCH && getPool() != null){
+				int mid = from + (to - from) / 2;
+				RoadTask left = new RoadTask(city, xings, xingsByLot, from, mid);
+				RoadTask right = new RoadTask(city, xings, xingsByLot, mid, to);
+				left.fork();
+				List<Road> roads = right.compute();
+				List<Road> all = left.join();
+				all.addAll(roads);
+				return all;
+			}
+			LotManager lots = city.getLotManager();
+			List<Road> roads = new ArrayList<>();
+			for (int i = from; i < to; i++){
+				Xing xing = xings.get(i);
+				int x = xing.getLot().getX();
+				int y = xing.getLot().getY();
+				// notice that isolated Xings will simply not have any paved neighbors to form a Road with
+				for (int mask = lots.getPavedMask(x, y); mask != 0; mask &= mask - 1){
+					int d = Integer.numberOfTrailingZeros(mask);
+					roads.add(traceRoad(city, xing, lots.getLot(x + LotManager.offsetX(d), y + LotManager.offsetY(d)), xingsByLot));
+				}
+			}
+			return roads;
 		}
-		return xings;
 	}
 }
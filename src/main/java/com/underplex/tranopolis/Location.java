@@ -1,11 +1,11 @@
 package com.underplex.tranopolis;
 
-import java.time.LocalDateTime;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -24,7 +24,7 @@ import com.google.common.collect.Lists;
  * There is no guarantee that the Lots provided to the constructor are valid or a good implementation of the rules used to define a Location.
  * @author Brandon Irvine, brandon@underplex.com
  */
-public class Location implements OnOffPoint, Drivable {
+public class Location extends AbstractDrivable implements OnOffPoint {
 
     private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 	
@@ -35,6 +35,8 @@ public class Location implements OnOffPoint, Drivable {
 	private final String id;
 	private final Map<Drivable, List<Drive>> turnOns; // exits and their associated drives
     private final Set<Drive> done;
+    private int finishedCount; // Drives finished here since last dumped
+    private long finishedSeconds; // total time those Drives took
     private final String label;
 
     /**
@@ -60,7 +62,9 @@ public class Location implements OnOffPoint, Drivable {
 		this.residents = new HashSet<>();
 		this.id = id;
 		this.done = new HashSet<>();
-		this.turnOns = new HashMap<Drivable, List<Drive>>();
+		this.finishedCount = 0;
+		this.finishedSeconds = 0;
+		this.turnOns = new LinkedHashMap<Drivable, List<Drive>>(); // Parkings hash by the identity of this, so exits flow in the order they were first used instead
 		this.label = label;
 	}
 	
@@ -140,8 +144,9 @@ public class Location implements OnOffPoint, Drivable {
 		
 		boolean flag = false;
 		for (Lot myLot : this.lots){
-			if (city.getLotManager().getNeighbors(myLot).contains(lot)){
-				flag = true;				
+			if (city.getLotManager().areNeighbors(myLot, lot)){
+				flag = true;
+				break;
 			}
 		}
 		
@@ -183,6 +188,8 @@ public class Location implements OnOffPoint, Drivable {
 	
 	@Override
 	public boolean dumpFinishedDrives() {
+		this.finishedCount = 0;
+		this.finishedSeconds = 0;
 		if (this.done.isEmpty()){
 			return false;
 		} else {
@@ -191,6 +198,20 @@ public class Location implements OnOffPoint, Drivable {
 		return true;
 	}
 	
+	/**
+	 * Returns number of Drives finished here since finished Drives were last dumped, whether or not they were kept.
+	 */
+	public int getFinishedCount() {
+		return finishedCount;
+	}
+	
+	/**
+	 * Returns total number of seconds taken by the Drives counted by <tt>getFinishedCount</tt>.
+	 */
+	public long getFinishedSeconds() {
+		return finishedSeconds;
+	}
+	
 	@Override
 	/**
 	 * Adds Drive instances to this Location to move eventually onto the network of roads.
@@ -219,70 +240,107 @@ public class Location implements OnOffPoint, Drivable {
 		} else {
 			turnOns.put(out, Lists.newArrayList(drive));
 		}
+		wake();
+	}
+
+	/**
+	 * Takes <tt>drive</tt> off the Drives waiting to turn on from this without letting it go, as when it is aborted. Returns true iff it was waiting here.
+	 * @param drive Drive to take off
+	 * @return true iff <tt>drive</tt> was waiting to turn on from this
+	 */
+	boolean evict(Drive drive){
+		for (List<Drive> waiting : turnOns.values()){
+			if (waiting.remove(drive)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns copy of the Drives waiting to turn on from this, by the Drivable they turn onto.
+	 */
+	Map<Drivable, List<Drive>> getTurnOns(){
+		Map<Drivable, List<Drive>> copy = new LinkedHashMap<>();
+		for (Map.Entry<Drivable, List<Drive>> e : turnOns.entrySet()){
+			if (!e.getValue().isEmpty()){
+				copy.put(e.getKey(), new ArrayList<>(e.getValue()));
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * Sets the Drives counted as finished here since they were last dumped, as they were when saved.
+	 */
+	void restoreFinished(int finishedCount, long finishedSeconds){
+		this.finishedCount = finishedCount;
+		this.finishedSeconds = finishedSeconds;
 	}
 
 	@Override
-	public Set<Drive> take(Queue<Drive> drives, LocalDateTime time) {
-		if (time == null || drives == null ) throw new IllegalArgumentException("Arguments to take method cannot be null.");
+	public int take(DriveBatch drives, long time) {
+		if (drives == null) throw new IllegalArgumentException("Arguments to take method cannot be null.");
 
-		Map<Drivable, Queue<Drive>> map = new HashMap<Drivable, Queue<Drive>>();
-				
-		while (!drives.isEmpty()){
-			Drive d = drives.remove();
+		for (int i = 0; i < drives.size(); i++){
+			Drive d = drives.get(i);
 			
 			if (this.equals(d.getEnd())){
+				d.moveTo(this);
 				d.finish(time);
-				this.done.add(d);
+				this.city.getTracer().trace(Tracer.Event.FINISH, time, d, this);
+				this.finishedCount++;
+				this.finishedSeconds += d.getActualEndSecond() - d.getActualStartSecond();
+				this.city.getResidentManager().getArchive().retire(d);
+				if (this.city.getLocationManager().isKeepingFinishedDrives()){
+					this.done.add(d);
+				}
 				d.getDriver().setCurrentLocation(this);
 				this.addResident(d.getDriver());
-				LOGGER.info(d + " finishes at " + this);
+				drives.setNext(i, null);
 			} else {
 				Drivable r = d.next(this);
-				LOGGER.info(d + " drives into " + this);
+				this.city.getTracer().trace(Tracer.Event.ENTER, time, d, this);
 				
 				if (r == null)
 					throw new IllegalArgumentException("One of the drives has nowhere to go from this Location.");
 				
-				// LOGGER.info(d + " attempts to turn onto " + r);
-	
-				// if we've already seen the road this drive wants to get onto...
-				if (map.keySet().contains(r)){ 
-					map.get(r).add(d);
-		
-				// if we haven't already seen the road this drive wants to get onto...	
-				} else { 
-					Queue<Drive> q = new ArrayDeque<Drive>();
-					q.add(d);
-					map.put(r,q); 
-				}
+				drives.setNext(i, r);
 			}
-			
 		}
 
-		Set<Drive> rejects = new HashSet<>();
-		
 		// attempts to simply move the Drives through, much like an Xing
-		// now actually attempt to move drive off...
-		for (Drivable r : map.keySet()){
-			// LOGGER.info(map.get(r).size() + " car(s) attempting to turn onto " + r); 
-			Set<Drive> localRejects = r.take(map.get(r), time);
-			// LOGGER.info(localRejects.size() + " car(s) cannot turn onto " + r); 
-			rejects.addAll(localRejects);
-		}
-
-		return rejects;
+		return drives.handOn(time);
 	}
 
 	@Override
-	public void flow(LocalDateTime time) {
+	public void flow(long time) {
 		// LOGGER.info(this + " flow is triggered.");
-		for (Drivable d : turnOns.keySet()){
-			List<Drive> drives = new ArrayList<>(turnOns.get(d));
-			// sort by time...
-			drives.sort(
-					(Drive drive1, Drive drive2) -> drive1.getAttemptStartTime().compareTo(drive2.getAttemptStartTime()));
-			List<Drive> rejects = new ArrayList<Drive>(d.take(new ArrayDeque<Drive>(drives), time));
-			turnOns.put(d, rejects);			
+		DriveBatch batch = DriveBatch.borrow();
+		try {
+			Iterator<Map.Entry<Drivable, List<Drive>>> it = turnOns.entrySet().iterator();
+			while (it.hasNext()){
+				Map.Entry<Drivable, List<Drive>> entry = it.next();
+				List<Drive> waiting = entry.getValue();
+				// sort by time...
+				waiting.sort(
+						(Drive drive1, Drive drive2) -> Long.compare(drive1.getAttemptStartSecond(), drive2.getAttemptStartSecond()));
+				batch.clear();
+				batch.addAll(waiting);
+				entry.getKey().take(batch, time);
+				if (batch.isEmpty()){
+					// nothing left waiting to turn on here
+					it.remove();
+				} else {
+					// rejected drives keep their place in line
+					waiting.clear();
+					for (int i = 0; i < batch.size(); i++){
+						waiting.add(batch.get(i));
+					}
+				}
+			}
+		} finally {
+			batch.release();
 		}
 	}
 	
@@ -301,17 +359,38 @@ public class Location implements OnOffPoint, Drivable {
 	public String getLabel(){
 		return label;
 	}
+
+	public City getCity(){
+		return city;
+	}
 	
 	public int getNumberOfLots(){
 		return this.lots.size();
 	}
 	
+	/**
+	 * Returns copy of the Drives waiting to turn on from this, exit by exit in the order they were first used and in order within each.
+	 */
 	public Set<Drive> getDrives(){
-		Set<Drive> rSet = new HashSet<>();
+		Set<Drive> rSet = new LinkedHashSet<>();
 		for (Drivable destination : turnOns.keySet()){
 			rSet.addAll(turnOns.get(destination));
 		}
 		return rSet;
 	}
 	
+	/**
+	 * Returns the earliest attempted start time of any Drive waiting to turn on from this Location.
+	 */
+	@Override
+	public long getNextFlowTime(){
+		long earliest = SimTime.NEVER;
+		for (List<Drive> waiting : turnOns.values()){
+			for (Drive d : waiting){
+				earliest = Math.min(earliest, d.getAttemptStartSecond());
+			}
+		}
+		return earliest;
+	}
+	
 }
@@ -3,6 +3,8 @@ package com.underplex.tranopolis;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,11 +24,29 @@ public class LocationManager {
 	private final Set<Location> locations;
 	private final City city;
 	private final Map<String, Location> labels;
+	private boolean keepingFinishedDrives; // whether Locations hold on to finished Drives until dumped
 	
 	public LocationManager(City city) {
 		this.city = city;
-		this.locations = new HashSet<>();
+		// creation order, so that the graph is numbered the same way in every run
+		this.locations = new LinkedHashSet<>();
 		this.labels = new HashMap<>();
+		this.keepingFinishedDrives = true;
+	}
+	
+	public boolean isKeepingFinishedDrives() {
+		return keepingFinishedDrives;
+	}
+	
+	/**
+	 * Sets whether Locations keep the Drives that finish there until <tt>dumpFinishedDrives</tt> is called.
+	 * <p>
+	 * Finished Drives are retired to the <tt>DriveArchive</tt> either way, and Locations still count them. Long runs that don't dump
+	 * finished Drives regularly should turn this off, so the Drives don't pile up.
+	 * @param keepingFinishedDrives boolean
+	 */
+	public void setKeepingFinishedDrives(boolean keepingFinishedDrives) {
+		this.keepingFinishedDrives = keepingFinishedDrives;
 	}
 	
 	// TODO: Make sure this adds the location's label (and checks that label is valid) to label map
@@ -104,11 +124,18 @@ public class LocationManager {
 	}
 	
 	/**
-	 * Returns defensive copy of the Set of all Locations.
+	 * Returns defensive copy of the Set of all Locations, in the order they were made.
 	 * @return defensive copy of the Set of all Locations
 	 */
 	public Set<Location> getLocations(){
-		return new HashSet<>(this.locations);
+		return new LinkedHashSet<>(this.locations);
+	}
+	
+	/**
+	 * Returns number of Locations.
+	 */
+	int getLocationCount(){
+		return this.locations.size();
 	}
 	
 	/**
@@ -125,10 +152,12 @@ public class LocationManager {
 	
 	/**
 	 * Returns Map with keys representing all Locations, and keys representing each Location's set of connection Lots.
+	 * <p>
+	 * Locations are in the order they were made.
 	 * @return
 	 */
 	public Map<Location, Set<Lot>> connectionMap(){
-		Map<Location, Set<Lot>> map = new HashMap<>();
+		Map<Location, Set<Lot>> map = new LinkedHashMap<>();
 		for (Location loc : this.locations){
 			map.put(loc, loc.getConnections());
 		}
@@ -147,6 +176,17 @@ public class LocationManager {
 		return rSet;
 	}
 	
+	/**
+	 * Returns number of Drives finished in all Locations since finished Drives were last dumped, whether or not they were kept.
+	 */
+	public int getFinishedCount(){
+		int n = 0;
+		for (Location l : this.locations){
+			n += l.getFinishedCount();
+		}
+		return n;
+	}
+	
 	/**
 	 * Clears all references to finished Drives in all Locations, and returns true iff any of them dereferenced Drives this way.
 	 * @return
@@ -2,36 +2,55 @@ package com.underplex.tranopolis;
 
 /**
  * Represents one tile or square of space in a city.
+ * <p>
+ * Lots of a <tt>LotManager</tt> are views of its grid: their value is kept there, and two Lots at the same place in the same grid are equal
+ * whether or not they are the same object.
  * @author Brandon Irvine, brandon@underplex.com
  *
  */
 public class Lot {
 
 	public static final double LENGTH_IN_M = 100.0; // length of a lot in meters
+	static final int PAVED = 1; // values of Lots
+	static final int BUILT = 2;
+	
+	private final LotManager manager; // manager whose grid holds the value of this, or null if this holds its own
 	private final int x;
 	private final int y;
-	private int value;
+	private int value; // only used when there's no manager
 
 	public Lot(int x, int y) {
+		this(null, x, y);
+	}
+	
+	/**
+	 * Constructs view of the Lot at <tt>x</tt>, <tt>y</tt> in the grid of <tt>manager</tt>.
+	 */
+	Lot(LotManager manager, int x, int y) {
+		this.manager = manager;
 		this.value = 0;
 		this.x = x;
 		this.y = y;
 	}
 
 	public int getValue() {
-		return value;
+		return (manager == null) ? value : manager.getValue(x, y);
 	}
 
 	public void setValue(int value) {
-		this.value = value;
+		if (manager == null){
+			this.value = value;
+		} else {
+			manager.setValue(x, y, value);
+		}
 	}
 	
 	public void makePaved(){
-		value = 1;
+		setValue(PAVED);
 	}
 
 	public void makeBuilt(){
-		value = 2;
+		setValue(BUILT);
 	}
 
 	public int getX() {
@@ -51,7 +70,7 @@ public class Lot {
 	 * @return
 	 */
 	public boolean isPaved(){
-		return (value == 1);
+		return (getValue() == PAVED);
 	}
 
 	/**
@@ -59,8 +78,25 @@ public class Lot {
 	 * @return
 	 */
 	public boolean isBuilt(){
-		return (value == 2);
+		return (getValue() == BUILT);
 	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * (31 + x) + y;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Lot))
+			return false;
+		Lot other = (Lot) obj;
+		// Lots without a manager hold their own value, so they are only equal to themselves
+		return manager != null && manager == other.manager && x == other.x && y == other.y;
+	}
+	
 	public String toString(){
 		return "Lot at (" + this.coordinates() + ")";
 	}	
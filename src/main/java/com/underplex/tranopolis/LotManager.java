@@ -1,33 +1,70 @@
 package com.underplex.tranopolis;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
  * Manages the <tt>Lot</tt>s in a <tt>City</tt>.
+ * <p>
+ * The value of every Lot is kept in a single array of bytes. Normally a <tt>Lot</tt> object is also kept for every place in the grid, so
+ * <tt>getLot</tt> always returns the same object for the same place. A packed manager keeps no Lot objects and makes a new view each time
+ * <tt>getLot</tt> is called, which lets very large cities fit in memory; views of the same place are equal but not the same object.
+ * <p>
+ * Methods taking coordinates, such as <tt>isPaved(int, int)</tt>, <tt>getPavedMask</tt> and <tt>forEachNeighbor</tt>, make no objects at all,
+ * and are what code walking large parts of the grid should use. Which neighbors of each Lot are paved is kept up to date as a mask of the
+ * direction bits <tt>NORTH</tt>, <tt>SOUTH</tt>, <tt>WEST</tt> and <tt>EAST</tt>, so asking doesn't look at the neighbors at all.
  * @author Brandon Irvine, brandon@underplex.com
  *
  */
 public class LotManager {
 
+	// bits of paved neighbor masks, by direction
+	public static final int NORTH = 1;
+	public static final int SOUTH = 1 << 1;
+	public static final int WEST = 1 << 2;
+	public static final int EAST = 1 << 3;
+	
+	public static final int DIRECTIONS = 4;
+	
+	// offsets to the north, south, west, and east neighbors of a Lot, and the direction back from each
+	private static final int[] DX = {0, 0, -1, 1};
+	private static final int[] DY = {1, -1, 0, 0};
+	private static final int[] OPPOSITE = {1, 0, 3, 2};
+	
 	private final City city;
 	private final int width;
 	private final int height;
-	private final Lot[][] lots;
-	private final Set<Lot> set;
+	private final byte[] values; // value of each Lot by y * width + x
+	private final byte[] masks; // paved neighbor mask of each Lot by y * width + x
+	private final Lot[][] lots; // Lot objects by x and y, or null if packed
 	
 	public LotManager(City city, int width, int height) {
+		this(city, width, height, false);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param city City this manages Lots for
+	 * @param width int number of Lots across
+	 * @param height int number of Lots up
+	 * @param packed true iff no Lot objects should be kept
+	 */
+	public LotManager(City city, int width, int height, boolean packed) {
 		this.city = city;
 		this.width = width;
 		this.height = height;
-		this.lots = new Lot[width][height];
-		this.set = new HashSet<>();
-		for (int x = 0; x < width; x++){
-			for (int y = 0; y < height; y++){
-				Lot aLot = new Lot(x, y);
-				lots[x][y] = aLot;
-				set.add(aLot);
+		this.values = new byte[Math.multiplyExact(width, height)];
+		this.masks = new byte[values.length];
+		if (packed){
+			this.lots = null;
+		} else {
+			this.lots = new Lot[width][height];
+			for (int x = 0; x < width; x++){
+				for (int y = 0; y < height; y++){
+					lots[x][y] = new Lot(this, x, y);
+				}
 			}
 		}
 	}
@@ -39,11 +76,174 @@ public class LotManager {
 	 * @return <tt>Lot</tt> at x, y or <tt>null</tt> if none
 	 */
 	public Lot getLot(int x, int y) {
-		if (x >= 0 && x < this.width && y < this.height && y >= 0 ){
-			return lots[x][y];
+		if (contains(x, y)){
+			return (lots == null) ? new Lot(this, x, y) : lots[x][y];
 		}
 		return null;
 	}
+	
+	/**
+	 * Returns true iff there is a Lot at <tt>x</tt>, <tt>y</tt>.
+	 */
+	public boolean contains(int x, int y) {
+		return x >= 0 && x < this.width && y < this.height && y >= 0;
+	}
+	
+	/**
+	 * Returns value of Lot at <tt>x</tt>, <tt>y</tt>.
+	 * @throws IndexOutOfBoundsException if there is no Lot there
+	 */
+	public int getValue(int x, int y) {
+		return values[index(x, y)];
+	}
+	
+	/**
+	 * Sets value of Lot at <tt>x</tt>, <tt>y</tt>, which must fit in a byte.
+	 * @throws IndexOutOfBoundsException if there is no Lot there
+	 */
+	public void setValue(int x, int y, int value) {
+		if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) throw new IllegalArgumentException("Parameter value must fit in a byte.");
+		int i = index(x, y);
+		boolean wasPaved = values[i] == Lot.PAVED;
+		values[i] = (byte) value;
+		if (wasPaved != (value == Lot.PAVED)){
+			for (int d = 0; d < DIRECTIONS; d++){
+				int nx = x + DX[d];
+				int ny = y + DY[d];
+				if (contains(nx, ny)){
+					masks[ny * width + nx] ^= 1 << OPPOSITE[d];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns true iff there is a paved Lot at <tt>x</tt>, <tt>y</tt>.
+	 */
+	public boolean isPaved(int x, int y) {
+		return contains(x, y) && values[y * width + x] == Lot.PAVED;
+	}
+	
+	/**
+	 * Returns true iff there is a built Lot at <tt>x</tt>, <tt>y</tt>.
+	 */
+	public boolean isBuilt(int x, int y) {
+		return contains(x, y) && values[y * width + x] == Lot.BUILT;
+	}
+	
+	/**
+	 * Returns mask of the directions, among <tt>NORTH</tt>, <tt>SOUTH</tt>, <tt>WEST</tt> and <tt>EAST</tt>, in which the Lot at <tt>x</tt>,
+	 * <tt>y</tt> has a paved neighbor.
+	 * @throws IndexOutOfBoundsException if there is no Lot there
+	 */
+	public int getPavedMask(int x, int y) {
+		return masks[index(x, y)];
+	}
+	
+	/**
+	 * Returns number of paved Lots next to <tt>x</tt>, <tt>y</tt>.
+	 */
+	public int countPavedNeighbors(int x, int y) {
+		if (contains(x, y)){
+			return Integer.bitCount(masks[y * width + x]);
+		}
+		int count = 0;
+		for (int d = 0; d < DIRECTIONS; d++){
+			if (isPaved(x + DX[d], y + DY[d])){
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Calls <tt>visitor</tt> with each Lot next to <tt>x</tt>, <tt>y</tt>, in the order north, south, west, east.
+	 */
+	public void forEachNeighbor(int x, int y, LotVisitor visitor) {
+		for (int d = 0; d < DIRECTIONS; d++){
+			int nx = x + DX[d];
+			int ny = y + DY[d];
+			if (contains(nx, ny)){
+				visitor.visit(nx, ny);
+			}
+		}
+	}
+	
+	/**
+	 * Calls <tt>visitor</tt> with each paved Lot next to <tt>x</tt>, <tt>y</tt>, in the order north, south, west, east.
+	 * @throws IndexOutOfBoundsException if there is no Lot at <tt>x</tt>, <tt>y</tt>
+	 */
+	public void forEachPavedNeighbor(int x, int y, LotVisitor visitor) {
+		for (int mask = getPavedMask(x, y); mask != 0; mask &= mask - 1){
+			int d = Integer.numberOfTrailingZeros(mask);
+			visitor.visit(x + DX[d], y + DY[d]);
+		}
+	}
+	
+	/**
+	 * Returns true iff <tt>a</tt> and <tt>b</tt> are next to each other.
+	 */
+	public boolean areNeighbors(Lot a, Lot b) {
+		return Math.abs(a.getX() - b.getX()) + Math.abs(a.getY() - b.getY()) == 1;
+	}
+	
+	/**
+	 * Returns offset at x of the neighbor in <tt>direction</tt>, the number of one of the direction bits from 0 to <tt>DIRECTIONS</tt> - 1.
+	 */
+	public static int offsetX(int direction) {
+		return DX[direction];
+	}
+	
+	/**
+	 * Returns offset at y of the neighbor in <tt>direction</tt>, the number of one of the direction bits from 0 to <tt>DIRECTIONS</tt> - 1.
+	 */
+	public static int offsetY(int direction) {
+		return DY[direction];
+	}
+	
+	/**
+	 * Returns true iff this keeps no Lot objects.
+	 */
+	public boolean isPacked() {
+		return lots == null;
+	}
+
+	/**
+	 * Returns read-only view of the values of all Lots, by y * width + x.
+	 */
+	ByteBuffer getValues() {
+		return ByteBuffer.wrap(values).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Replaces the values of all Lots with the next width * height bytes of <tt>source</tt>, by y * width + x.
+	 * <p>
+	 * This copies the bytes in one go and works out the paved neighbor masks in one pass, rather than setting the Lots one at a time.
+	 * @param source ByteBuffer to read values from
+	 */
+	void setValues(ByteBuffer source) {
+		if (source.remaining() < values.length) throw new IllegalArgumentException("Parameter source has only " + source.remaining() + " of " + values.length + " values.");
+		source.get(values);
+		Arrays.fill(masks, (byte) 0);
+		for (int y = 0; y < height; y++){
+			for (int x = 0; x < width; x++){
+				if (values[y * width + x] == Lot.PAVED){
+					for (int d = 0; d < DIRECTIONS; d++){
+						int nx = x + DX[d];
+						int ny = y + DY[d];
+						if (contains(nx, ny)){
+							masks[ny * width + nx] |= 1 << OPPOSITE[d];
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	private int index(int x, int y) {
+		if (!contains(x, y)) throw new IndexOutOfBoundsException("No Lot at (" + x + ", " + y + ").");
+		return y * width + x;
+	}
 
 	public int getWidth() {
 		return width;
@@ -62,6 +262,8 @@ public class LotManager {
 	 * all others will have 4 neighbors.
 	 * <p>
 	 * In cases where the field is less than 3 x 3, other numbers of neighbors are possible, including even none, which would be represented by an empty <tt>Set</tt>.
+	 * <p>
+	 * This makes a new <tt>Set</tt> each call; <tt>forEachNeighbor</tt> and <tt>getPavedMask</tt> don't make anything.
 	 * @param lot center <tt>Lot</tt> whose neighbors are returned
 	 * @return <tt>Set<//t> of <tt>Lot</tt>s neighboring <tt>lot</tt>
 	 */
@@ -97,10 +299,17 @@ public class LotManager {
 	/**
 	 * Returns all Lots as a Set.
 	 * <p>
-	 * The returned set is a defensive copy of a set in the manager; changing it has no effect on that set, though changing the Lots will have an effect on those Lots.
+	 * The returned set is made anew each call; changing it has no effect on this, though changing the Lots will have an effect on those Lots.
+	 * For large cities, walking the grid by coordinates is much cheaper.
 	 */
 	public Set<Lot> asSet(){
-		return new HashSet<Lot>(this.set);
+		Set<Lot> set = new HashSet<Lot>(values.length * 4 / 3 + 1);
+		for (int x = 0; x < width; x++){
+			for (int y = 0; y < height; y++){
+				set.add(getLot(x, y));
+			}
+		}
+		return set;
 	}
 	
 	/**
@@ -113,9 +322,9 @@ public class LotManager {
 		for (int y = height - 1; y >= 0; y--){
 			for (int x = 0; x < width; x++){
 				char rep = '.';
-				if (lots[x][y].isPaved()){
+				if (isPaved(x, y)){
 					rep = 'R';
-				} else if (lots[x][y].isBuilt()){
+				} else if (isBuilt(x, y)){
 					rep = 'b';
 				}
 				System.out.print(rep + " ");
@@ -0,0 +1,16 @@
+package com.underplex.tranopolis;
+
+/**
+ * Receives the coordinates of Lots visited by <tt>LotManager</tt>, so that walking neighbors doesn't make any Lots or collections.
+ * @see LotManager#forEachNeighbor(int, int, LotVisitor)
+ */
+public interface LotVisitor {
+
+	/**
+	 * Visits the Lot at <tt>x</tt>, <tt>y</tt>, which is always within the city.
+	 * @param x int coordinate at x
+	 * @param y int coordinate at y
+	 */
+	void visit(int x, int y);
+
+}
@@ -0,0 +1,130 @@
+package com.underplex.tranopolis;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of <tt>int</tt> items from 0 to a fixed capacity, each with a <tt>double</tt> key, kept in primitive arrays.
+ * <p>
+ * Each item can be in the heap at most once; adding an item already present with a smaller key lowers its key instead.
+ * Meant for graph searches over dense vertex indices, where it replaces a queue of boxed entries.
+ * <p>
+ * Instances are not thread-safe, but can be cleared and reused between searches.
+ */
+public class MinHeap {
+
+	private final int[] items; // heap order
+	private final double[] keys; // keys by item
+	private final int[] positions; // position in items by item, or -1 if absent
+	private int size;
+
+	public MinHeap(int capacity){
+		this.items = new int[capacity];
+		this.keys = new double[capacity];
+		this.positions = new int[capacity];
+		Arrays.fill(positions, -1);
+		this.size = 0;
+	}
+
+	/**
+	 * Adds <tt>item</tt> with <tt>key</tt>, or lowers its key if it is already present with a larger one. Returns true iff this changed.
+	 * @param item int from 0 to capacity - 1
+	 * @param key double key
+	 * @return true iff this changed
+	 */
+	public boolean offer(int item, double key){
+		int p = positions[item];
+		if (p < 0){
+			p = size++;
+			items[p] = item;
+			positions[item] = p;
+		} else if (key >= keys[item]){
+			return false;
+		}
+		keys[item] = key;
+		siftUp(p);
+		return true;
+	}
+
+	/**
+	 * Removes and returns the item with the smallest key. The heap cannot be empty.
+	 */
+	public int poll(){
+		int top = items[0];
+		positions[top] = -1;
+		size--;
+		if (size > 0){
+			items[0] = items[size];
+			positions[items[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Returns smallest key in this. The heap cannot be empty.
+	 */
+	public double peekKey(){
+		return keys[items[0]];
+	}
+
+	public boolean contains(int item){
+		return positions[item] >= 0;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Removes all items, in time proportional to the number of items present.
+	 */
+	public void clear(){
+		for (int i = 0; i < size; i++){
+			positions[items[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int p){
+		int item = items[p];
+		double key = keys[item];
+		while (p > 0){
+			int parent = (p - 1) >>> 1;
+			int other = items[parent];
+			if (keys[other] <= key){
+				break;
+			}
+			items[p] = other;
+			positions[other] = p;
+			p = parent;
+		}
+		items[p] = item;
+		positions[item] = p;
+	}
+
+	private void siftDown(int p){
+		int item = items[p];
+		double key = keys[item];
+		int half = size >>> 1;
+		while (p < half){
+			int child = 2 * p + 1;
+			int right = child + 1;
+			if (right < size && keys[items[right]] < keys[items[child]]){
+				child = right;
+			}
+			int other = items[child];
+			if (key <= keys[other]){
+				break;
+			}
+			items[p] = other;
+			positions[other] = p;
+			p = child;
+		}
+		items[p] = item;
+		positions[item] = p;
+	}
+}
@@ -24,4 +24,9 @@ public class Parking extends Road{
 	public long estimateTravelSeconds(Drive drive){
 		return parkingTime;
 	}
+	
+	@Override
+	public double estimateTravelTime(int occupancy){
+		return (double)parkingTime;
+	}
 }
@@ -0,0 +1,61 @@
+package com.underplex.tranopolis;
+
+import java.util.SplittableRandom;
+
+/**
+ * Source of every random choice made in a city, drawn from one seed.
+ * <p>
+ * Each part of the simulation asks for a stream of its own by a component key and a tick, such as a Resident's key and the second it plans
+ * at. A stream depends only on the seed, the key and the tick, not on what was drawn before or on which thread asks for it, so a city
+ * makes the same choices in every run with the same seed however its work is split up. Streams are <tt>SplittableRandom</tt>s, which are
+ * cheap to make and can be split again for work done side by side.
+ * <p>
+ * Residents added to a city are given keys from 1 up; the components of the city itself use negative keys.
+ */
+public class RandomManager {
+
+	public static final long DEFAULT_SEED = 0L;
+	public static final long TRAFFIC = -1L; // key of the order Drivables flow in
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private volatile long seed;
+
+	/**
+	 * Constructor.
+	 * @param seed long seed of every stream
+	 */
+	public RandomManager(long seed){
+		this.seed = seed;
+	}
+
+	public long getSeed(){
+		return seed;
+	}
+
+	/**
+	 * Sets seed of every stream handed out from now on.
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns new stream of random choices for component <tt>key</tt> at <tt>tick</tt>.
+	 * @param key long key of the component asking
+	 * @param tick long seconds since <tt>City.DEFAULT_START</tt>, or any other count that tells apart the times the component asks
+	 * @return SplittableRandom that's the same for the same seed, key and tick
+	 */
+	public SplittableRandom stream(long key, long tick){
+		return new SplittableRandom(mix(mix(seed + key * GOLDEN_GAMMA) + tick * GOLDEN_GAMMA));
+	}
+
+	/**
+	 * Returns bits of <tt>z</tt> mixed as in the SplitMix64 generator, so that nearby inputs give unrelated outputs.
+	 */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
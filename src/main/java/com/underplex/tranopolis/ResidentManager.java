@@ -3,13 +3,19 @@ package com.underplex.tranopolis;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import org.jgrapht.GraphPath;
+
 /**
  * Manages residents for an instance of <tt>City</tt>.
  * @author Brandon Irvine, brandon@underplex.com
@@ -19,13 +25,20 @@ public class ResidentManager {
 
     private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 	
+    public final static int DEFAULT_PLANNING_BATCH = 1024; // number of Residents planned for by one task
+    public final static long SCHEDULE_BUCKET_SECONDS = 60; // width of the buckets upcoming Drives are kept in
+    
 	private final City city;
 	private final Set<Resident> residents;
 	// number of seconds in advance this manage requires to plan before the simulation actually simulates a given time
 	
-	private final Set<Drive> upcomingDrives;
-	private final Set<Drive> droppedDrives;
+	private final DriveSchedule upcomingDrives;
+	private final DriveArchive archive; // where finished and dropped Drives go
 	private LocalDateTime lastTimePlanned;
+	private ExecutorService planningExecutor; // null to plan on the calling thread
+	private int planningBatch;
+	private long lastRandomKey; // key last given to a Resident added
+	private long nextDriveNumber; // number the next Drive scheduled is given
 	
 	/**
 	 * Constructor.
@@ -39,78 +52,169 @@ public class ResidentManager {
 		
 		this.city = city;
 
-		this.residents = new HashSet<>();
-		this.upcomingDrives = new HashSet<>();
-		this.droppedDrives = new HashSet<>();
+		// insertion order, so that planning and starting Drives happen in the same order every run
+		this.residents = new LinkedHashSet<>();
+		this.upcomingDrives = new DriveSchedule(SCHEDULE_BUCKET_SECONDS);
+		this.archive = new DriveArchive();
 		
 		// depending on how you want to set up the first day of activities, this might need to change
 		this.lastTimePlanned = null;
+		this.planningExecutor = null;
+		this.planningBatch = DEFAULT_PLANNING_BATCH;
+		this.lastRandomKey = 0L;
+		this.nextDriveNumber = 0L;
 	}
 
 	/**
 	 * Advance all residents through the current time and updates upcoming planned drives.
 	 * <p>
 	 * Uses period from City to find window in which drive plans are requested from Residents.
+	 * <p>
+	 * If there is a planning executor, Residents are split into batches that plan in parallel, and their Drives are added, and numbered, in the
+	 * same order they would have been if planned one at a time.
 	 */
 	public void advance(LocalDateTime time){
 		
 		LocalDateTime end = time.plusSeconds(city.getTimeManager().getPeriod());
-		for (Resident r : residents){
-			upcomingDrives.addAll(r.planDrives(time, city.getRoadGraph(), time, end));
-			// TODO: maybe filter/validate these Drives in some way
+		DrivableGraph graph = city.getRoadGraph();
+		if (planningExecutor == null || residents.size() <= planningBatch){
+			for (Resident r : residents){
+				addAll(r.planDrives(time, graph, time, end), time);
+				// TODO: maybe filter/validate these Drives in some way
+			}
+			return;
+		}
+		
+		List<Resident> all = new ArrayList<>(residents);
+		List<PlanningTask> tasks = new ArrayList<>();
+		for (int i = 0; i < all.size(); i += planningBatch){
+			tasks.add(new PlanningTask(all.subList(i, Math.min(i + planningBatch, all.size())), time, graph, end));
+		}
+		try {
+			// futures come back in the order of the tasks, whichever finishes first
+			for (Future<List<Drive>> batch : planningExecutor.invokeAll(tasks)){
+				addAll(batch.get(), time);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while Residents were planning Drives.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("A Resident failed to plan Drives.", e.getCause());
+		}
+	}
+	
+	private void addAll(Collection<Drive> drives, LocalDateTime time){
+		for (Drive d : drives){
+			number(d);
+			city.getTracer().trace(Tracer.Event.PLAN, SimTime.toSeconds(time), d, d.getStart());
+			upcomingDrives.add(d);
+		}
+	}
+
+	/**
+	 * Gives <tt>drive</tt> the next Drive number of the city, unless it already has one.
+	 * <p>
+	 * Drives are numbered here, on the thread advancing the city, so their numbers don't depend on which planning thread made them.
+	 */
+	void number(Drive drive){
+		if (drive.getNumber() < 0){
+			drive.setNumber(nextDriveNumber++);
 		}
 	}
+	
+	/**
+	 * Sets executor that Residents plan their Drives on, or <tt>null</tt> to have them plan one at a time on the thread advancing the city.
+	 * <p>
+	 * Residents plan in parallel only with one another, so <tt>Resident.planDrives</tt> must not change anything shared besides what's
+	 * safe to change from several threads, such as the city's <tt>RouteCache</tt>.
+	 * <p>
+	 * This doesn't shut down the executor when it's replaced.
+	 * @param executor ExecutorService or <tt>null</tt>
+	 */
+	public void setPlanningExecutor(ExecutorService executor){
+		this.planningExecutor = executor;
+	}
+	
+	public ExecutorService getPlanningExecutor(){
+		return planningExecutor;
+	}
+	
+	/**
+	 * Sets number of Residents that plan together in one task when planning in parallel.
+	 * @param batch int at least 1
+	 */
+	public void setPlanningBatch(int batch){
+		if (batch < 1) throw new IllegalArgumentException("Parameter batch must be at least 1.");
+		this.planningBatch = batch;
+	}
+	
+	public int getPlanningBatch(){
+		return planningBatch;
+	}
 		
 	/**
-	 * Returns Drives to start at or before <tt>time</tt>.
+	 * Returns Drives to start at or before <tt>time</tt>, in order of attempted start time.
 	 * <p>
 	 * May return empty Set if none are to be.
 	 * <p>
 	 * This method will not return Drives that are deemed to be logically invalid, where, for example, that a Resident attempts an impossible Drive.
+	 * <p>
+	 * A due Drive whose driver isn't at its starting point yet waits, and is looked at again the next time this is called, until its drop time
+	 * passes and it is dropped.
+	 * <p>
+	 * A due Drive whose route was planned on the current graph, but runs over Drivables that have since been taken out of it, is given a new
+	 * route, or dropped if its destination can no longer be reached.
 	 * @see Resident
-	 * @param time LocalDateTime that is the current time of the simulation
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> that is the current time of the simulation
 	 * @return Set of Drives to begin immediately
 	 */
-	public Set<Drive> surveyDrives(LocalDateTime time){
-		if (time == null) throw new IllegalArgumentException("Time cannot be null.");
-
-		List<Drive> up = new ArrayList<>(this.upcomingDrives);
- 
-		Collections.sort(up, new Comparator<Drive>() { 
-			@Override
-			public int compare(Drive o1, Drive o2) {
-				return o1.getAttemptStartTime().compareTo(o2.getAttemptStartTime());
-			}
-		});
+	public Set<Drive> surveyDrives(long time){
 
-		Set<Drive> starters = new HashSet<>();
-		// pseudo code for adding drives...
+		Set<Drive> starters = new LinkedHashSet<>();
 			
-		for (Drive d : up){
+		for (Drive d : upcomingDrives.pollDue(time)){
 			
-			if (d.getAttemptStartTime().isBefore(time) || d.getAttemptStartTime().isEqual(time)){
-				
-				// check that the driver can leave from the start location
-				if (d.getDriver().isAt(d.getOnPoint())){
-					starters.add(d);
-					upcomingDrives.remove(d);
-
-					LOGGER.info(d + " is validated and set to begin.");
-				} else if (time.isBefore(d.getDropTime())){
-					droppedDrives.add(d); // TODO: dump dropped drives at some point to improve memory
-					d.drop();
-					upcomingDrives.remove(d);
-					LOGGER.info(d + " is dropped.");
-				}
-				
+			// check that the driver can leave from the start location
+			if (d.getDriver().isAt(d.getOnPoint()) && hasRoute(d)){
+				starters.add(d);
+				city.getTracer().trace(Tracer.Event.BEGIN, time, d, d.getStart());
+			} else if (time >= d.getDropSecond() || d.getDriver().isAt(d.getOnPoint())){
+				d.drop();
+				city.getTracer().trace(Tracer.Event.DROP, time, d, d.getStart());
+				archive.retire(d);
 			} else {
-				break;
+				upcomingDrives.retry(d, time);
 			}
 		}
 		
 		return starters;
 	}
 	
+	/**
+	 * Returns true iff <tt>drive</tt> can still follow its route, giving it a new one if the current graph has changed under it.
+	 */
+	private boolean hasRoute(Drive drive){
+		DrivableGraph graph = city.getRoadGraph();
+		if (drive.getGraphPath().getGraph() != graph || drive.isRouteOn(graph)){
+			return true;
+		}
+		if (!(drive.getOnPoint() instanceof Location) || !(drive.getOffPoint() instanceof Location)){
+			return false;
+		}
+		GraphPath<Drivable, Drivable> path = city.getGraphManager().getRouteCache().getRoute((Location) drive.getOnPoint(), (Location) drive.getOffPoint());
+		return path != null && drive.reroute(path);
+	}
+	
+	/**
+	 * Returns archive that finished and dropped Drives are retired to.
+	 */
+	public DriveArchive getArchive(){
+		return archive;
+	}
+	
 	/**
 	 * Returns defensive copy of the Set of Residents.
 	 * @return defensive copy of the Set of Residents
@@ -119,6 +223,38 @@ public class ResidentManager {
 		return new HashSet<Resident>(this.residents);
 	}
 
+	/**
+	 * Returns defensive copy of the Drives planned but not yet started or dropped, in order of when they are next due.
+	 */
+	public List<Drive> getUpcomingDrives(){
+		return upcomingDrives.toList();
+	}
+
+	/**
+	 * Returns the schedule of upcoming Drives itself.
+	 */
+	DriveSchedule getSchedule(){
+		return upcomingDrives;
+	}
+	
+	/**
+	 * Returns defensive copy of the Residents, in the order they were added.
+	 */
+	List<Resident> getResidentsInOrder(){
+		return new ArrayList<>(residents);
+	}
+	
+	/**
+	 * Returns key for random choices last given to a Resident added here.
+	 */
+	long getLastRandomKey(){
+		return lastRandomKey;
+	}
+	
+	void setLastRandomKey(long key){
+		this.lastRandomKey = key;
+	}
+
 	/**
 	 * Force this manager to add a Drive.
 	 * <p>
@@ -126,15 +262,24 @@ public class ResidentManager {
 	 * @return
 	 */
 	public void addUpcomingDrive(Drive drive){
+		number(drive);
 		upcomingDrives.add(drive);		
 	}
 	
+	/**
+	 * Adds <tt>residents</tt> at their homes.
+	 * <p>
+	 * Each <tt>AbstractResident</tt> not already here is given the next key for drawing random choices from the city's <tt>RandomManager</tt>,
+	 * in the iteration order of <tt>residents</tt>.
+	 */
 	public void addResidents(Set<Resident> residents){
 		for (Resident rez : residents){
 			rez.getHome().addResident(rez);
 			rez.setCurrentLocation(rez.getHome());
+			if (this.residents.add(rez) && rez instanceof AbstractResident){
+				((AbstractResident) rez).setRandomKey(city.getRandomManager(), ++lastRandomKey);
+			}
 		}
-		this.residents.addAll(residents);
 	}
 	
 	public void removeResidents(Set<Resident> residents){
@@ -149,4 +294,30 @@ public class ResidentManager {
 		return this.residents.size();
 	}
 	
+	/**
+	 * Plans Drives for a batch of Residents in order.
+	 */
+	private static class PlanningTask implements Callable<List<Drive>> {
+		private final List<Resident> batch;
+		private final LocalDateTime time;
+		private final DrivableGraph graph;
+		private final LocalDateTime end;
+		
+		public PlanningTask(List<Resident> batch, LocalDateTime time, DrivableGraph graph, LocalDateTime end){
+			this.batch = batch;
+			this.time = time;
+			this.graph = graph;
+			this.end = end;
+		}
+		
+		@Override
+		public List<Drive> call(){
+			List<Drive> drives = new ArrayList<>();
+			for (Resident r : batch){
+				drives.addAll(r.planDrives(time, graph, time, end));
+			}
+			return drives;
+		}
+	}
+	
 }
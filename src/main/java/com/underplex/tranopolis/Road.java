@@ -1,12 +1,10 @@
 package com.underplex.tranopolis;
 
 import java.time.LocalDateTime;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Queue;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -22,7 +20,7 @@ import java.util.logging.Logger;
  * Note that Roads don't allow Drives to exit or enter the road network they're on.
  * @author Brandon Irvine, brandon@underplex.com
  */
-public class Road implements Drivable {
+public class Road extends AbstractDrivable {
 	
     private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 	
@@ -31,14 +29,18 @@ public class Road implements Drivable {
     protected final static double FOLLOW_SECONDS = 2.0; // the amount of time each car follows one another
     protected final static double DEFAULT_MAX_SPEED = 50;
     protected final static double MINIMUM_ROAD_LENGTH = AVERAGE_CAR_M * 5.0;
+    // due Etas of the Road flowing on each thread; a Road only ever hands Drives on to vertices, so one flow never runs inside another
+    private final static ThreadLocal<List<Eta>> DUE = ThreadLocal.withInitial(ArrayList::new);
     
 	private final List<Lot> segments; //ordered bunch of lots
 	private final Drivable source;
 	private final Drivable target;
 	private final Set<Drive> drives;
-	private final List<Eta> etas;
+	private final PriorityQueue<Eta> etas; // min-heap, so the earliest ETA is always at the head
+	private long etaCounter; // number of Etas ever made by this, used to break ties between equal ETAs
 	private final double length;
 	private final double maxSpeed; // speed limit in km/h
+	private int hash; // 0 until hashCode is first called; segments, source and target never change after construction
 
 	/**
 	 * Constructs a road.
@@ -57,10 +59,11 @@ public class Road implements Drivable {
 		this.target = target;
 		// order the segments according to the path they take from sourceXing to targetXing
 		this.segments = new ArrayList<>();
-		this.length = Math.min(lengthInM, MINIMUM_ROAD_LENGTH);
+		this.length = Math.max(lengthInM, MINIMUM_ROAD_LENGTH);
 		
 		this.maxSpeed = (double)maxSpeed;
-		this.etas = new ArrayList<Eta>();
+		this.etas = new PriorityQueue<Eta>();
+		this.etaCounter = 0;
 		this.drives = new HashSet<>();
 	}
 
@@ -112,56 +115,78 @@ public class Road implements Drivable {
 		return target;
 	}
 	
+	/**
+	 * Returns length of this in meters.
+	 */
+	public double getLength() {
+		return length;
+	}
+	
+	/**
+	 * Returns speed limit of this in km/h.
+	 */
+	public double getMaxSpeed() {
+		return maxSpeed;
+	}
+	
 	@Override
-	public Set<Drive> take(Queue<Drive> merging, LocalDateTime time) {
-		
-		Queue<Drive> pushing = new ArrayDeque<Drive>(merging);
+	public int take(DriveBatch merging, long time) {
+		if (merging == null) throw new IllegalArgumentException("Arguments to take method cannot be null.");
 		
-		while (canAdd(pushing.peek()) && pushing.size() > 0 ){
-			
-			Drive d = pushing.remove();
-			LOGGER.info(d + " is added to " + this);
+		// drives get on in order until there's no more room
+		int taken = 0;
+		while (taken < merging.size() && canAdd()){
+			Drive d = merging.get(taken);
+			d.getTracer().trace(Tracer.Event.ENTER, time, d, this);
 			this.drives.add(d);
-			Eta e = new Eta(d, time.plusSeconds(this.estimateTravelSeconds(d)));
+			d.moveTo(this);
+			Eta e = new Eta(d, time + this.estimateTravelSeconds(d), etaCounter++);
 			this.etas.add(e);
+			taken++;
+		}
+		merging.removeFirst(taken);
+		
+		if (taken > 0){
+			wake();
 		}
 		
-		return new HashSet<Drive>(pushing);
+		return taken;
 	}
 
 	@Override
-	public void flow(LocalDateTime time){
-
-		Queue<Drive> transfer = new ArrayDeque<Drive>();
+	public void flow(long time){
 
 		// assume that the earlier etas have precedence over later etas
 		// note that this doesn't assume that if you got on first you will get off first (b/c of passing)
-		Collections.sort(etas);
-		
-		for (int i = 0; i < this.etas.size(); i++){
-			if (etas.get(i).getTime().isBefore(time)){
-				transfer.add(etas.get(i).getDrive());
-			} else {
-				break;
-			}
+		if (etas.isEmpty() || etas.peek().getTime() >= time){
+			return;
 		}
 		
-		// deal with transfers... pass them to the xing
-		Set<Drive> rejected = this.target.take(new ArrayDeque<Drive>(transfer), time);
-		
-		transfer.removeAll(rejected); 
-		
-		Set<Eta> e = new HashSet<>();
-		for (Eta eta : this.etas){
-			if (transfer.contains(eta.getDrive()) ){
-				e.add(eta);
+		List<Eta> due = DUE.get();
+		DriveBatch transfer = DriveBatch.borrow();
+		try {
+			while (!etas.isEmpty() && etas.peek().getTime() < time){
+				Eta e = etas.poll();
+				due.add(e);
+				transfer.add(e.getDrive());
 			}
-		}
-		
-		// update lists of etas and drives
-		this.etas.removeAll(e);
-		for (Eta drive : e){
-			this.drives.remove(drive.getDrive());
+			
+			// deal with transfers... pass them to the xing, which leaves the rejected ones in the batch in order
+			this.target.take(transfer, time);
+			
+			// rejected drives keep their place on this road, the rest are gone
+			int rejected = 0;
+			for (Eta e : due){
+				if (rejected < transfer.size() && transfer.get(rejected) == e.getDrive()){
+					etas.add(e);
+					rejected++;
+				} else {
+					this.drives.remove(e.getDrive());
+				}
+			}
+		} finally {
+			due.clear();
+			transfer.release();
 		}
 	}
 
@@ -177,16 +202,48 @@ public class Road implements Drivable {
 	 * @return
 	 */
 	public long estimateTravelSeconds(Drive drive){
-		double n = (double)getDrives().size();
+		long s = Math.max(1L, Math.round(estimateTravelTime(drives.size())));
+		return s;
+	}
+	
+	/**
+	 * Returns number of seconds, not rounded, a Drive is expected to take to drive the length of this Road when there are <tt>occupancy</tt> Drives on it,
+	 * counting itself.
+	 * <p>
+	 * Drives are never assumed slower than the crawl of cars that are bumper to bumper, which is how fast they go if that many wouldn't fit.
+	 * @param occupancy int number of Drives on this, at least 1
+	 * @return double seconds
+	 */
+	public double estimateTravelTime(int occupancy){
+		double n = (double)Math.max(1, occupancy);
 		double d = length - AVERAGE_CAR_M; // default with 1-car case
 		if (n > 1.0){
 			d = (length - (n * AVERAGE_CAR_M))/(n - 1.0); // average distance between cars, leaving no room at ends
 		}
 		
 		double v = Math.min((d/Road.FOLLOW_SECONDS), maxSpeed/3.6); // v is m/s
-		
-		long s = Math.max((long)1, (long)Math.round(length/v));
-		return s;
+		v = Math.max(v, Road.MINIMUM_FOLLOW_M/Road.FOLLOW_SECONDS); // never slower than a crawl
+		return length/v;
+	}
+	
+	/**
+	 * Takes <tt>drive</tt> off this without passing it on, as when it is aborted. Returns true iff it was on this.
+	 * @param drive Drive to take off
+	 * @return true iff <tt>drive</tt> was on this
+	 */
+	boolean evict(Drive drive){
+		if (!drives.remove(drive)){
+			return false;
+		}
+		etas.removeIf(e -> e.getDrive() == drive);
+		return true;
+	}
+
+	/**
+	 * Returns number of Drives currently on this.
+	 */
+	public int getOccupancy(){
+		return drives.size();
 	}
 	
 	/**
@@ -197,19 +254,34 @@ public class Road implements Drivable {
 	public LocalDateTime getEta(Drive drive){
 		for (Eta e : etas){
 			if (e.getDrive().equals(drive)){
-				return (e.getTime());
+				return SimTime.toDateTime(e.getTime());
 			}
 		}
 		return null;
 	}
 	
+	/**
+	 * Returns the second after the earliest ETA on this Road, since <tt>flow</tt> only moves Drives whose ETA is strictly before the time it's given.
+	 */
+	@Override
+	public long getNextFlowTime(){
+		if (etas.isEmpty()){
+			return SimTime.NEVER;
+		}
+		return etas.peek().getTime() + 1;
+	}
+	
 	@Override
 	public int hashCode() {
+		if (hash != 0){
+			return hash;
+		}
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((segments == null) ? 0 : segments.hashCode());
 		result = prime * result + ((source == null) ? 0 : source.hashCode());
 		result = prime * result + ((target == null) ? 0 : target.hashCode());
+		hash = result;
 		return result;
 	}
 
@@ -222,6 +294,8 @@ public class Road implements Drivable {
 		if (getClass() != obj.getClass())
 			return false;
 		Road other = (Road) obj;
+		if (hashCode() != other.hashCode())
+			return false;
 		if (segments == null) {
 			if (other.segments != null)
 				return false;
@@ -245,33 +319,72 @@ public class Road implements Drivable {
 		return "Road from " + this.source + " to " + this.target;
 	}
 	
-	private class Eta implements Comparable<Eta>{
+	/**
+	 * Returns the ETAs of the Drives on this, earliest first.
+	 */
+	List<Eta> getEtas(){
+		List<Eta> list = new ArrayList<>(etas);
+		list.sort(null);
+		return list;
+	}
+	
+	/**
+	 * Returns number of Etas ever made by this, which orders Drives with equal ETAs.
+	 */
+	long getEtaCounter(){
+		return etaCounter;
+	}
+	
+	void setEtaCounter(long etaCounter){
+		this.etaCounter = etaCounter;
+	}
+	
+	/**
+	 * Puts <tt>drive</tt> back on this as it was when saved, due to leave at <tt>time</tt>.
+	 */
+	void restoreEta(Drive drive, long time, long sequence){
+		this.drives.add(drive);
+		this.etas.add(new Eta(drive, time, sequence));
+	}
+	
+	static class Eta implements Comparable<Eta>{
 		private final Drive drive;
-		private final LocalDateTime time;
+		private final long time;
+		private final long sequence;
 		
-		public Eta(Drive drive, LocalDateTime time) {
+		public Eta(Drive drive, long time, long sequence) {
 			super();
 			this.drive = drive;
 			this.time = time;
+			this.sequence = sequence;
 		}
 
 		public Drive getDrive() {
 			return drive;
 		}
 
-		public LocalDateTime getTime() {
+		public long getTime() {
 			
 			return time;
 		}
 
+		public long getSequence() {
+			return sequence;
+		}
+
 		@Override
 		public int compareTo(Eta other) {
 		
-			return this.getTime().compareTo(other.getTime());
+			int c = Long.compare(this.getTime(), other.getTime());
+			if (c == 0){
+				// equal ETAs leave in the order they came on
+				c = Long.compare(this.sequence, other.sequence);
+			}
+			return c;
 		}
 	
 		public String toString(){
-			return "Eta at " + this.time + " for " + this.drive;
+			return "Eta at " + SimTime.toDateTime(this.time) + " for " + this.drive;
 		}
 	}
 	
@@ -287,17 +400,10 @@ public class Road implements Drivable {
 	}
 	
 	/**
-	 * Returns true iff drive != null and this Road can add drive to the road.
-	 * @param drive
-	 * @return
+	 * Returns true iff this Road has room for one more Drive.
 	 */
-	private boolean canAdd(Drive drive){
-		if (drive != null){
-			double l = (Road.MINIMUM_FOLLOW_M + Road.AVERAGE_CAR_M) * (double)this.getDrives().size();
-			if (Road.AVERAGE_CAR_M + l < this.length){
-				return true;
-			}
-		}
-		return false;
+	private boolean canAdd(){
+		double l = (Road.MINIMUM_FOLLOW_M + Road.AVERAGE_CAR_M) * (double)this.drives.size();
+		return Road.AVERAGE_CAR_M + l < this.length;
 	}
 }
@@ -0,0 +1,323 @@
+package com.underplex.tranopolis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.jgrapht.GraphPath;
+
+/**
+ * City-wide cache of fastest paths between pairs of Locations, shared by all Residents.
+ * <p>
+ * Paths are found by a <tt>Router</tt> over the <tt>CompactGraph</tt> of the <tt>DrivableGraphManager</tt> that owns this, with edges weighed
+ * in seconds by road length, speed limit, and how many Drives are on each Road. The weights are taken as of the current time of the city
+ * when a path is first asked for, and taken again once <tt>getReweighSeconds</tt> have passed, dropping the paths found with the old ones. If
+ * the manager is using contraction hierarchies, a hierarchy is built over each new set of weights and paths are found with it instead.
+ * <p>
+ * Paths are keyed by origin and destination. The manager clears this whenever it finds the whole graph again, but when only a few Lots
+ * change it keeps the paths, and each is checked against the new graph the next time it is asked for: a path still on it is used as it is,
+ * while one over Drivables taken out, or a pair that had none, is searched for again. Until the next weighing, searches on the changed graph
+ * use weights taken at the same time as before, without a hierarchy.
+ * <p>
+ * The number of paths kept is bounded; when it is full, the least recently used path is dropped.
+ * <p>
+ * Paths returned are shared between everyone asking for the same pair, so they must not be changed.
+ * <p>
+ * Safe to use from several threads. Only looking a pair up and keeping its path are done holding the lock of this; the search itself is done
+ * outside it by the first thread to ask for the pair, on a <tt>Router</tt> of its own, while any others asking for the same pair wait for it.
+ */
+public class RouteCache {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final long DEFAULT_REWEIGH_SECONDS = 15L * 60L;
+
+	private final DrivableGraphManager manager;
+	private final int capacity;
+	private final LinkedHashMap<Key, Route> routes;
+	private long hits;
+	private long misses;
+	private long reweighSeconds;
+	private Weighing weighing; // that the paths kept were found with, or null if the graph hasn't been weighed yet
+
+	/**
+	 * Constructor.
+	 * @param manager DrivableGraphManager whose current graph paths are found on
+	 * @param capacity int maximum number of paths kept, at least 1
+	 */
+	public RouteCache(DrivableGraphManager manager, int capacity){
+		if (manager == null) throw new IllegalArgumentException("Parameter manager may not be null.");
+		if (capacity < 1) throw new IllegalArgumentException("Parameter capacity must be at least 1.");
+		this.manager = manager;
+		this.capacity = capacity;
+		this.routes = new LinkedHashMap<Key, Route>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Route> eldest){
+				return size() > RouteCache.this.capacity;
+			}
+		};
+		this.hits = 0;
+		this.misses = 0;
+		this.reweighSeconds = DEFAULT_REWEIGH_SECONDS;
+		this.weighing = null;
+	}
+
+	public RouteCache(DrivableGraphManager manager){
+		this(manager, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Returns fastest path from <tt>origin</tt> to <tt>destination</tt> on the current graph, or <tt>null</tt> if there is none.
+	 * <p>
+	 * Returns <tt>null</tt> if the graph hasn't been set yet or either Location isn't part of it.
+	 * @param origin Location to start at
+	 * @param destination Location to end at
+	 * @return shared <tt>GraphPath</tt> weighed in seconds, or <tt>null</tt>
+	 */
+	public GraphPath<Drivable, Drivable> getRoute(Location origin, Location destination){
+		if (origin == null) throw new IllegalArgumentException("Parameter origin may not be null.");
+		if (destination == null) throw new IllegalArgumentException("Parameter destination may not be null.");
+
+		Key key;
+		FutureTask<GraphPath<Drivable, Drivable>> task;
+		boolean searching = false;
+		synchronized (this){
+			CompactGraph graph = manager.getCompactGraph();
+			if (graph == null || graph.vertexId(origin) < 0 || graph.vertexId(destination) < 0){
+				return null;
+			}
+			Weighing current = weigh(graph);
+			key = new Key(origin, destination);
+			Route route = routes.get(key);
+			if (route != null && route.version != graph.getVersion() && !route.isOn(graph)){
+				route = null;
+			}
+			if (route != null){
+				hits++;
+				route.version = graph.getVersion();
+				task = route.task;
+			} else {
+				misses++;
+				task = new FutureTask<>(() -> current.find(origin, destination));
+				routes.put(key, new Route(task, graph.getVersion()));
+				searching = true;
+			}
+		}
+
+		if (searching){
+			task.run();
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a route to be found.", e);
+		} catch (ExecutionException e) {
+			synchronized (this){
+				// so that the next one asking searches again
+				Route route = routes.get(key);
+				if (route != null && route.task == task){
+					routes.remove(key);
+				}
+			}
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Finding a route failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * Returns weighing of <tt>graph</tt> as of the current time of the city, weighing it again if it hasn't been weighed for it yet, or was
+	 * weighed too long ago, and dropping the paths found with the old weights.
+	 * <p>
+	 * A snapshot taken after a few Lots of the same graph changed is weighed as of the same time as the one before it, keeping the paths. Every
+	 * edge is still weighed again, and the hierarchy is dropped until the next weighing, so searches until then go over the whole graph.
+	 */
+	private Weighing weigh(CompactGraph graph){
+		long time = manager.getCity().getTimeManager().getCurrentSecond();
+		boolean fresh = weighing != null && time >= weighing.time && time < weighing.time + reweighSeconds;
+		if (fresh && weighing.graph == graph){
+			return weighing;
+		}
+		if (fresh && weighing.graph.getGraph() == graph.getGraph() && weighing.graph.getVersion() < graph.getVersion()){
+			// a hierarchy waits for the next weighing, since building one costs far more than the searches until then
+			weighing = new Weighing(graph, weighing.time, false);
+			return weighing;
+		}
+		routes.clear();
+		weighing = new Weighing(graph, time, manager.isUsingHierarchy());
+		return weighing;
+	}
+
+	/**
+	 * Returns contraction hierarchy that paths are found with now, weighing the edges first if need be, or <tt>null</tt> if the manager
+	 * isn't using hierarchies, the graph hasn't been set yet, or Lots have changed since the edges were last weighed.
+	 */
+	public synchronized ContractionHierarchy getHierarchy(){
+		CompactGraph graph = manager.getCompactGraph();
+		if (graph == null || !manager.isUsingHierarchy()){
+			return null;
+		}
+		return weigh(graph).hierarchy;
+	}
+
+	/**
+	 * Returns number of seconds that edges are weighed for before they're weighed again.
+	 */
+	public synchronized long getReweighSeconds(){
+		return reweighSeconds;
+	}
+
+	/**
+	 * Sets number of seconds that edges are weighed for before they're weighed again, and the paths found with them dropped.
+	 * @param reweighSeconds long at least 1
+	 */
+	public synchronized void setReweighSeconds(long reweighSeconds){
+		if (reweighSeconds < 1) throw new IllegalArgumentException("Parameter reweighSeconds must be at least 1.");
+		this.reweighSeconds = reweighSeconds;
+	}
+
+	/**
+	 * Drops all cached paths, along with the weights they were found with.
+	 */
+	public synchronized void clear(){
+		routes.clear();
+		weighing = null;
+	}
+
+	/**
+	 * Returns number of paths currently kept, including pairs found to have no path.
+	 */
+	public synchronized int size(){
+		return routes.size();
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * Returns number of requests answered from the cache since this was made.
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/**
+	 * Returns number of requests that needed a search since this was made.
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	/**
+	 * Edges of a graph weighed as of one time, along with Routers searching over those weights that aren't in use.
+	 */
+	private static class Weighing {
+		private final CompactGraph graph;
+		private final long time;
+		private final Router weighed; // only ever copied, never searched with
+		private final ContractionHierarchy hierarchy; // over the same weights, or null if not using hierarchies
+		private final ConcurrentLinkedQueue<Router> idle;
+
+		public Weighing(CompactGraph graph, long time, boolean usingHierarchy){
+			this.graph = graph;
+			this.time = time;
+			this.weighed = new Router(graph, time);
+			this.idle = new ConcurrentLinkedQueue<>();
+			if (usingHierarchy){
+				double[] weights = new double[graph.getEdgeCount()];
+				for (int e = 0; e < weights.length; e++){
+					weights[e] = weighed.getWeight(e);
+				}
+				this.hierarchy = new ContractionHierarchy(graph, weights);
+			} else {
+				this.hierarchy = null;
+			}
+		}
+
+		public GraphPath<Drivable, Drivable> find(Location origin, Location destination){
+			if (hierarchy != null){
+				return hierarchy.findShortestPath(origin, destination);
+			}
+			// one Router for each thread searching at once, kept for the next search
+			Router router = idle.poll();
+			if (router == null){
+				router = new Router(weighed);
+			}
+			try {
+				return router.findRoute(origin, destination);
+			} finally {
+				idle.offer(router);
+			}
+		}
+	}
+
+	/**
+	 * Search for a path, and the version of the graph it was last known to be on.
+	 */
+	private static class Route {
+		private final FutureTask<GraphPath<Drivable, Drivable>> task;
+		private int version;
+
+		public Route(FutureTask<GraphPath<Drivable, Drivable>> task, int version){
+			this.task = task;
+			this.version = version;
+		}
+
+		/**
+		 * Returns true iff the search is done and found a path every edge of which is on <tt>graph</tt>.
+		 */
+		public boolean isOn(CompactGraph graph){
+			if (!task.isDone()){
+				return false;
+			}
+			GraphPath<Drivable, Drivable> path;
+			try {
+				path = task.get();
+			} catch (InterruptedException | ExecutionException e) {
+				return false;
+			}
+			if (path == null){
+				return false;
+			}
+			for (Drivable edge : path.getEdgeList()){
+				if (graph.edgeId(edge) < 0){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class Key {
+		private final Location origin;
+		private final Location destination;
+		private final int hash;
+
+		public Key(Location origin, Location destination){
+			this.origin = origin;
+			this.destination = destination;
+			this.hash = 31 * (31 + origin.hashCode()) + destination.hashCode();
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj){
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return origin.equals(other.origin) && destination.equals(other.destination);
+		}
+	}
+}
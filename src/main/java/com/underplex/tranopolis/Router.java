@@ -0,0 +1,227 @@
+package com.underplex.tranopolis;
+
+import org.jgrapht.GraphPath;
+
+/**
+ * Finds fastest routes over a <tt>CompactGraph</tt>, weighing edges by <tt>TravelTimes</tt> as of the last call to <tt>update</tt>.
+ * <p>
+ * Searches use A* with a heuristic of the Manhattan distance between the Lots of Xings. The heuristic is scaled by the fastest any stretch of the
+ * network can be crossed under the current weights, so it never overestimates and routes are as fast as the ones Dijkstra's algorithm would find.
+ * <p>
+ * Edge weights are computed once per update rather than once per search, so many routes can be found for the same moment cheaply.
+ * <p>
+ * Instances are not thread-safe, since searches reuse the same working arrays; routers copied from one another can search side by side.
+ */
+public class Router {
+
+	private final CompactGraph graph;
+	private final TravelTimes times;
+	private final double[] weights; // seconds by edge id
+	private final int[] lotX; // x coordinate of the Lot of each Xing by vertex id, or -1 for other vertices
+	private final int[] lotY;
+	private double secondsPerLot; // lower bound on seconds to travel one Lot of Manhattan distance
+	private long time;
+
+	// working arrays, valid for a vertex only when its stamp equals the current search
+	private final double[] distance;
+	private final int[] via;
+	private final int[] stamp;
+	private int search;
+	private final MinHeap heap;
+	private final int[] targets;
+
+	/**
+	 * Constructor, which weighs edges as of <tt>time</tt>.
+	 * @param graph CompactGraph to route over
+	 * @param times TravelTimes to weigh edges with
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt>
+	 */
+	public Router(CompactGraph graph, TravelTimes times, long time){
+		if (graph == null) throw new IllegalArgumentException("Parameter graph may not be null.");
+		if (times == null) throw new IllegalArgumentException("Parameter times may not be null.");
+		this.graph = graph;
+		this.times = times;
+		int n = graph.getVertexCount();
+		this.weights = new double[graph.getEdgeCount()];
+		this.lotX = new int[n];
+		this.lotY = new int[n];
+		for (int v = 0; v < n; v++){
+			Drivable d = graph.getVertex(v);
+			if (d instanceof Xing){
+				lotX[v] = ((Xing) d).getLot().getX();
+				lotY[v] = ((Xing) d).getLot().getY();
+			} else {
+				lotX[v] = -1;
+				lotY[v] = -1;
+			}
+		}
+		this.distance = new double[n];
+		this.via = new int[n];
+		this.stamp = new int[n];
+		this.search = 0;
+		this.heap = new MinHeap(n);
+		this.targets = new int[n];
+		update(time);
+	}
+
+	public Router(CompactGraph graph, long time){
+		this(graph, new CurrentTravelTimes(), time);
+	}
+
+	/**
+	 * Constructor of a router over the same graph as <tt>other</tt> with the same weights, which can search while <tt>other</tt> does.
+	 * <p>
+	 * The weights are copied, so updating either one later doesn't change the other.
+	 * @param other Router to copy
+	 */
+	public Router(Router other){
+		if (other == null) throw new IllegalArgumentException("Parameter other may not be null.");
+		this.graph = other.graph;
+		this.times = other.times;
+		this.weights = other.weights.clone();
+		this.lotX = other.lotX;
+		this.lotY = other.lotY;
+		this.secondsPerLot = other.secondsPerLot;
+		this.time = other.time;
+		int n = graph.getVertexCount();
+		this.distance = new double[n];
+		this.via = new int[n];
+		this.stamp = new int[n];
+		this.search = 0;
+		this.heap = new MinHeap(n);
+		this.targets = new int[n];
+	}
+
+	/**
+	 * Weighs all edges again as of <tt>time</tt>.
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt>
+	 */
+	public void update(long time){
+		this.time = time;
+		for (int e = 0; e < weights.length; e++){
+			weights[e] = times.getTravelSeconds(graph, e, time);
+		}
+
+		// the heuristic must not be steeper than any edge between Xings, or any pass through a Location from one Xing to another
+		double scale = Double.POSITIVE_INFINITY;
+		for (int e = 0; e < weights.length; e++){
+			int m = manhattan(graph.getEdgeSource(e), graph.getEdgeTarget(e));
+			if (m > 0){
+				scale = Math.min(scale, weights[e] / m);
+			}
+		}
+		for (int v = 0; v < graph.getVertexCount(); v++){
+			if (lotX[v] >= 0){
+				continue;
+			}
+			for (int i = graph.getInStart(v); i < graph.getInEnd(v); i++){
+				int in = graph.getInEdge(i);
+				for (int j = graph.getOutStart(v); j < graph.getOutEnd(v); j++){
+					int out = graph.getOutEdge(j);
+					int m = manhattan(graph.getEdgeSource(in), graph.getEdgeTarget(out));
+					if (m > 0){
+						scale = Math.min(scale, (weights[in] + weights[out]) / m);
+					}
+				}
+			}
+		}
+		this.secondsPerLot = (scale == Double.POSITIVE_INFINITY) ? 0.0 : scale;
+	}
+
+	/**
+	 * Returns fastest route from <tt>from</tt> to <tt>to</tt> weighted in seconds, or <tt>null</tt> if there is none.
+	 * @param from Drivable vertex to start at
+	 * @param to Drivable vertex to end at
+	 * @return fastest <tt>GraphPath</tt> or <tt>null</tt>
+	 */
+	public GraphPath<Drivable, Drivable> findRoute(Drivable from, Drivable to){
+		int source = graph.vertexId(from);
+		int target = graph.vertexId(to);
+		if (source < 0 || target < 0){
+			throw new IllegalArgumentException("Both ends of a route must be vertices of the graph.");
+		}
+		if (source == target){
+			return null;
+		}
+
+		// aim at the Xings that lead into the target if it has no Lot of its own
+		int targetCount = 0;
+		if (lotX[target] >= 0){
+			targets[targetCount++] = target;
+		} else {
+			for (int i = graph.getInStart(target); i < graph.getInEnd(target); i++){
+				int u = graph.getEdgeSource(graph.getInEdge(i));
+				if (lotX[u] >= 0){
+					targets[targetCount++] = u;
+				}
+			}
+		}
+
+		search++;
+		heap.clear();
+		visit(source, 0.0, -1);
+		heap.offer(source, estimate(source, targetCount));
+		while (!heap.isEmpty()){
+			int v = heap.poll();
+			if (v == target){
+				return graph.makePath(source, target, via, distance[target]);
+			}
+			for (int i = graph.getOutStart(v); i < graph.getOutEnd(v); i++){
+				int e = graph.getOutEdge(i);
+				int w = graph.getEdgeTarget(e);
+				double d = distance[v] + weights[e];
+				if (stamp[w] != search || d < distance[w]){
+					visit(w, d, e);
+					// vertices already taken out are put back, since the heuristic is admissible but not always consistent
+					heap.offer(w, d + estimate(w, targetCount));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns weight in seconds of edge as of the last update.
+	 */
+	public double getWeight(int edgeId){
+		return weights[edgeId];
+	}
+
+	/**
+	 * Returns time the edges were last weighed for, in seconds since <tt>City.DEFAULT_START</tt>.
+	 */
+	public long getTime(){
+		return time;
+	}
+
+	public CompactGraph getGraph(){
+		return graph;
+	}
+
+	private void visit(int v, double d, int edge){
+		stamp[v] = search;
+		distance[v] = d;
+		via[v] = edge;
+	}
+
+	private double estimate(int v, int targetCount){
+		if (lotX[v] < 0 || targetCount == 0){
+			return 0.0;
+		}
+		int best = Integer.MAX_VALUE;
+		for (int i = 0; i < targetCount; i++){
+			best = Math.min(best, manhattan(v, targets[i]));
+		}
+		return best * secondsPerLot;
+	}
+
+	/**
+	 * Returns Manhattan distance in Lots between two vertices, or 0 if either isn't an Xing.
+	 */
+	private int manhattan(int u, int v){
+		if (lotX[u] < 0 || lotX[v] < 0){
+			return 0;
+		}
+		return Math.abs(lotX[u] - lotX[v]) + Math.abs(lotY[u] - lotY[v]);
+	}
+}
@@ -0,0 +1,47 @@
+package com.underplex.tranopolis;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Utility class for the primitive clock used inside the simulation.
+ * <p>
+ * Simulation time is kept as a <tt>long</tt> number of seconds since <tt>City.DEFAULT_START</tt>, so that comparing and adding times in the traffic
+ * network never allocates. <tt>LocalDateTime</tt> is only used at the edges, where time is handed to or received from callers.
+ */
+public class SimTime {
+
+	/**
+	 * Stands for a time that never comes, such as the end of a Drive that hasn't ended or the next flow of a Drivable with no Drives.
+	 * <p>
+	 * Since it's later than any other time, it sorts last.
+	 */
+	public static final long NEVER = Long.MAX_VALUE;
+	
+	private static final long EPOCH_SECOND = City.DEFAULT_START.toEpochSecond(ZoneOffset.UTC);
+	
+	private SimTime(){
+		// don't instantiate
+	}
+	
+	/**
+	 * Returns number of seconds between <tt>City.DEFAULT_START</tt> and <tt>time</tt>, ignoring fractions of a second.
+	 * @param time LocalDateTime to convert; cannot be null
+	 * @return long seconds since <tt>City.DEFAULT_START</tt>, which may be negative
+	 */
+	public static long toSeconds(LocalDateTime time){
+		return time.toEpochSecond(ZoneOffset.UTC) - EPOCH_SECOND;
+	}
+	
+	/**
+	 * Returns LocalDateTime that is <tt>seconds</tt> after <tt>City.DEFAULT_START</tt>, or <tt>null</tt> if <tt>seconds</tt> is <tt>NEVER</tt>.
+	 * @param seconds long seconds since <tt>City.DEFAULT_START</tt>
+	 * @return LocalDateTime represented by <tt>seconds</tt>
+	 */
+	public static LocalDateTime toDateTime(long seconds){
+		if (seconds == NEVER){
+			return null;
+		}
+		return LocalDateTime.ofEpochSecond(seconds + EPOCH_SECOND, 0, ZoneOffset.UTC);
+	}
+}
@@ -1,6 +1,5 @@
 package com.underplex.tranopolis;
 
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -41,7 +40,7 @@ public class Tabulator {
 						
 		DriveCount driveCount = new DriveCount();
 		driveCount.setTime(timeString);
-		driveCount.setFinishedDrives(city.getLocationManager().getFinishedDrives().size());				
+		driveCount.setFinishedDrives(city.getLocationManager().getFinishedCount());				
 		driveCount.setDayOfWeek(city.getTimeManager().getCurrentTime().getDayOfWeek().toString());
 		driveCounts.add(driveCount);
 				
@@ -77,11 +76,8 @@ public class Tabulator {
 			locationCount.setNumberOfResidents(lc.getResidents().size());
 			locationCount.setLocation(lc.toString());
 			
-			int lengthSum = 0;
-			for (Drive ld : lc.getFinishedDrives()){
-				lengthSum += ChronoUnit.SECONDS.between(ld.getActualStartTime(),ld.getActualEndTime());
-			}
-			int n = lc.getFinishedDrives().size();
+			long lengthSum = lc.getFinishedSeconds();
+			int n = lc.getFinishedCount();
 			if (n > 0){
 				locationCount.setAverageDriveTime((double)lengthSum/(double)n);
 			} else {
@@ -12,13 +12,13 @@ public class TimeManager {
 
     private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 
-	private LocalDateTime current;
+	private long current; // seconds since City.DEFAULT_START
 	private final City city;
 	private final long period;
 	
 	public TimeManager(City city, LocalDateTime start, long period){
 		this.city = city;
-		this.current = start;
+		this.current = SimTime.toSeconds(start);
 		this.period = period;
 	}
 
@@ -29,12 +29,20 @@ public class TimeManager {
 	 * @return the time
 	 */
 	public LocalDateTime getCurrentTime() {
+		return SimTime.toDateTime(current);
+	}
+	
+	/**
+	 * Returns the current time as seconds since <tt>City.DEFAULT_START</tt>.
+	 * @see SimTime
+	 */
+	public long getCurrentSecond() {
 		return current;
 	}
 	
 	public void advanceSeconds(long seconds){
 		
-		this.current = this.current.plusSeconds(seconds);
+		this.current = this.current + seconds;
 		// LOGGER.info("Time advanced by " + seconds + " second(s), is now " + current);
 	}
 	
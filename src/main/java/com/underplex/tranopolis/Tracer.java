@@ -0,0 +1,281 @@
+package com.underplex.tranopolis;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Fixed-size ring of events in the lives of Drives, for debugging traffic without paying for logging while nothing is traced.
+ * <p>
+ * Each event is kept as its time, its kind, the number of the Drive and the graph index of the Drivable it happened at, so tracing doesn't make
+ * any objects or strings. Events are only kept for Drives or Drivables that have been asked to be traced, or for everything if
+ * <tt>setTracingAll</tt> is on; when nothing is, tracing is a single check. Once full, the oldest events are overwritten.
+ * <p>
+ * Each City has its own Tracer, returned by <tt>City.getTracer</tt>, since Drive numbers and graph indices only mean something within one
+ * city. Only Drives numbered up to <tt>Integer.MAX_VALUE</tt> can be traced one by one; later ones are still traced at traced Drivables or
+ * when tracing all.
+ * <p>
+ * Threads flowing regions of the graph side by side each trace into a <tt>Log</tt> of their own, which the thread advancing the city keeps
+ * region by region once they are all done, so events come out in the same order however the threads were scheduled.
+ * @see Drive#getNumber()
+ * @see Drivable#getGraphIndex()
+ */
+public class Tracer {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16; // number of events kept
+
+	/**
+	 * Kinds of events traced.
+	 */
+	public enum Event {
+		PLAN, // Drive is planned, at its start
+		BEGIN, // Drive is set to begin, at its start
+		DROP, // Drive is dropped, at its start
+		ENTER, // Drive is taken onto a Drivable
+		TURN, // Drive attempts to turn onto a Drivable
+		FINISH, // Drive finishes, at its end
+		ABORT // Drive is aborted, at the Drivable it was on
+	}
+
+	private static final Event[] EVENTS = Event.values();
+
+	private final int capacity;
+	private final long[] times;
+	private final byte[] events;
+	private final long[] drives;
+	private final int[] drivables;
+	private long count; // number of events ever traced
+	private final BitSet tracedDrives; // by Drive number
+	private final BitSet tracedDrivables; // by graph index
+	private boolean tracingAll;
+	private volatile boolean enabled; // true iff anything at all is traced
+	private final ThreadLocal<Log> deferring; // where events traced on a thread flowing a region wait, if anywhere
+
+	/**
+	 * Constructor.
+	 * @param capacity int number of events kept, at least 1
+	 */
+	public Tracer(int capacity){
+		if (capacity < 1) throw new IllegalArgumentException("Parameter capacity must be at least 1.");
+		this.capacity = capacity;
+		this.times = new long[capacity];
+		this.events = new byte[capacity];
+		this.drives = new long[capacity];
+		this.drivables = new int[capacity];
+		this.count = 0;
+		this.tracedDrives = new BitSet();
+		this.tracedDrivables = new BitSet();
+		this.tracingAll = false;
+		this.enabled = false;
+		this.deferring = new ThreadLocal<>();
+	}
+
+	/**
+	 * Keeps <tt>event</tt> if <tt>drive</tt> or <tt>at</tt> is traced.
+	 * @param event Event that happened
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> it happened at
+	 * @param drive Drive it happened to
+	 * @param at Drivable it happened at
+	 */
+	public void trace(Event event, long time, Drive drive, Drivable at){
+		if (!enabled){
+			return;
+		}
+		Log log = deferring.get();
+		if (log != null){
+			log.add(event, time, drive.getNumber(), at.getGraphIndex());
+		} else {
+			record(event, time, drive.getNumber(), at.getGraphIndex());
+		}
+	}
+
+	/**
+	 * Makes events traced on the current thread wait in <tt>log</tt> until they are kept with <tt>apply</tt>, or, if <tt>log</tt> is
+	 * <tt>null</tt>, keeps them straight away again.
+	 */
+	void defer(Log log){
+		if (log == null){
+			deferring.remove();
+		} else {
+			deferring.set(log);
+		}
+	}
+
+	/**
+	 * Keeps the events waiting in <tt>log</tt> that are traced, in the order they happened, and empties it.
+	 */
+	synchronized void apply(Log log){
+		for (int i = 0; i < log.size; i++){
+			record(EVENTS[log.events[i]], log.times[i], log.drives[i], log.drivables[i]);
+		}
+		log.size = 0;
+	}
+
+	private synchronized void record(Event event, long time, long drive, int drivable){
+		if (!tracingAll && !(isTraceable(drive) && tracedDrives.get((int) drive)) && (drivable < 0 || !tracedDrivables.get(drivable))){
+			return;
+		}
+		int i = (int)(count % capacity);
+		times[i] = time;
+		events[i] = (byte) event.ordinal();
+		drives[i] = drive;
+		drivables[i] = drivable;
+		count++;
+	}
+
+	/**
+	 * Starts or stops tracing events of <tt>drive</tt>, which must have been numbered by being scheduled.
+	 */
+	public synchronized void setTraced(Drive drive, boolean traced){
+		if (drive == null) throw new IllegalArgumentException("Parameter drive may not be null.");
+		if (!isTraceable(drive.getNumber())) throw new IllegalArgumentException("Only Drives numbered from 0 to Integer.MAX_VALUE can be traced.");
+		tracedDrives.set((int) drive.getNumber(), traced);
+		refresh();
+	}
+
+	/**
+	 * Starts or stops tracing events at <tt>drivable</tt>, which must have been indexed by a <tt>DrivableGraph</tt>.
+	 */
+	public synchronized void setTraced(Drivable drivable, boolean traced){
+		if (drivable == null) throw new IllegalArgumentException("Parameter drivable may not be null.");
+		if (drivable.getGraphIndex() < 0) throw new IllegalArgumentException("Only Drivables indexed by a graph can be traced.");
+		tracedDrivables.set(drivable.getGraphIndex(), traced);
+		refresh();
+	}
+
+	/**
+	 * Starts or stops tracing events of every Drive.
+	 */
+	public synchronized void setTracingAll(boolean tracingAll){
+		this.tracingAll = tracingAll;
+		refresh();
+	}
+
+	/**
+	 * Stops tracing anything and forgets all events kept.
+	 */
+	public synchronized void reset(){
+		tracedDrives.clear();
+		tracedDrivables.clear();
+		tracingAll = false;
+		count = 0;
+		refresh();
+	}
+
+	/**
+	 * Returns true iff any events are being traced.
+	 */
+	public boolean isEnabled(){
+		return enabled;
+	}
+
+	/**
+	 * Returns number of events kept, which is at most the capacity.
+	 */
+	public synchronized int size(){
+		return (int)Math.min(count, capacity);
+	}
+
+	/**
+	 * Returns number of events traced since this was made or reset, including those overwritten.
+	 */
+	public synchronized long getCount(){
+		return count;
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * Returns kind of kept event <tt>i</tt>, counting from 0 as the oldest.
+	 */
+	public synchronized Event getEvent(int i){
+		return EVENTS[events[slot(i)]];
+	}
+
+	public synchronized long getTime(int i){
+		return times[slot(i)];
+	}
+
+	/**
+	 * Returns number of the Drive of kept event <tt>i</tt>.
+	 */
+	public synchronized long getDrive(int i){
+		return drives[slot(i)];
+	}
+
+	/**
+	 * Returns graph index of the Drivable of kept event <tt>i</tt>, or -1 if it had none.
+	 */
+	public synchronized int getDrivable(int i){
+		return drivables[slot(i)];
+	}
+
+	/**
+	 * Writes all events kept to <tt>out</tt>, oldest first and one per line.
+	 * @param out Appendable to write to
+	 * @throws IOException if <tt>out</tt> can't be written to
+	 */
+	public synchronized void dump(Appendable out) throws IOException {
+		int n = size();
+		for (int i = 0; i < n; i++){
+			int s = slot(i);
+			out.append(SimTime.toDateTime(times[s]).toString())
+				.append(' ').append(EVENTS[events[s]].name())
+				.append(" drive ").append(Long.toString(drives[s]))
+				.append(" at ").append(Integer.toString(drivables[s]))
+				.append(System.lineSeparator());
+		}
+	}
+
+	private int slot(int i){
+		int n = size();
+		if (i < 0 || i >= n) throw new IndexOutOfBoundsException("No event " + i + " among " + n + " kept.");
+		return (int)((count - n + i) % capacity);
+	}
+
+	/**
+	 * Returns true iff a Drive numbered <tt>drive</tt> has a place in <tt>tracedDrives</tt>.
+	 */
+	private static boolean isTraceable(long drive){
+		return drive >= 0 && drive <= Integer.MAX_VALUE;
+	}
+
+	private void refresh(){
+		enabled = tracingAll || !tracedDrives.isEmpty() || !tracedDrivables.isEmpty();
+	}
+
+	/**
+	 * Events traced on one thread, waiting to be kept in order with those of others.
+	 */
+	static class Log {
+		private long[] times;
+		private byte[] events;
+		private long[] drives;
+		private int[] drivables;
+		private int size;
+
+		Log(){
+			this.times = new long[16];
+			this.events = new byte[16];
+			this.drives = new long[16];
+			this.drivables = new int[16];
+			this.size = 0;
+		}
+
+		private void add(Event event, long time, long drive, int drivable){
+			if (size == times.length){
+				times = Arrays.copyOf(times, size * 2);
+				events = Arrays.copyOf(events, size * 2);
+				drives = Arrays.copyOf(drives, size * 2);
+				drivables = Arrays.copyOf(drivables, size * 2);
+			}
+			times[size] = time;
+			events[size] = (byte) event.ordinal();
+			drives[size] = drive;
+			drivables[size] = drivable;
+			size++;
+		}
+	}
+}
@@ -1,14 +1,17 @@
 package com.underplex.tranopolis;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 public class TrafficManager {
@@ -18,14 +21,32 @@ public class TrafficManager {
 	private final City city;
 	private final Map<Resident, Drive> upcoming;
 	private final Comparator<Drive> sorter;
+	private FlowMode mode;
+	private EventScheduler events;
+	private CompactGraph scheduledGraph; // graph whose Drivables report to events, stepOrder or partition
+	private ExecutorService flowExecutor;
+	private int flowRegions;
+	private FlowPartition partition; // of scheduledGraph in FlowMode.PARTITIONED
+	private FlowOrder stepOrder; // of scheduledGraph in FlowMode.FIXED_STEP
+	private final List<Tracer.Log> regionTraces; // events traced by each region flowing on a thread of its own, until kept in region order
+	private final List<List<Drive>> regionRetired; // Drives retired by each region flowing on a thread of its own, until recorded in region order
 		
 	public TrafficManager(City city) {
 		this.city = city;
+		this.mode = FlowMode.FIXED_STEP;
+		this.events = null;
+		this.scheduledGraph = null;
+		this.flowExecutor = null;
+		this.regionTraces = new ArrayList<>();
+		this.regionRetired = new ArrayList<>();
+		this.flowRegions = 4;
+		this.partition = null;
+		this.stepOrder = null;
 		this.sorter = new Comparator<Drive>() 
 			{
 			@Override
 			public int compare(Drive arg0, Drive arg1) {
-				return arg0.getAttemptStartTime().compareTo(arg1.getAttemptStartTime());
+				return Long.compare(arg0.getAttemptStartSecond(), arg1.getAttemptStartSecond());
 			}
 			
 		};
@@ -39,10 +60,19 @@ public class TrafficManager {
 	 * This includes adding Drives to the network because they are scheduled to begin or were already scheduled to begin.
 	 * <p>
 	 * Drives passed are assumed to be legal and valid.
-	 * @param time LocalDateTime representing time being moved forward to
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt> representing time being moved forward to
 	 * @param beginngers Set of Drives that are due to begin
 	 */
-	public void forward(LocalDateTime time, Set<Drive> beginners){
+	public void forward(long time, Set<Drive> beginners){
+		
+		if (mode == FlowMode.EVENT_DRIVEN){
+			forwardEvents(time, beginners);
+			return;
+		}
+		if (mode == FlowMode.PARTITIONED){
+			forwardPartitioned(time, beginners);
+			return;
+		}
 		
 		// get any turn ons that need to happen
 		for (Drive drive : beginners){
@@ -51,16 +81,237 @@ public class TrafficManager {
 			drive.getOnPoint().turnOn(drive);
 		}
 		
-		// shuffle all xings and roads and iterate through them 
-		List<Drivable> list = new ArrayList<Drivable>(city.getRoadGraph().edgeSet());
+		// flow the xings and roads with drives in a random order, keeping the array of them until the graph changes
+		CompactGraph graph = city.getGraphManager().getCompactGraph();
+		if (graph != scheduledGraph){
+			detach();
+			List<Drivable> list = new ArrayList<Drivable>(graph.getDrivableCount());
+			for (int i = 0; i < graph.getDrivableCount(); i++){
+				list.add(graph.getDrivable(i));
+			}
+			this.stepOrder = new FlowOrder(list);
+			stepOrder.attach();
+			this.scheduledGraph = graph;
+		}
 		
-		list.addAll(city.getRoadGraph().vertexSet());
+		stepOrder.flow(time, city.getRandomManager().stream(RandomManager.TRAFFIC, time));
+	}
+
+	/**
+	 * Moves traffic forward to <tt>time</tt> by processing only the events due by then.
+	 * <p>
+	 * Drives begin at their attempted start time if it falls in the period being moved through, and each Drivable flows at the time its next Drive is due.
+	 */
+	private void forwardEvents(long time, Set<Drive> beginners){
+		CompactGraph graph = city.getGraphManager().getCompactGraph();
+		if (graph != scheduledGraph){
+			attach(graph);
+		}
 		
-		Collections.shuffle(list);
+		for (Drive drive : beginners){
+			events.scheduleStart(drive);
+		}
+		
+		events.runUntil(time);
+	}
+	
+	/**
+	 * Moves traffic forward a step at <tt>time</tt>, flowing the regions of the graph side by side and then the boundary edges between them.
+	 * <p>
+	 * Each region and then the boundary flow in an order drawn from a stream of the city's <tt>RandomManager</tt>, split once for every region
+	 * before any of them starts, so a step comes out the same for a given seed and number of regions however many threads there are and however
+	 * they're scheduled. Regions flowing on threads of their own trace events and retire Drives into logs of their own, which are kept and
+	 * recorded region by region once all are done, before the boundary flows, just as if the regions had flowed one after another.
+	 */
+	private void forwardPartitioned(long time, Set<Drive> beginners){
+		for (Drive drive : beginners){
+			drive.getDriver().startDrive(drive);
+			drive.begin(time);
+			drive.getOnPoint().turnOn(drive);
+		}
+		
+		CompactGraph graph = city.getGraphManager().getCompactGraph();
+		if (graph != scheduledGraph || partition.getRegionCount() != flowRegions){
+			detach();
+			this.partition = new FlowPartition(city, graph, flowRegions);
+			for (int r = 0; r < partition.getRegionCount(); r++){
+				partition.getRegionOrder(r).attach();
+			}
+			partition.getBoundaryOrder().attach();
+			this.scheduledGraph = graph;
+		}
+		
+		SplittableRandom random = city.getRandomManager().stream(RandomManager.TRAFFIC, time);
+		SplittableRandom[] regionRandoms = new SplittableRandom[partition.getRegionCount()];
+		for (int r = 0; r < regionRandoms.length; r++){
+			regionRandoms[r] = random.split();
+		}
+		if (flowExecutor == null){
+			for (int r = 0; r < partition.getRegionCount(); r++){
+				partition.getRegionOrder(r).flow(time, regionRandoms[r]);
+			}
+		} else {
+			Tracer tracer = city.getTracer();
+			DriveArchive archive = city.getResidentManager().getArchive();
+			while (regionTraces.size() < partition.getRegionCount()){
+				regionTraces.add(new Tracer.Log());
+				regionRetired.add(new ArrayList<>());
+			}
+			List<Callable<Void>> tasks = new ArrayList<>(partition.getRegionCount());
+			for (int r = 0; r < partition.getRegionCount(); r++){
+				FlowOrder region = partition.getRegionOrder(r);
+				SplittableRandom regionRandom = regionRandoms[r];
+				Tracer.Log traced = regionTraces.get(r);
+				List<Drive> retired = regionRetired.get(r);
+				tasks.add(() -> {
+					tracer.defer(traced);
+					archive.defer(retired);
+					try {
+						region.flow(time, regionRandom);
+					} finally {
+						tracer.defer(null);
+						archive.defer(null);
+					}
+					return null;
+				});
+			}
+			try {
+				for (Future<Void> done : flowExecutor.invokeAll(tasks)){
+					done.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while regions of the graph were flowing.", e);
+			} catch (ExecutionException e) {
+				// every region is done even so, so what they did is still kept before the failure is passed on
+				applyRegionLogs(tracer, archive);
+				if (e.getCause() instanceof RuntimeException){
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException("A region of the graph failed to flow.", e.getCause());
+			}
+			applyRegionLogs(tracer, archive);
+		}
+		
+		// Drives crossing from one region to another move only once every region is done
+		partition.getBoundaryOrder().flow(time, random);
+	}
+	
+	/**
+	 * Keeps the events traced and records the Drives retired by the regions that flowed on threads of their own, region by region.
+	 */
+	private void applyRegionLogs(Tracer tracer, DriveArchive archive){
+		for (int r = 0; r < partition.getRegionCount(); r++){
+			tracer.apply(regionTraces.get(r));
+			archive.apply(regionRetired.get(r));
+		}
+	}
 	
-		for (Drivable drivable : list){
-			drivable.flow(time);
+	/**
+	 * Makes all Drivables in <tt>graph</tt> report to the event queue, and queues any work they already have.
+	 */
+	private void attach(CompactGraph graph){
+		detach();
+		for (int i = 0; i < graph.getDrivableCount(); i++){
+			Drivable drivable = graph.getDrivable(i);
+			drivable.setFlowScheduler(events);
+			events.wake(drivable);
+		}
+		this.scheduledGraph = graph;
+	}
+	
+	/**
+	 * Stops the Drivables of the graph currently attached from reporting to the event queue or to the FlowOrders of the step modes.
+	 */
+	private void detach(){
+		if (scheduledGraph != null){
+			for (int i = 0; i < scheduledGraph.getDrivableCount(); i++){
+				scheduledGraph.getDrivable(i).setFlowScheduler(null);
+			}
+		}
+		this.scheduledGraph = null;
+		this.stepOrder = null;
+		this.partition = null;
+	}
+	
+	/**
+	 * Returns number of Drivables that flow at the next step in <tt>FlowMode.FIXED_STEP</tt> or <tt>FlowMode.PARTITIONED</tt>, or 0 in other
+	 * modes or before the first step.
+	 */
+	int getActiveCount(){
+		if (stepOrder != null){
+			return stepOrder.getActiveCount();
+		}
+		if (partition == null){
+			return 0;
+		}
+		int count = partition.getBoundaryOrder().getActiveCount();
+		for (int r = 0; r < partition.getRegionCount(); r++){
+			count += partition.getRegionOrder(r).getActiveCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * Sets how this moves traffic forward.
+	 * <p>
+	 * <tt>FlowMode.FIXED_STEP</tt> flows every Drivable holding Drives at each step, while <tt>FlowMode.EVENT_DRIVEN</tt> flows only those with
+	 * due Drives. <tt>FlowMode.PARTITIONED</tt> flows every Drivable holding Drives at each step like <tt>FlowMode.FIXED_STEP</tt>, but region by
+	 * region on the flow executor.
+	 * Switching modes in the middle of a simulation is allowed.
+	 * @param mode FlowMode to use from now on
+	 */
+	public void setFlowMode(FlowMode mode){
+		if (mode == null) throw new IllegalArgumentException("Parameter mode may not be null.");
+		if (mode == this.mode){
+			return;
 		}
+		detach();
+		if (mode == FlowMode.EVENT_DRIVEN){
+			this.events = new EventScheduler(city.getTimeManager().getCurrentSecond(), city.getTimeManager().getPeriod());
+		} else {
+			this.events = null;
+		}
+		this.mode = mode;
+	}
+	
+	public FlowMode getFlowMode(){
+		return mode;
+	}
+	
+	/**
+	 * Sets executor that regions of the graph flow on in <tt>FlowMode.PARTITIONED</tt>, or <tt>null</tt> to flow them one after another on the
+	 * thread advancing the city. Either way the outcome is the same.
+	 * <p>
+	 * This doesn't shut down the executor when it's replaced.
+	 * @param executor ExecutorService or <tt>null</tt>
+	 */
+	public void setFlowExecutor(ExecutorService executor){
+		this.flowExecutor = executor;
+	}
+	
+	public ExecutorService getFlowExecutor(){
+		return flowExecutor;
+	}
+	
+	/**
+	 * Sets number of regions the graph is split into in <tt>FlowMode.PARTITIONED</tt>, which is also the most that can flow at once.
+	 * @param regions int at least 1
+	 */
+	public void setFlowRegions(int regions){
+		if (regions < 1) throw new IllegalArgumentException("Parameter regions must be at least 1.");
+		this.flowRegions = regions;
+	}
+	
+	public int getFlowRegions(){
+		return flowRegions;
+	}
+	
+	/**
+	 * Returns queue of events used in <tt>FlowMode.EVENT_DRIVEN</tt>, or <tt>null</tt> in other modes.
+	 */
+	EventScheduler getEventScheduler(){
+		return events;
 	}
 
 	/**
@@ -0,0 +1,16 @@
+package com.underplex.tranopolis;
+
+/**
+ * Source of the expected number of seconds it takes to drive each edge of a road graph, used by <tt>Router</tt> to weigh edges.
+ */
+public interface TravelTimes {
+
+	/**
+	 * Returns expected number of seconds to drive an edge starting at <tt>time</tt>.
+	 * @param graph CompactGraph the edge belongs to
+	 * @param edgeId int id of the edge in <tt>graph</tt>
+	 * @param time long seconds since <tt>City.DEFAULT_START</tt>
+	 * @return double seconds, which must be positive
+	 */
+	double getTravelSeconds(CompactGraph graph, int edgeId, long time);
+}
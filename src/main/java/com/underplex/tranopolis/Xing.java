@@ -1,13 +1,6 @@
 package com.underplex.tranopolis;
 
-import java.time.LocalDateTime;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -21,11 +14,12 @@ import com.google.common.collect.ImmutableSet;
  * @author Brandon Irvine, brandon@underplex.com
  *
  */
-public class Xing implements Drivable {
+public class Xing extends AbstractDrivable {
 
     private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
     
 	private final Lot lot;
+	private final int hash; // computed once, since Xings are looked up in hash-based collections constantly
 	//private final Set<Road> outgoingEdges;
 	
 	/**
@@ -34,6 +28,7 @@ public class Xing implements Drivable {
 	 */
 	public Xing(Lot lot) {
 		this.lot = lot;
+		this.hash = 31 + ((lot == null) ? 0 : lot.hashCode());
 		//this.outgoingEdges = new HashSet<Road>(outgoingEdges);
 	}	
 	
@@ -43,10 +38,7 @@ public class Xing implements Drivable {
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((lot == null) ? 0 : lot.hashCode());
-		return result;
+		return hash;
 	}
 
 	@Override
@@ -58,6 +50,8 @@ public class Xing implements Drivable {
 		if (getClass() != obj.getClass())
 			return false;
 		Xing other = (Xing) obj;
+		if (lot == other.lot)
+			return true;
 		if (lot == null) {
 			if (other.lot != null)
 				return false;
@@ -68,50 +62,28 @@ public class Xing implements Drivable {
 
 
 	@Override
-	public Set<Drive> take(Queue<Drive> drives, LocalDateTime time) {
-		if (time == null || drives == null ) throw new IllegalArgumentException("Arguments to take method cannot be null.");
+	public int take(DriveBatch drives, long time) {
+		if (drives == null) throw new IllegalArgumentException("Arguments to take method cannot be null.");
 
-		Map<Drivable, Queue<Drive>> map = new HashMap<Drivable, Queue<Drive>>();
-				
-		while (!drives.isEmpty()){
-			Drive d = drives.remove();
-			LOGGER.info(this + " takes " + d);
+		for (int i = 0; i < drives.size(); i++){
+			Drive d = drives.get(i);
+			d.getTracer().trace(Tracer.Event.ENTER, time, d, this);
 
 			Drivable r = d.next(this);
 			if (r == null){
 				throw new IllegalArgumentException("One of the drives has nowhere to go from this Xing.");
 			}
 			
-			LOGGER.info(d + " attempts to turn onto " + r);
-
-			// if we've already seen the road this drive wants to get onto...
-			if (map.keySet().contains(r)){ 
-				map.get(r).add(d);
-	
-			// if we haven't already seen the road this drive wants to get onto...	
-			} else { 
-				Queue<Drive> q = new ArrayDeque<Drive>();
-				q.add(d);
-				map.put(r,q); 
-			}
-			
+			d.getTracer().trace(Tracer.Event.TURN, time, d, r);
+			drives.setNext(i, r);
 		}
 
-		Set<Drive> rejects = new HashSet<>();
-		
-		// now actually attempt to move drive off...
-		for (Drivable r : map.keySet()){
-			LOGGER.info(map.get(r).size() + " car(s) attempting to turn onto " + r); 
-			Set<Drive> localRejects = r.take(map.get(r), time);
-			LOGGER.info(localRejects.size() + " car(s) cannot turn onto " + r); 
-			rejects.addAll(localRejects);
-		}
-
-		return rejects;
+		// now actually attempt to move drives off, road by road
+		return drives.handOn(time);
 	}
 
 	@Override
-	public void flow(LocalDateTime time) {
+	public void flow(long time) {
 		// xings don't do anything by themselves
 	}
 
@@ -127,6 +99,12 @@ public class Xing implements Drivable {
 	public Set<Drive> getDrives() {
 		return new HashSet<>();
 	}
+
+	@Override
+	public long getNextFlowTime() {
+		// xings never hold on to drives
+		return SimTime.NEVER;
+	}
 	
 }
 
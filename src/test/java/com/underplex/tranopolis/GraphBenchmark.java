@@ -0,0 +1,52 @@
+package com.underplex.tranopolis;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times <tt>GraphFinder.findDrivableGraph</tt> on grid cities of growing size, to show how finding the graph scales with the number of
+ * paved Lots, both on the calling thread and on the common <tt>ForkJoinPool</tt>.
+ * <p>
+ * Arguments are the widths and heights of the cities in Lots (default 101, 201, 301, 401, 501).
+ */
+public class GraphBenchmark {
+
+	private GraphBenchmark() {
+		// don't instantiate
+	}
+
+	public static void main(String[] args) {
+		int[] sizes = {101, 201, 301, 401, 501};
+		if (args.length > 0){
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++){
+				sizes[i] = Integer.parseInt(args[i]) | 1;
+			}
+		}
+
+		// run once on a small city first, so that the JIT has compiled the tracing
+		GraphFinder.findDrivableGraph(TestRouting.makeGridCity(51));
+		GraphFinder.findDrivableGraph(TestRouting.makeGridCity(51), ForkJoinPool.commonPool());
+
+		for (int size : sizes){
+			City city = TestRouting.makeGridCity(size);
+			int paved = 0;
+			for (Lot lot : city.getLotManager().asSet()){
+				if (lot.isPaved()){
+					paved++;
+				}
+			}
+
+			long t = System.nanoTime();
+			DrivableGraph graph = GraphFinder.findDrivableGraph(city);
+			long nanos = System.nanoTime() - t;
+			System.out.println(size + "x" + size + ": " + paved + " paved Lots, " + graph.vertexSet().size() + " vertices, "
+					+ graph.edgeSet().size() + " edges in " + (nanos / 1000000L) + " ms (" + (nanos / paved) + " ns per paved Lot)");
+
+			t = System.nanoTime();
+			GraphFinder.findDrivableGraph(city, ForkJoinPool.commonPool());
+			nanos = System.nanoTime() - t;
+			System.out.println("    in parallel on " + ForkJoinPool.commonPool().getParallelism() + " threads in " + (nanos / 1000000L) + " ms ("
+					+ (nanos / paved) + " ns per paved Lot)");
+		}
+	}
+}
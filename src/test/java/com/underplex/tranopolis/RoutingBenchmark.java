@@ -0,0 +1,87 @@
+package com.underplex.tranopolis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
+
+/**
+ * Compares the time shortest path queries take with jgrapht's <tt>DijkstraShortestPath</tt>, <tt>CompactGraph</tt>, and a
+ * <tt>ContractionHierarchy</tt> on a grid city.
+ * <p>
+ * Arguments are the width and height of the city in Lots (default 101) and the number of queries (default 200).
+ */
+public class RoutingBenchmark {
+
+	private RoutingBenchmark() {
+		// don't instantiate
+	}
+
+	public static void main(String[] args) {
+		int size = (args.length > 0) ? Integer.parseInt(args[0]) : 101;
+		int queries = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+		if (size % 2 == 0) size++;
+
+		long t = System.nanoTime();
+		City city = TestRouting.makeGridCity(size);
+		final CompactGraph graph = city.getGraphManager().getCompactGraph();
+		System.out.println("Built " + size + "x" + size + " city with " + graph.getVertexCount() + " vertices and " + graph.getEdgeCount()
+				+ " edges in " + millis(System.nanoTime() - t) + " ms.");
+
+		t = System.nanoTime();
+		final ContractionHierarchy hierarchy = new ContractionHierarchy(graph);
+		System.out.println("Built hierarchy with " + hierarchy.getShortcutCount() + " shortcuts in " + millis(System.nanoTime() - t) + " ms.");
+
+		Random random = new Random(1);
+		List<Drivable[]> pairs = new ArrayList<>();
+		for (int i = 0; i < queries; i++){
+			pairs.add(new Drivable[]{
+					graph.getVertex(random.nextInt(graph.getVertexCount())),
+					graph.getVertex(random.nextInt(graph.getVertexCount()))});
+		}
+
+		final DijkstraShortestPath<Drivable, Drivable> dsp = new DijkstraShortestPath<>(graph.getGraph());
+		// each is run twice, and only the second run is timed, so that the JIT has compiled it
+		for (int run = 0; run < 2; run++){
+			boolean timed = run == 1;
+			time("DijkstraShortestPath", pairs, timed, new Query(){
+				public GraphPath<Drivable, Drivable> find(Drivable from, Drivable to){
+					return dsp.getPath(from, to);
+				}
+			});
+			time("CompactGraph", pairs, timed, new Query(){
+				public GraphPath<Drivable, Drivable> find(Drivable from, Drivable to){
+					return graph.findShortestPath(from, to);
+				}
+			});
+			time("ContractionHierarchy", pairs, timed, new Query(){
+				public GraphPath<Drivable, Drivable> find(Drivable from, Drivable to){
+					return hierarchy.findShortestPath(from, to);
+				}
+			});
+		}
+	}
+
+	private interface Query {
+		GraphPath<Drivable, Drivable> find(Drivable from, Drivable to);
+	}
+
+	private static void time(String name, List<Drivable[]> pairs, boolean timed, Query query){
+		double checksum = 0.0;
+		long t = System.nanoTime();
+		for (Drivable[] pair : pairs){
+			GraphPath<Drivable, Drivable> path = query.find(pair[0], pair[1]);
+			checksum += (path == null) ? 0.0 : path.getWeight();
+		}
+		long nanos = System.nanoTime() - t;
+		if (timed){
+			System.out.println(name + ": " + (nanos / 1000L / pairs.size()) + " microseconds per query (total weight " + checksum + ")");
+		}
+	}
+
+	private static long millis(long nanos){
+		return nanos / 1000000L;
+	}
+}
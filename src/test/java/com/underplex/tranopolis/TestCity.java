@@ -5,16 +5,34 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.jgrapht.GraphPath;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class TestCity {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void createCity() {
 		System.out.println("**********************");
@@ -207,4 +225,260 @@ public class TestCity {
 		
 	}
 	
+
+	@Test
+	public void parallelPlanning() {
+		System.out.println("**********************");
+		System.out.println("***** parallelPlanning  ****");
+		System.out.println("**********************");
+
+		City city = TestRouting.makeGridCity(9);
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		Set<Resident> rezs = Demo.makeBasics(300, sw, ne);
+		city.getResidentManager().addResidents(rezs);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			city.getResidentManager().setPlanningExecutor(executor);
+			city.getResidentManager().setPlanningBatch(16);
+			LocalDateTime seven = City.DEFAULT_START.plusHours(7);
+			city.getResidentManager().advance(seven);
+
+			// same Drives as planning one Resident at a time, each starting when its own stream of random choices says
+			List<Drive> drives = city.getResidentManager().getUpcomingDrives();
+			assertEquals(rezs.size(), drives.size());
+			Map<Resident, Drive> byDriver = new HashMap<>();
+			for (Drive drive : drives){
+				assertNull(byDriver.put(drive.getDriver(), drive));
+			}
+			for (Resident rez : rezs){
+				Drive drive = byDriver.get(rez);
+				long key = ((AbstractResident) rez).getRandomKey();
+				int minutes = city.getRandomManager().stream(key, SimTime.toSeconds(seven)).nextInt(121);
+				assertEquals(seven.plusMinutes(minutes), drive.getAttemptStartTime());
+			}
+			// and numbered in the order of their Residents, whichever thread planned them
+			long number = 0;
+			for (Resident rez : city.getResidentManager().getResidentsInOrder()){
+				assertEquals(number++, byDriver.get(rez).getNumber());
+			}
+			assertEquals(1, city.getGraphManager().getRouteCache().getMisses());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void scheduledDrives() {
+		System.out.println("**********************");
+		System.out.println("***** scheduledDrives  ****");
+		System.out.println("**********************");
+
+		City city = TestRouting.makeGridCity(9);
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		Set<Resident> rezs = Demo.makeBasics(2, sw, ne);
+		city.getResidentManager().addResidents(rezs);
+		Iterator<Resident> it = rezs.iterator();
+		Resident home = it.next();
+		Resident away = it.next();
+		away.setCurrentLocation(ne);
+
+		GraphPath<Drivable, Drivable> path = city.getGraphManager().getRouteCache().getRoute(sw, ne);
+		LocalDateTime start = city.getTimeManager().getCurrentTime();
+		Drive later = new Drive(path, home, start.plusMinutes(30), sw, ne);
+		Drive ready = new Drive(path, home, start.plusSeconds(90), sw, ne);
+		Drive waiting = new Drive(path, away, start.plusSeconds(30), sw, ne, start.plusMinutes(5));
+		ResidentManager manager = city.getResidentManager();
+		manager.addUpcomingDrive(later);
+		manager.addUpcomingDrive(ready);
+		manager.addUpcomingDrive(waiting);
+
+		long now = city.getTimeManager().getCurrentSecond();
+		assertEquals(0, manager.surveyDrives(now).size());
+		assertEquals(3, manager.getUpcomingDrives().size());
+
+		// a driver who isn't there yet waits instead of being dropped
+		Set<Drive> starters = manager.surveyDrives(now + 120);
+		assertEquals(1, starters.size());
+		assertTrue(starters.contains(ready));
+		assertEquals(DriveDisposition.WAITING, waiting.getDisposition());
+		assertEquals(2, manager.getUpcomingDrives().size());
+
+		// until the drop time passes
+		assertEquals(0, manager.surveyDrives(now + 240).size());
+		assertEquals(DriveDisposition.WAITING, waiting.getDisposition());
+		assertEquals(0, manager.surveyDrives(now + 300).size());
+		assertEquals(DriveDisposition.DROPPED, waiting.getDisposition());
+		assertEquals(1, manager.getUpcomingDrives().size());
+
+		// skipping far ahead still finds the rest
+		starters = manager.surveyDrives(now + 3600);
+		assertEquals(1, starters.size());
+		assertTrue(starters.contains(later));
+		assertEquals(0, manager.getUpcomingDrives().size());
+	}
+
+	@Test
+	public void scheduleRing() {
+		System.out.println("**********************");
+		System.out.println("***** scheduleRing  ****");
+		System.out.println("**********************");
+
+		City city = TestRouting.makeGridCity(9);
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		GraphPath<Drivable, Drivable> path = city.getGraphManager().getRouteCache().getRoute(sw, ne);
+		Iterator<Resident> rezs = Demo.makeBasics(6, sw, ne).iterator();
+		LocalDateTime start = city.getTimeManager().getCurrentTime();
+		long now = city.getTimeManager().getCurrentSecond();
+		Drive soon = new Drive(path, rezs.next(), start.plusSeconds(150), sw, ne);
+		Drive first = new Drive(path, rezs.next(), start.plusSeconds(30), sw, ne);
+		Drive alsoSoon = new Drive(path, rezs.next(), start.plusSeconds(150), sw, ne);
+		Drive later = new Drive(path, rezs.next(), start.plusMinutes(10), sw, ne);
+		Drive muchLater = new Drive(path, rezs.next(), start.plusHours(2), sw, ne);
+		Drive evenLater = new Drive(path, rezs.next(), start.plusHours(2).plusSeconds(10), sw, ne);
+
+		// a ring of four minute-long buckets, so most of these wait in overflow at first
+		DriveSchedule schedule = new DriveSchedule(60, 4);
+		assertEquals(4, schedule.getSlots());
+		for (Drive d : Arrays.asList(muchLater, soon, later, first, alsoSoon)){
+			schedule.add(d);
+		}
+		assertEquals(5, schedule.size());
+		assertEquals(Arrays.asList(first, soon, alsoSoon, later, muchLater), schedule.toList());
+		assertEquals(Arrays.asList(now / 60, now / 60 + 2, now / 60 + 10, now / 60 + 120),
+				Arrays.asList(schedule.getBuckets().keySet().toArray()));
+
+		assertEquals(Arrays.asList(first), schedule.pollDue(now + 60));
+		// due Drives come in order of attempted start time, and otherwise in the order added
+		assertEquals(Arrays.asList(soon, alsoSoon), schedule.pollDue(now + 200));
+
+		// retried Drives are due again in the next bucket
+		schedule.retry(soon, now + 200);
+		assertEquals(0, schedule.pollDue(now + 230).size());
+		assertEquals(Arrays.asList(soon), schedule.pollDue(now + 240));
+
+		// Drives added for a bucket still in overflow keep their order once the ring reaches it
+		schedule.add(evenLater);
+		assertEquals(Arrays.asList(later), schedule.pollDue(now + 3600));
+		assertEquals(Arrays.asList(muchLater, evenLater), schedule.toList());
+		assertEquals(Arrays.asList(muchLater), schedule.pollDue(now + 7205));
+		assertEquals(Arrays.asList(evenLater), schedule.pollDue(now + 7210));
+		assertEquals(0, schedule.size());
+		assertEquals(0, schedule.toList().size());
+	}
+
+	@Test
+	public void packedLots() {
+		City loose = new City(41, 31);
+		City packed = new City(41, 31, City.DEFAULT_START, true);
+		assertTrue(packed.getLotManager().isPacked());
+
+		// views of the same place are equal and share its value
+		Lot a = packed.getLot(3, 4);
+		Lot b = packed.getLot(3, 4);
+		assertTrue(a != b);
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		a.makePaved();
+		assertTrue(b.isPaved());
+		assertTrue(packed.getLotManager().isPaved(3, 4));
+		assertFalse(packed.getLotManager().isPaved(-1, 4));
+		assertNotEquals(a, loose.getLot(3, 4));
+		a.setValue(0);
+
+		// the same roads are found either way
+		Random random = new Random(17);
+		for (int x = 0; x < 41; x++){
+			for (int y = 0; y < 31; y++){
+				if (random.nextInt(3) > 0){
+					loose.getLot(x, y).makePaved();
+					packed.getLot(x, y).makePaved();
+				}
+			}
+		}
+		assertEquals(loose.getLotManager().countPavedNeighbors(20, 15), packed.getLotManager().countPavedNeighbors(20, 15));
+		loose.getGraphManager().updateGraph();
+		packed.getGraphManager().updateGraph();
+		DrivableGraph expected = loose.getRoadGraph();
+		DrivableGraph actual = packed.getRoadGraph();
+		assertEquals(expected.vertexSet().size(), actual.vertexSet().size());
+		assertEquals(expected.edgeSet().size(), actual.edgeSet().size());
+		Set<String> expectedRoads = new HashSet<>();
+		for (Drivable e : expected.edgeSet()){
+			expectedRoads.add(e.toString());
+		}
+		for (Drivable e : actual.edgeSet()){
+			assertTrue(expectedRoads.contains(e.toString()));
+		}
+
+		// and a city too big for an object per Lot can still be made
+		City large = new City(3000, 3000, City.DEFAULT_START, true);
+		large.getLot(2999, 2999).makePaved();
+		assertEquals(1, large.getLotManager().countPavedNeighbors(2999, 2998));
+	}
+
+	@Test
+	public void cityMaps() throws IOException {
+		List<String> grid = Arrays.asList(
+				"b R . b .",
+				". R . R b",
+				". R . . .",
+				"R R R R R",
+				"b R . . b",
+				"",
+				"@ Northview Apts: 3,4 > 3,3",
+				"@ East Lake Mall: 4,3 > 3,3",
+				"@ Southern Hills Condos: 4,0 > 4,1",
+				"@ Southwest Mountain Apartments: 0,0 > 1,0",
+				"@ Northwest Heights Office Park: 0,4 > 1,4");
+		City text = CityMap.parseText(grid, false);
+		assertTrue(text.getLot(1, 3).isPaved());
+		assertTrue(text.getLot(4, 3).isBuilt());
+		assertFalse(text.getLot(2, 3).isPaved());
+		assertEquals(5, text.getLocationManager().getLocations().size());
+		assertTrue(text.getLocationManager().get("East Lake Mall").getConnections().contains(text.getLot(3, 3)));
+
+		// converting only needs the Lots and Locations, so the graph found from them is left empty
+		City parsed = CityMap.parseGrid(grid, true);
+		assertTrue(parsed.getRoadGraph().vertexSet().isEmpty());
+		assertEquals(5, parsed.getLocationManager().getLocations().size());
+
+		// a map file holds the same Lots and Locations, and the same graph is found from it
+		Path file = folder.getRoot().toPath().resolve("demo.map");
+		Path source = folder.getRoot().toPath().resolve("demo.txt");
+		Files.write(source, grid);
+		CityMap.convert(source, file);
+		City loaded = CityMap.load(file);
+		assertTrue(loaded.getLotManager().isPacked());
+		StringBuilder expected = new StringBuilder();
+		StringBuilder actual = new StringBuilder();
+		CityMap.writeText(text, expected);
+		CityMap.writeText(loaded, actual);
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(text.getRoadGraph().vertexSet().size(), loaded.getRoadGraph().vertexSet().size());
+		assertEquals(text.getRoadGraph().edgeSet().size(), loaded.getRoadGraph().edgeSet().size());
+		assertEquals(text.getLotManager().countPavedNeighbors(1, 1), loaded.getLotManager().countPavedNeighbors(1, 1));
+
+		// and text written from a city reads back the same
+		City again = CityMap.parseText(Arrays.asList(actual.toString().split(System.lineSeparator())), true);
+		StringBuilder round = new StringBuilder();
+		CityMap.writeText(again, round);
+		assertEquals(expected.toString(), round.toString());
+
+		try {
+			CityMap.load(source);
+			fail("A text grid isn't a map file.");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			CityMap.parseText(Arrays.asList("R R x", "R R R", "R R R"), false);
+			fail("x isn't a Lot.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
 }
@@ -0,0 +1,700 @@
+package com.underplex.tranopolis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test traffic moved forward by the event-driven flow mode.
+ */
+public class TestEventTraffic {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Returns city with a cross of roads and locations at the southwest, southeast, and north ends.
+	 */
+	private City makeCity(){
+		City city = new City(7, 7);
+
+//		. . b R . . .
+//		. . . R . . .
+//		. . . R . . .
+//		. . . R . . .
+//		. . . R . . .
+//		R R R R R R R
+//		b . . . . . b
+
+		for (int x = 0; x < 7; x++){
+			city.getLot(x, 1).makePaved();
+		}
+		for (int y = 2; y < 7; y++){
+			city.getLot(3, y).makePaved();
+		}
+
+		city.getLot(0, 0).makeBuilt();
+		city.getLot(6, 0).makeBuilt();
+		city.getLot(2, 6).makeBuilt();
+
+		Location southwestLoc = city.getLocationManager().makeLocation(city.getLot(0, 0), "Southwest Mountain Apartments");
+		Location southeastLoc = city.getLocationManager().makeLocation(city.getLot(6, 0), "Southern Hills Condos");
+		Location northLoc = city.getLocationManager().makeLocation(city.getLot(2, 6), "North Heights Office Park");
+
+		assertTrue(city.connectLocation(southwestLoc, city.getLot(0, 1)));
+		assertTrue(city.connectLocation(southeastLoc, city.getLot(6, 1)));
+		assertTrue(city.connectLocation(northLoc, city.getLot(3, 6)));
+
+		city.getGraphManager().updateGraph();
+		return city;
+	}
+
+	@Test
+	public void eventTraffic() {
+		System.out.println("**********************");
+		System.out.println("***** eventTraffic   *****");
+		System.out.println("**********************");
+
+		City city = makeCity();
+		city.getTrafficManager().setFlowMode(FlowMode.EVENT_DRIVEN);
+		assertEquals(FlowMode.EVENT_DRIVEN, city.getTrafficManager().getFlowMode());
+
+		Location southeastLoc = city.getLocationManager().get("Southern Hills Condos");
+		Location northLoc = city.getLocationManager().get("North Heights Office Park");
+
+		GraphPath<Drivable, Drivable> path = DijkstraShortestPath.findPathBetween(city.getRoadGraph(), southeastLoc, northLoc);
+		assertNotNull(path);
+
+		Set<Resident> rezs = Demo.makeBasics(2, southeastLoc, northLoc);
+		city.getResidentManager().addResidents(rezs);
+
+		Set<Drive> drives = new HashSet<>();
+		for (Resident rez : rezs){
+			Drive drive = new Drive(path,
+					rez,
+					city.getTimeManager().getCurrentTime().plusSeconds(90),
+					southeastLoc,
+					northLoc);
+			drives.add(drive);
+			city.getResidentManager().addUpcomingDrive(drive);
+		}
+
+		LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusMinutes(30))){
+			city.advance();
+		}
+
+		for (Drive drive : drives){
+			assertEquals(DriveDisposition.FINISHED, drive.getDisposition());
+			// drives begin at their attempted start time instead of at the next step
+			assertEquals(drive.getAttemptStartTime(), drive.getActualStartTime());
+		}
+		assertEquals(2, northLoc.getResidents().size());
+		assertEquals(0, Counter.countSums(city).getError());
+	}
+
+	@Test
+	public void switchModes() {
+		System.out.println("**********************");
+		System.out.println("***** switchModes   *****");
+		System.out.println("**********************");
+
+		City city = makeCity();
+
+		Location southwestLoc = city.getLocationManager().get("Southwest Mountain Apartments");
+		Location northLoc = city.getLocationManager().get("North Heights Office Park");
+
+		city.getResidentManager().addResidents(Demo.makeBasics(50, southwestLoc, northLoc));
+
+		// weekday morning commute is planned from 7 am on, so run fixed steps through part of it and events for the rest
+		LocalDateTime switchTime = city.getTimeManager().getCurrentTime().plusHours(7).plusMinutes(30);
+		LocalDateTime end = city.getTimeManager().getCurrentTime().plusHours(12);
+		while (city.getTimeManager().getCurrentTime().isBefore(switchTime)){
+			city.advance();
+		}
+		city.getTrafficManager().setFlowMode(FlowMode.EVENT_DRIVEN);
+		while (city.getTimeManager().getCurrentTime().isBefore(end)){
+			city.advance();
+			assertEquals(0, Counter.countSums(city).getError());
+		}
+
+		assertEquals(50, northLoc.getResidents().size());
+	}
+
+	@Test
+	public void retiredDrives() throws IOException {
+		System.out.println("**********************");
+		System.out.println("***** retiredDrives   *****");
+		System.out.println("**********************");
+
+		City city = makeCity();
+		city.getTrafficManager().setFlowMode(FlowMode.EVENT_DRIVEN);
+		city.getLocationManager().setKeepingFinishedDrives(false);
+		DriveArchive archive = city.getResidentManager().getArchive();
+		File file = folder.newFile("drives.bin");
+		archive.setOutput(file.toPath());
+
+		Location southeastLoc = city.getLocationManager().get("Southern Hills Condos");
+		Location northLoc = city.getLocationManager().get("North Heights Office Park");
+		GraphPath<Drivable, Drivable> path = DijkstraShortestPath.findPathBetween(city.getRoadGraph(), southeastLoc, northLoc);
+
+		List<Resident> rezs = new ArrayList<>(Demo.makeBasics(3, southeastLoc, northLoc));
+		city.getResidentManager().addResidents(new HashSet<>(rezs));
+		LocalDateTime start = city.getTimeManager().getCurrentTime().plusSeconds(90);
+		List<Drive> drives = new ArrayList<>();
+		for (Resident rez : rezs.subList(0, 2)){
+			drives.add(new Drive(path, rez, start, southeastLoc, northLoc));
+		}
+		// this driver is somewhere else, so the drive is dropped once its drop time passes
+		rezs.get(2).setCurrentLocation(northLoc);
+		drives.add(new Drive(path, rezs.get(2), start, southeastLoc, northLoc, start.plusMinutes(2)));
+		for (Drive drive : drives){
+			city.getResidentManager().addUpcomingDrive(drive);
+		}
+
+		LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusMinutes(30))){
+			city.advance();
+		}
+		archive.close();
+
+		assertEquals(3, archive.getRetiredCount());
+		assertEquals(2, archive.getFinishedCount());
+		assertEquals(1, archive.getDroppedCount());
+		assertEquals(2, city.getLocationManager().getFinishedCount());
+		assertEquals(0, city.getLocationManager().getFinishedDrives().size());
+
+		// heavy parts are let go, but where each drive ended up is still known
+		for (Drive drive : drives){
+			assertTrue(drive.isReleased());
+			assertNull(drive.getGraphPath());
+		}
+		assertEquals(northLoc, drives.get(0).getCurrentDrivable());
+		assertEquals(southeastLoc, drives.get(2).getCurrentDrivable());
+
+		List<DriveRecord> records = DriveArchive.read(file.toPath());
+		assertEquals(3, records.size());
+		assertEquals(DriveDisposition.DROPPED, records.get(0).getDisposition());
+		assertEquals(((AbstractResident) rezs.get(2)).getRandomKey(), records.get(0).getDriver());
+		assertEquals(CityMap.getLocations(city).indexOf(southeastLoc), records.get(0).getOrigin());
+		assertEquals(CityMap.getLocations(city).indexOf(northLoc), records.get(0).getDestination());
+		double seconds = 0.0;
+		for (DriveRecord record : records.subList(1, 3)){
+			assertEquals(DriveDisposition.FINISHED, record.getDisposition());
+			assertEquals(southeastLoc, archive.getLocation(record.getOrigin()));
+			assertEquals(northLoc, archive.getLocation(record.getDestination()));
+			assertEquals(path.getWeight(), record.getWeight(), 0.0);
+			assertEquals(path.getLength(), record.getLength());
+			assertTrue(record.getDriveSeconds() > 0);
+			seconds += record.getDriveSeconds();
+		}
+		assertEquals(seconds / 2.0, archive.getAverageDriveSeconds(), 1e-9);
+
+		// memory only holds the most recent records
+		DriveArchive small = new DriveArchive(2);
+		for (Drive drive : drives){
+			small.retire(drive);
+		}
+		assertEquals(2, small.getRecent().size());
+		assertEquals(drives.get(1).getActualEndSecond(), small.getRecent().get(0).getActualEnd());
+		assertEquals(SimTime.NEVER, small.getRecent().get(1).getActualStart());
+	}
+
+	@Test
+	public void tracer() throws IOException {
+		System.out.println("**********************");
+		System.out.println("***** tracer   *****");
+		System.out.println("**********************");
+
+		City city = makeCity();
+		city.getTrafficManager().setFlowMode(FlowMode.EVENT_DRIVEN);
+
+		Location southeastLoc = city.getLocationManager().get("Southern Hills Condos");
+		Location northLoc = city.getLocationManager().get("North Heights Office Park");
+		GraphPath<Drivable, Drivable> path = DijkstraShortestPath.findPathBetween(city.getRoadGraph(), southeastLoc, northLoc);
+
+		List<Resident> rezs = new ArrayList<>(Demo.makeBasics(2, southeastLoc, northLoc));
+		city.getResidentManager().addResidents(new HashSet<>(rezs));
+		LocalDateTime start = city.getTimeManager().getCurrentTime().plusSeconds(90);
+		Drive traced = new Drive(path, rezs.get(0), start, southeastLoc, northLoc);
+		Drive untraced = new Drive(path, rezs.get(1), start, southeastLoc, northLoc);
+		city.getResidentManager().addUpcomingDrive(traced);
+		city.getResidentManager().addUpcomingDrive(untraced);
+
+		// Drives are numbered by the city as they're scheduled, and traced by its own Tracer
+		assertEquals(0L, traced.getNumber());
+		assertEquals(1L, untraced.getNumber());
+		Tracer tracer = city.getTracer();
+		assertFalse(tracer.isEnabled());
+		tracer.setTraced(traced, true);
+		assertTrue(tracer.isEnabled());
+		City other = makeCity();
+		assertFalse(other.getTracer().isEnabled());
+
+		LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusMinutes(30))){
+			city.advance();
+		}
+		assertEquals(DriveDisposition.FINISHED, traced.getDisposition());
+		assertEquals(DriveDisposition.FINISHED, untraced.getDisposition());
+
+		// the traced Drive begins, enters every Drivable of its path after its start, and finishes
+		int n = tracer.size();
+		assertEquals(Tracer.Event.BEGIN, tracer.getEvent(0));
+		assertEquals(Tracer.Event.FINISH, tracer.getEvent(n - 1));
+		assertEquals(traced.getActualEndSecond(), tracer.getTime(n - 1));
+		List<Integer> entered = new ArrayList<>();
+		for (int i = 0; i < n; i++){
+			assertEquals(traced.getNumber(), tracer.getDrive(i));
+			if (tracer.getEvent(i) == Tracer.Event.ENTER){
+				entered.add(tracer.getDrivable(i));
+			}
+		}
+		List<Integer> expected = new ArrayList<>();
+		for (Drivable e : path.getEdgeList()){
+			expected.add(e.getGraphIndex());
+			expected.add(path.getGraph().getEdgeTarget(e).getGraphIndex());
+		}
+		assertEquals(expected.subList(0, expected.size() - 1), entered);
+
+		StringBuilder dump = new StringBuilder();
+		tracer.dump(dump);
+		assertEquals(n, dump.toString().split(System.lineSeparator()).length);
+
+		// tracing a Drivable keeps the events of every Drive there
+		tracer.reset();
+		tracer.setTraced(northLoc, true);
+		tracer.trace(Tracer.Event.FINISH, 0L, untraced, northLoc);
+		tracer.trace(Tracer.Event.BEGIN, 0L, untraced, southeastLoc);
+		assertEquals(1, tracer.size());
+		assertEquals(untraced.getNumber(), tracer.getDrive(0));
+
+		// Drives not yet numbered, or numbered past what a BitSet holds, can only be traced where they are
+		Drive unnumbered = new Drive(path, rezs.get(0), start, southeastLoc, northLoc);
+		Drive far = new Drive(path, rezs.get(1), start, southeastLoc, northLoc);
+		far.setNumber(Integer.MAX_VALUE + 1L);
+		for (Drive d : Arrays.asList(unnumbered, far)){
+			try {
+				tracer.setTraced(d, true);
+				fail(d.getNumber() + " should not be traceable by number.");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			tracer.trace(Tracer.Event.FINISH, 0L, d, northLoc);
+			tracer.trace(Tracer.Event.BEGIN, 0L, d, southeastLoc);
+		}
+		assertEquals(3, tracer.size());
+		assertEquals(-1L, tracer.getDrive(1));
+		assertEquals(Integer.MAX_VALUE + 1L, tracer.getDrive(2));
+
+		// only the latest events are kept once full
+		Tracer small = new Tracer(2);
+		small.setTracingAll(true);
+		for (Tracer.Event event : Tracer.Event.values()){
+			small.trace(event, event.ordinal(), traced, northLoc);
+		}
+		assertEquals(2, small.size());
+		assertEquals(Tracer.Event.values().length, small.getCount());
+		assertEquals(Tracer.Event.values()[Tracer.Event.values().length - 1], small.getEvent(1));
+	}
+
+	@Test
+	public void changedLots() {
+		System.out.println("**********************");
+		System.out.println("***** changedLots   *****");
+		System.out.println("**********************");
+
+		City city = TestRouting.makeGridCity(9);
+		city.getTrafficManager().setFlowMode(FlowMode.EVENT_DRIVEN);
+		DrivableGraphManager manager = city.getGraphManager();
+		Location southwest = city.getLocationManager().get("Southwest");
+		Location northeast = city.getLocationManager().get("Northeast");
+
+		List<Resident> rezs = new ArrayList<>(Demo.makeBasics(3, southwest, northeast));
+		city.getResidentManager().addResidents(new HashSet<>(rezs));
+		GraphPath<Drivable, Drivable> path = manager.getRouteCache().getRoute(southwest, northeast);
+		LocalDateTime start = city.getTimeManager().getCurrentTime().plusSeconds(30);
+		Drive moving = new Drive(path, rezs.get(0), start, southwest, northeast);
+		Drive waiting = new Drive(path, rezs.get(1), start.plusMinutes(10), southwest, northeast);
+		city.getResidentManager().addUpcomingDrive(moving);
+		city.getResidentManager().addUpcomingDrive(waiting);
+
+		// wait until the first Drive is on a Road with Lots of its own, and another such Road is ahead, from an Xing that stays one without it
+		Road current = null;
+		Road later = null;
+		while (later == null){
+			city.advance(1);
+			Drivable d = moving.getCurrentDrivable();
+			if (d instanceof Road && !(d instanceof Parking) && !((Road) d).getSegments().isEmpty()){
+				current = (Road) d;
+				List<Drivable> edges = path.getEdgeList();
+				for (int i = edges.indexOf(current) + 1; i < edges.size(); i++){
+					Drivable e = edges.get(i);
+					if (!(e instanceof Parking) && !((Road) e).getSegments().isEmpty()
+							&& GraphFinder.findPavedNeighbors(city, ((Xing) ((Road) e).getSource()).getLot()).size() > 3){
+						later = (Road) e;
+					}
+				}
+			}
+		}
+
+		// a Drive that has begun and waits at the Xing just before that Road
+		Xing before = (Xing) later.getSource();
+		Drive turning = new Drive(path, rezs.get(2), start, southwest, northeast);
+		turning.begin(city.getTimeManager().getCurrentSecond());
+		assertTrue(turning.moveTo(before));
+		
+		// and the routes between every pair of Locations
+		List<Location> locs = new ArrayList<>();
+		for (String name : new String[]{"Southwest", "Southeast", "Northwest", "Northeast"}){
+			locs.add(city.getLocationManager().get(name));
+		}
+		Map<List<Location>, GraphPath<Drivable, Drivable>> cached = new HashMap<>();
+		for (Location from : locs){
+			for (Location to : locs){
+				if (from != to){
+					cached.put(Arrays.asList(from, to), manager.getRouteCache().getRoute(from, to));
+				}
+			}
+		}
+
+		// clearing a Lot of the Road ahead makes the Drive go around it
+		Lot cut = later.getSegments().get(0);
+		cut.setValue(0);
+		Set<Drivable> removed = manager.updateLots(Arrays.asList(cut));
+		assertTrue(removed.contains(later));
+		assertEquals(-1, later.getGraphIndex());
+		assertEquals(current, moving.getCurrentDrivable());
+		assertTrue(moving.isRouteOn(city.getRoadGraph()));
+		assertFalse(moving.getGraphPath().getEdgeList().contains(later));
+		assertEquals(northeast, moving.getEnd());
+		
+		// the one at the Xing goes around from there
+		assertEquals(DriveDisposition.BEGUN, turning.getDisposition());
+		assertEquals(before, turning.getCurrentDrivable());
+		assertTrue(turning.isRouteOn(city.getRoadGraph()));
+		assertFalse(turning.getGraphPath().getEdgeList().contains(later));
+		
+		// cached routes are only searched for again if they ran over what was taken out
+		int kept = 0;
+		for (Map.Entry<List<Location>, GraphPath<Drivable, Drivable>> e : cached.entrySet()){
+			GraphPath<Drivable, Drivable> now = manager.getRouteCache().getRoute(e.getKey().get(0), e.getKey().get(1));
+			if (!Collections.disjoint(e.getValue().getEdgeList(), removed)){
+				for (Drivable edge : now.getEdgeList()){
+					assertTrue(city.getRoadGraph().containsEdge(edge));
+				}
+			} else {
+				assertSame(e.getValue(), now);
+				kept++;
+			}
+		}
+		assertTrue(kept > 0);
+		assertTrue(kept < cached.size());
+
+		// clearing a Lot of the Road it is on aborts it and sends its driver back
+		cut = current.getSegments().get(0);
+		cut.setValue(0);
+		removed = manager.updateLots(Arrays.asList(cut));
+		assertTrue(removed.contains(current));
+		assertEquals(DriveDisposition.ABORTED, moving.getDisposition());
+		assertTrue(current.getDrives().isEmpty());
+		assertTrue(rezs.get(0).isAt(southwest));
+		assertTrue(southwest.getResidents().contains(rezs.get(0)));
+		assertEquals(1, city.getResidentManager().getArchive().getAbortedCount());
+
+		// the Drive that hasn't begun yet is given a new route when it does, and gets there
+		LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusMinutes(60))){
+			city.advance();
+		}
+		assertEquals(DriveDisposition.FINISHED, waiting.getDisposition());
+		assertTrue(rezs.get(1).isAt(northeast));
+		assertEquals(1, city.getResidentManager().getArchive().getFinishedCount());
+	}
+
+	@Test
+	public void checkpoint() throws IOException {
+		System.out.println("**********************");
+		System.out.println("***** checkpoint   *****");
+		System.out.println("**********************");
+
+		City city = makeCity();
+		city.getTrafficManager().setFlowMode(FlowMode.EVENT_DRIVEN);
+		Location southwestLoc = city.getLocationManager().get("Southwest Mountain Apartments");
+		Location southeastLoc = city.getLocationManager().get("Southern Hills Condos");
+		Location northLoc = city.getLocationManager().get("North Heights Office Park");
+		city.getResidentManager().addResidents(Demo.makeBasics(150, southwestLoc, northLoc));
+		city.getResidentManager().addResidents(Demo.makeBasics(150, southeastLoc, northLoc));
+
+		// stop in the middle of the morning rush, with Drives waiting, turning on and on the roads
+		LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(7).plusMinutes(50))){
+			city.advance();
+		}
+		assertTrue(city.getResidentManager().getUpcomingDrives().size() > 0);
+		assertTrue(southwestLoc.getDrives().size() > 0);
+		int onRoads = 0;
+		for (Drivable e : city.getRoadGraph().edgeSet()){
+			onRoads += e.getDrives().size();
+		}
+		assertTrue(onRoads > 0);
+
+		File first = folder.newFile("first.ckp");
+		Checkpoint.save(city, first.toPath());
+		City restored = Checkpoint.restore(first.toPath());
+		assertEquals(city.getTimeManager().getCurrentSecond(), restored.getTimeManager().getCurrentSecond());
+		assertEquals(FlowMode.EVENT_DRIVEN, restored.getTrafficManager().getFlowMode());
+		assertEquals(city.getResidentManager().getPopulation(), restored.getResidentManager().getPopulation());
+		assertEquals(city.getResidentManager().getUpcomingDrives().size(), restored.getResidentManager().getUpcomingDrives().size());
+		assertEquals(city.getResidentManager().getArchive().getFinishedCount(), restored.getResidentManager().getArchive().getFinishedCount());
+		assertEquals(southwestLoc.getDrives().size(), restored.getLocationManager().get("Southwest Mountain Apartments").getDrives().size());
+		assertEquals(northLoc.getResidents().size(), restored.getLocationManager().get("North Heights Office Park").getResidents().size());
+
+		// saving the restored city gives back the same checkpoint
+		File second = folder.newFile("second.ckp");
+		Checkpoint.save(restored, second.toPath());
+		assertTrue(Arrays.equals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath())));
+
+		// and the restored city carries on through the day; which of two Drives at the same time moves first may differ, but everyone still
+		// gets to work and home again
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(30))){
+			city.advance();
+			restored.advance();
+		}
+		DriveArchive archive = city.getResidentManager().getArchive();
+		DriveArchive restoredArchive = restored.getResidentManager().getArchive();
+		assertEquals(archive.getRetiredCount(), restoredArchive.getRetiredCount());
+		assertEquals(archive.getFinishedCount(), restoredArchive.getFinishedCount());
+		assertEquals(southwestLoc.getResidents().size(), restored.getLocationManager().get("Southwest Mountain Apartments").getResidents().size());
+		assertEquals(northLoc.getResidents().size(), restored.getLocationManager().get("North Heights Office Park").getResidents().size());
+		assertEquals(0, restored.getResidentManager().getUpcomingDrives().size());
+	}
+
+	/**
+	 * Returns the records kept by the archive of <tt>city</tt> and the events kept by its Tracer, one to a line, after checking there are some.
+	 */
+	private static String history(City city) throws IOException {
+		List<DriveRecord> records = city.getResidentManager().getArchive().getRecent();
+		assertTrue(records.size() > 0);
+		assertTrue(city.getTracer().size() > 0);
+		StringBuilder out = new StringBuilder();
+		for (DriveRecord record : records){
+			ByteBuffer bytes = ByteBuffer.allocate(DriveRecord.BYTES);
+			record.write(bytes);
+			out.append(Arrays.toString(bytes.array())).append(System.lineSeparator());
+		}
+		city.getTracer().dump(out);
+		return out.toString();
+	}
+
+	@Test
+	public void partitionedFlow() throws IOException {
+		System.out.println("**********************");
+		System.out.println("***** partitioned flow *****");
+		System.out.println("**********************");
+
+		City city = makeCity();
+		TrafficManager traffic = city.getTrafficManager();
+		traffic.setFlowMode(FlowMode.PARTITIONED);
+		city.getRandomManager().setSeed(21L);
+		traffic.setFlowRegions(3);
+		Location southwestLoc = city.getLocationManager().get("Southwest Mountain Apartments");
+		Location southeastLoc = city.getLocationManager().get("Southern Hills Condos");
+		Location northLoc = city.getLocationManager().get("North Heights Office Park");
+		city.getResidentManager().addResidents(Demo.makeBasics(150, southwestLoc, northLoc));
+		city.getResidentManager().addResidents(Demo.makeBasics(150, southeastLoc, northLoc));
+
+		FlowPartition partition = new FlowPartition(city, city.getGraphManager().getCompactGraph(), 3);
+		int flowing = partition.getBoundary().size();
+		for (int r = 0; r < partition.getRegionCount(); r++){
+			assertTrue(partition.getRegion(r).size() > 0);
+			flowing += partition.getRegion(r).size();
+		}
+		assertTrue(partition.getBoundary().size() > 0);
+		assertEquals(city.getGraphManager().getCompactGraph().getDrivableCount(), flowing);
+
+		// two copies of the same city, one flowing its regions on several threads and one on a single thread, end up exactly alike
+		File start = folder.newFile("start.ckp");
+		Checkpoint.save(city, start.toPath());
+		City parallel = Checkpoint.restore(start.toPath());
+		City serial = Checkpoint.restore(start.toPath());
+		assertEquals(FlowMode.PARTITIONED, parallel.getTrafficManager().getFlowMode());
+		assertEquals(21L, parallel.getRandomManager().getSeed());
+		assertEquals(3, parallel.getTrafficManager().getFlowRegions());
+		parallel.getTracer().setTracingAll(true);
+		serial.getTracer().setTracingAll(true);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			parallel.getTrafficManager().setFlowExecutor(executor);
+			LocalDateTime genesis = parallel.getTimeManager().getCurrentTime();
+			while (parallel.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(9))){
+				parallel.advance();
+				serial.advance();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(parallel.getResidentManager().getArchive().getFinishedCount() > 0);
+		assertTrue(parallel.getLocationManager().get("North Heights Office Park").getResidents().size() > 0);
+
+		File parallelEnd = folder.newFile("parallel.ckp");
+		File serialEnd = folder.newFile("serial.ckp");
+		Checkpoint.save(parallel, parallelEnd.toPath());
+		Checkpoint.save(serial, serialEnd.toPath());
+		assertTrue(Arrays.equals(Files.readAllBytes(parallelEnd.toPath()), Files.readAllBytes(serialEnd.toPath())));
+
+		// as do the records and traces, which checkpoints leave out
+		assertEquals(history(serial), history(parallel));
+	}
+
+	@Test
+	public void partitionedBoundary() throws IOException {
+		System.out.println("**********************");
+		System.out.println("***** partitioned boundary *****");
+		System.out.println("**********************");
+
+		// commutes crossing the grid both ways, so Drives reach several boundary edges from different regions in the same step
+		City city = TestRouting.makeGridCity(9);
+		TrafficManager traffic = city.getTrafficManager();
+		traffic.setFlowMode(FlowMode.PARTITIONED);
+		traffic.setFlowRegions(4);
+		LocationManager locations = city.getLocationManager();
+		city.getResidentManager().addResidents(Demo.makeBasics(150, locations.get("Southwest"), locations.get("Northeast")));
+		city.getResidentManager().addResidents(Demo.makeBasics(150, locations.get("Southeast"), locations.get("Northwest")));
+		city.getResidentManager().addResidents(Demo.makeBasics(150, locations.get("Northeast"), locations.get("Southwest")));
+
+		File start = folder.newFile("grid.ckp");
+		Checkpoint.save(city, start.toPath());
+		City parallel = Checkpoint.restore(start.toPath());
+		City serial = Checkpoint.restore(start.toPath());
+		FlowPartition partition = new FlowPartition(parallel, parallel.getGraphManager().getCompactGraph(), 4);
+		int most = 0;
+		parallel.getTracer().setTracingAll(true);
+		serial.getTracer().setTracingAll(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			parallel.getTrafficManager().setFlowExecutor(executor);
+			LocalDateTime genesis = parallel.getTimeManager().getCurrentTime();
+			while (parallel.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(10))){
+				parallel.advance();
+				serial.advance();
+				int holding = 0;
+				for (Drivable edge : partition.getBoundary()){
+					if (edge.getNextFlowTime() != SimTime.NEVER){
+						holding++;
+					}
+				}
+				most = Math.max(most, holding);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(most > 2);
+		assertTrue(parallel.getResidentManager().getArchive().getFinishedCount() > 0);
+
+		File parallelEnd = folder.newFile("grid-parallel.ckp");
+		File serialEnd = folder.newFile("grid-serial.ckp");
+		Checkpoint.save(parallel, parallelEnd.toPath());
+		Checkpoint.save(serial, serialEnd.toPath());
+		assertTrue(Arrays.equals(Files.readAllBytes(parallelEnd.toPath()), Files.readAllBytes(serialEnd.toPath())));
+
+		// as do the records and traces, which checkpoints leave out
+		assertEquals(history(serial), history(parallel));
+	}
+
+	@Test
+	public void seededRuns() throws IOException {
+		System.out.println("**********************");
+		System.out.println("***** seeded runs *****");
+		System.out.println("**********************");
+
+		// cities built the same way with the same seed make the same choices, whatever else has been made before them
+		for (FlowMode mode : FlowMode.values()){
+			byte[][] ends = new byte[3][];
+			for (int i = 0; i < ends.length; i++){
+				City city = makeCity();
+				city.getRandomManager().setSeed(i < 2 ? 5L : 6L);
+				city.getTrafficManager().setFlowMode(mode);
+				Location southwestLoc = city.getLocationManager().get("Southwest Mountain Apartments");
+				Location southeastLoc = city.getLocationManager().get("Southern Hills Condos");
+				Location northLoc = city.getLocationManager().get("North Heights Office Park");
+				city.getResidentManager().addResidents(Demo.makeBasics(100, southwestLoc, northLoc));
+				city.getResidentManager().addResidents(Demo.makeBasics(100, southeastLoc, northLoc));
+				LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+				while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(8))){
+					city.advance();
+				}
+				File end = folder.newFile(mode + "-" + i + ".ckp");
+				Checkpoint.save(city, end.toPath());
+				ends[i] = Files.readAllBytes(end.toPath());
+			}
+			assertTrue(Arrays.equals(ends[0], ends[1]));
+			assertFalse(Arrays.equals(ends[0], ends[2]));
+		}
+	}
+
+	@Test
+	public void seededExits() throws IOException {
+		System.out.println("**********************");
+		System.out.println("***** seeded exits *****");
+		System.out.println("**********************");
+
+		// a Location with two ways onto the road sends Drives out of both the same way in every run with the same seed
+		for (FlowMode mode : FlowMode.values()){
+			byte[][] ends = new byte[2][];
+			for (int i = 0; i < ends.length; i++){
+				City city = makeCity();
+				Set<Lot> lots = new HashSet<>();
+				for (int x = 2; x <= 4; x++){
+					city.getLot(x, 0).makeBuilt();
+					lots.add(city.getLot(x, 0));
+				}
+				Location middleLoc = city.getLocationManager().makeLocation(lots, "Middle Row Townhomes");
+				assertTrue(city.connectLocation(middleLoc, city.getLot(2, 1)));
+				assertTrue(city.connectLocation(middleLoc, city.getLot(4, 1)));
+				city.getGraphManager().updateGraph();
+				city.getRandomManager().setSeed(5L);
+				city.getTrafficManager().setFlowMode(mode);
+				city.getResidentManager().addResidents(
+						Demo.makeBasics(100, middleLoc, city.getLocationManager().get("Southwest Mountain Apartments")));
+				city.getResidentManager().addResidents(
+						Demo.makeBasics(100, middleLoc, city.getLocationManager().get("Southern Hills Condos")));
+				LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+				while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(8))){
+					city.advance();
+				}
+				assertTrue(city.getResidentManager().getArchive().getFinishedCount() > 0);
+				File end = folder.newFile("exits-" + mode + "-" + i + ".ckp");
+				Checkpoint.save(city, end.toPath());
+				ends[i] = Files.readAllBytes(end.toPath());
+			}
+			assertTrue(Arrays.equals(ends[0], ends[1]));
+		}
+	}
+}
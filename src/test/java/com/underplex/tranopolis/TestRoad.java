@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -84,6 +85,19 @@ public class TestRoad {
 		assertEquals(0, roadGraph.inDegreeOf(new Xing(city.getLot(3, 3))));
 		assertEquals(0, roadGraph.outDegreeOf(new Xing(city.getLot(3, 3))));
 
+		// once indexed, every drivable has a dense index, vertices first
+		roadGraph.indexDrivables();
+		assertEquals(14, roadGraph.getDrivableCount());
+		assertEquals(6, roadGraph.getVertexCount());
+		for (Drivable d : roadGraph.vertexSet()){
+			assertTrue(d.getGraphIndex() < 6);
+			assertTrue(d == roadGraph.getDrivable(d.getGraphIndex()));
+		}
+		for (Drivable d : roadGraph.edgeSet()){
+			assertTrue(d.getGraphIndex() >= 6);
+			assertTrue(d == roadGraph.getDrivable(d.getGraphIndex()));
+		}
+
 	}
 
 	@Test
@@ -705,4 +719,79 @@ public class TestRoad {
 				
 	}
 
+
+	@Test
+	public void lengthAndCrowding() {
+		System.out.println("**********************");
+		System.out.println("***** lengthAndCrowding   ****");
+		System.out.println("**********************");
+		
+		City city = new City(5, 5);
+		Xing west = new Xing(city.getLot(0, 0));
+		Xing east = new Xing(city.getLot(4, 0));
+		
+		// a Road is at least the minimum length, and otherwise as long as it's made
+		assertEquals(Road.MINIMUM_ROAD_LENGTH, new Road(west, east, 10.0, 50).getLength(), 0.0);
+		Road road = new Road(west, east, 100.0, 50);
+		assertEquals(100.0, road.getLength(), 0.0);
+		
+		// alone, a Drive goes at the speed limit
+		assertEquals(100.0 / (50.0 / 3.6), road.estimateTravelTime(1), 1e-9);
+		
+		// more Drives never go faster, and once they no longer fit they crawl bumper to bumper instead of taking no time at all
+		double crawl = 100.0 / (Road.MINIMUM_FOLLOW_M / Road.FOLLOW_SECONDS);
+		double last = 0.0;
+		for (int n = 1; n <= 40; n++){
+			double seconds = road.estimateTravelTime(n);
+			assertTrue(seconds >= last);
+			assertTrue(seconds <= crawl);
+			last = seconds;
+		}
+		assertEquals(crawl, road.estimateTravelTime(20), 1e-9);
+		assertEquals(crawl, road.estimateTravelTime(40), 1e-9);
+	}
+	
+	@Test
+	public void batchTake() {
+		
+		City city = TestRouting.makeGridCity(9);
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		GraphPath<Drivable, Drivable> route = city.getGraphManager().getCompactGraph().findShortestPath(sw, ne);
+		Road road = (Road) route.getEdgeList().get(1);
+		Drivable xing = route.getVertexList().get(1);
+		long now = city.getTimeManager().getCurrentSecond();
+		List<Drive> drives = new ArrayList<>();
+		for (Resident rez : Demo.makeBasics(40, sw, ne)){
+			drives.add(new Drive(route, rez, city.getTimeManager().getCurrentTime(), sw, ne));
+		}
+		
+		// a Road takes Drives in order until it's full, and leaves the rest in the batch in order
+		DriveBatch batch = DriveBatch.borrow();
+		batch.addAll(drives.subList(0, 20));
+		int taken = road.take(batch, now);
+		assertTrue(taken > 0 && taken < 20);
+		assertEquals(taken, road.getDrives().size());
+		assertEquals(20 - taken, batch.size());
+		for (int i = 0; i < batch.size(); i++){
+			assertEquals(drives.get(taken + i), batch.get(i));
+		}
+		
+		// a Xing hands Drives on to the Road they turn onto, which has no more room
+		batch.clear();
+		batch.addAll(drives.subList(20, 40));
+		assertEquals(0, xing.take(batch, now));
+		assertEquals(drives.subList(20, 40).size(), batch.size());
+		for (int i = 0; i < batch.size(); i++){
+			assertEquals(drives.get(20 + i), batch.get(i));
+			assertEquals(null, batch.getNext(i));
+		}
+		
+		// batches go back to the pool of the thread for reuse
+		batch.release();
+		DriveBatch again = DriveBatch.borrow();
+		assertTrue(again == batch);
+		assertTrue(again.isEmpty());
+		again.release();
+	}
 }
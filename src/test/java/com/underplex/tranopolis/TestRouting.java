@@ -0,0 +1,483 @@
+package com.underplex.tranopolis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
+import org.junit.Test;
+
+/**
+ * Tests of the ways routes are found over the road graph.
+ */
+public class TestRouting {
+
+	/**
+	 * Returns city with a grid of roads on every other row and column and a location in each corner.
+	 * @param size int odd width and height of city
+	 */
+	static City makeGridCity(int size){
+		City city = new City(size, size);
+
+		for (int x = 0; x < size; x++){
+			for (int y = 1; y < size - 1; y++){
+				if (y % 2 == 1 || (x % 2 == 1 && x < size - 1)){
+					city.getLot(x, y).makePaved();
+				}
+			}
+		}
+
+		String[] names = {"Southwest", "Southeast", "Northwest", "Northeast"};
+		int[][] corners = {{0, 0}, {size - 1, 0}, {0, size - 1}, {size - 1, size - 1}};
+		for (int i = 0; i < corners.length; i++){
+			int x = corners[i][0];
+			int y = corners[i][1];
+			city.getLot(x, y).makeBuilt();
+			Location loc = city.getLocationManager().makeLocation(city.getLot(x, y), names[i]);
+			assertTrue(city.connectLocation(loc, city.getLot(x, y == 0 ? 1 : size - 2)));
+		}
+
+		city.getGraphManager().updateGraph();
+		return city;
+	}
+
+	@Test
+	public void compactGraph() {
+		System.out.println("**********************");
+		System.out.println("***** compactGraph   *****");
+		System.out.println("**********************");
+
+		City city = makeGridCity(9);
+		DrivableGraph graph = city.getRoadGraph();
+		CompactGraph compact = city.getGraphManager().getCompactGraph();
+
+		assertEquals(city.getGraphManager().getVersion(), compact.getVersion());
+		assertEquals(graph.vertexSet().size(), compact.getVertexCount());
+		assertEquals(graph.edgeSet().size(), compact.getEdgeCount());
+
+		for (Drivable v : graph.vertexSet()){
+			int id = compact.vertexId(v);
+			assertEquals(graph.outDegreeOf(v), compact.getOutEnd(id) - compact.getOutStart(id));
+			assertEquals(graph.inDegreeOf(v), compact.getInEnd(id) - compact.getInStart(id));
+			for (int i = compact.getOutStart(id); i < compact.getOutEnd(id); i++){
+				Drivable e = compact.getEdge(compact.getOutEdge(i));
+				assertTrue(graph.getEdgeSource(e) == v);
+			}
+		}
+
+		List<Location> locations = new ArrayList<>(city.getLocationManager().getLocations());
+		for (Location from : locations){
+			for (Location to : locations){
+				if (from == to) continue;
+				GraphPath<Drivable, Drivable> expected = DijkstraShortestPath.findPathBetween(graph, from, to);
+				GraphPath<Drivable, Drivable> actual = compact.findShortestPath(from, to);
+				assertNotNull(actual);
+				assertEquals(expected.getWeight(), actual.getWeight(), 0.0);
+				assertEquals(from, actual.getStartVertex());
+				assertEquals(to, actual.getEndVertex());
+				assertEquals(actual.getEdgeList().size() + 1, actual.getVertexList().size());
+			}
+		}
+
+		// isolated lot has no way out
+		city.getLot(4, 0).makeBuilt();
+		Location isolated = city.getLocationManager().makeLocation(city.getLot(4, 0), "Isolated");
+		city.getGraphManager().updateGraph();
+		assertNull(city.getGraphManager().getCompactGraph().findShortestPath(isolated, locations.get(0)));
+	}
+
+	@Test
+	public void routeCache() {
+		System.out.println("**********************");
+		System.out.println("***** routeCache   *****");
+		System.out.println("**********************");
+
+		City city = makeGridCity(9);
+		RouteCache cache = city.getGraphManager().getRouteCache();
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		Location se = city.getLocationManager().get("Southeast");
+
+		GraphPath<Drivable, Drivable> path = cache.getRoute(sw, ne);
+		assertNotNull(path);
+		long now = city.getTimeManager().getCurrentSecond();
+		assertEquals(city.getGraphManager().getRouter(now).findRoute(sw, ne).getWeight(), path.getWeight(), 1e-9);
+		// same pair shares the same path
+		assertSame(path, cache.getRoute(sw, ne));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+
+		// residents with the same commute share one search
+		Set<Resident> rezs = Demo.makeBasics(20, sw, ne);
+		city.getResidentManager().addResidents(rezs);
+		LocalDateTime seven = city.getTimeManager().getCurrentTime().plusHours(7);
+		for (Resident rez : rezs){
+			assertEquals(1, rez.planDrives(seven, city.getRoadGraph(), seven, seven.plusMinutes(1)).size());
+			assertSame(path, ((BasicResident) rez).toWork);
+		}
+		assertEquals(1, cache.getMisses());
+
+		// new graph, new paths
+		city.getGraphManager().updateGraph();
+		assertEquals(0, cache.size());
+		GraphPath<Drivable, Drivable> newPath = cache.getRoute(sw, ne);
+		assertNotSame(path, newPath);
+		assertTrue(newPath.getGraph() == city.getRoadGraph());
+
+		// least recently used path is dropped
+		RouteCache small = new RouteCache(city.getGraphManager(), 2);
+		GraphPath<Drivable, Drivable> first = small.getRoute(sw, ne);
+		small.getRoute(sw, se);
+		small.getRoute(sw, ne);
+		small.getRoute(ne, se);
+		assertEquals(2, small.size());
+		assertSame(first, small.getRoute(sw, ne));
+		assertEquals(3, small.getMisses());
+		small.getRoute(sw, se);
+		assertEquals(4, small.getMisses());
+
+		// threads asking at once search each pair only once between them, and get the same paths as asking one at a time
+		RouteCache shared = new RouteCache(city.getGraphManager());
+		List<Location> locations = new ArrayList<>(city.getLocationManager().getLocations());
+		List<Callable<GraphPath<Drivable, Drivable>>> tasks = new ArrayList<>();
+		for (int round = 0; round < 50; round++){
+			for (Location from : locations){
+				for (Location to : locations){
+					if (from != to){
+						tasks.add(() -> shared.getRoute(from, to));
+					}
+				}
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<GraphPath<Drivable, Drivable>>> found = executor.invokeAll(tasks);
+			for (int i = 0; i < found.size(); i++){
+				GraphPath<Drivable, Drivable> route = found.get(i).get();
+				assertNotNull(route);
+				Location from = (Location) route.getStartVertex();
+				Location to = (Location) route.getEndVertex();
+				assertSame(shared.getRoute(from, to), route);
+				assertEquals(cache.getRoute(from, to).getWeight(), route.getWeight(), 1e-9);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new AssertionError(e);
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(locations.size() * (locations.size() - 1), shared.getMisses());
+	}
+
+	@Test
+	public void routesByTravelTime() {
+		System.out.println("**********************");
+		System.out.println("***** routesByTravelTime   *****");
+		System.out.println("**********************");
+
+		City city = makeGridCity(11);
+		RouteCache cache = city.getGraphManager().getRouteCache();
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+
+		// paths are weighed in seconds by road length and speed
+		GraphPath<Drivable, Drivable> path = cache.getRoute(sw, ne);
+		double freeFlow = 0.0;
+		for (Drivable e : path.getEdgeList()){
+			freeFlow += ((Road) e).estimateTravelTime(1);
+		}
+		assertEquals(freeFlow, path.getWeight(), 1e-9);
+
+		// crowd a road in the middle of the way
+		Road crowded = (Road) path.getEdgeList().get(path.getEdgeList().size() / 2);
+		DriveBatch drives = new DriveBatch();
+		for (Resident rez : Demo.makeBasics(15, sw, ne)){
+			drives.add(new Drive(path, rez, city.getTimeManager().getCurrentTime(), sw, ne));
+		}
+		crowded.take(drives, city.getTimeManager().getCurrentSecond());
+		assertTrue(crowded.getOccupancy() > 1);
+
+		// paths already found are kept until the graph is weighed again
+		city.getTimeManager().advanceSeconds(60);
+		assertSame(path, cache.getRoute(sw, ne));
+
+		// and then go around the traffic
+		city.getTimeManager().advanceSeconds(cache.getReweighSeconds());
+		GraphPath<Drivable, Drivable> around = cache.getRoute(sw, ne);
+		assertNotSame(path, around);
+		assertFalse(around.getEdgeList().contains(crowded));
+		assertTrue(around.getWeight() >= freeFlow - 1e-9);
+
+		// which is the way Residents planning now take
+		Resident rez = Demo.makeBasics(1, sw, ne).iterator().next();
+		city.getResidentManager().addResidents(Collections.singleton(rez));
+		LocalDateTime seven = city.getTimeManager().getCurrentTime().plusHours(7);
+		assertEquals(1, rez.planDrives(seven, city.getRoadGraph(), seven, seven.plusMinutes(1)).size());
+		assertSame(around, ((BasicResident) rez).toWork);
+	}
+
+	/**
+	 * Drivable that takes all but the last Drive of each batch handed to it and notes down the batches.
+	 */
+	private static class Taker implements Drivable {
+
+		private final List<List<Drive>> handed;
+
+		Taker(List<List<Drive>> handed){
+			this.handed = handed;
+		}
+
+		@Override
+		public int take(DriveBatch drives, long time){
+			List<Drive> batch = new ArrayList<>();
+			for (int i = 0; i < drives.size(); i++){
+				batch.add(drives.get(i));
+			}
+			handed.add(batch);
+			int taken = drives.size() - 1;
+			drives.removeFirst(taken);
+			return taken;
+		}
+
+		@Override
+		public void flow(long time){}
+
+		@Override
+		public int getNumberOfLots(){
+			return 1;
+		}
+
+		@Override
+		public Set<Drive> getDrives(){
+			return Collections.emptySet();
+		}
+
+		@Override
+		public long getNextFlowTime(){
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public void setFlowScheduler(FlowScheduler scheduler){}
+
+		@Override
+		public int getGraphIndex(){
+			return -1;
+		}
+
+		@Override
+		public void setGraphIndex(int index){}
+	}
+
+	@Test
+	public void handOn() {
+		System.out.println("**********************");
+		System.out.println("***** handOn   *****");
+		System.out.println("**********************");
+
+		City city = makeGridCity(5);
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		GraphPath<Drivable, Drivable> path = city.getGraphManager().getRouteCache().getRoute(sw, ne);
+
+		List<List<Drive>> handed = new ArrayList<>();
+		Drivable a = new Taker(handed);
+		Drivable b = new Taker(handed);
+		Drivable[] nexts = {a, b, a, null, b, a};
+		DriveBatch batch = new DriveBatch();
+		List<Drive> drives = new ArrayList<>();
+		for (Resident rez : Demo.makeBasics(nexts.length, sw, ne)){
+			Drive d = new Drive(path, rez, city.getTimeManager().getCurrentTime(), sw, ne);
+			drives.add(d);
+			batch.add(d);
+		}
+		for (int i = 0; i < nexts.length; i++){
+			batch.setNext(i, nexts[i]);
+		}
+
+		// each Drivable gets its Drives in one batch, in order, by when its first Drive comes
+		assertEquals(4, batch.handOn(0L));
+		assertEquals(2, handed.size());
+		assertEquals(Arrays.asList(drives.get(0), drives.get(2), drives.get(5)), handed.get(0));
+		assertEquals(Arrays.asList(drives.get(1), drives.get(4)), handed.get(1));
+
+		// and the last of each is left over, in order, while the one going nowhere counts as taken
+		assertEquals(2, batch.size());
+		assertSame(drives.get(4), batch.get(0));
+		assertSame(drives.get(5), batch.get(1));
+		assertNull(batch.getNext(0));
+		assertNull(batch.getNext(1));
+	}
+
+	/**
+	 * Returns weight of shortest path by Dijkstra's algorithm over <tt>weights</tt>, or infinity if there is none.
+	 */
+	private static double dijkstra(CompactGraph graph, double[] weights, int source, int target){
+		double[] distance = new double[graph.getVertexCount()];
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		MinHeap heap = new MinHeap(graph.getVertexCount());
+		distance[source] = 0.0;
+		heap.offer(source, 0.0);
+		while (!heap.isEmpty()){
+			int v = heap.poll();
+			for (int i = graph.getOutStart(v); i < graph.getOutEnd(v); i++){
+				int e = graph.getOutEdge(i);
+				int w = graph.getEdgeTarget(e);
+				if (distance[v] + weights[e] < distance[w]){
+					distance[w] = distance[v] + weights[e];
+					heap.offer(w, distance[w]);
+				}
+			}
+		}
+		return distance[target];
+	}
+
+	private static void assertFastest(Router router){
+		CompactGraph graph = router.getGraph();
+		double[] weights = new double[graph.getEdgeCount()];
+		for (int e = 0; e < weights.length; e++){
+			weights[e] = router.getWeight(e);
+		}
+		for (int from = 0; from < graph.getVertexCount(); from++){
+			for (int to = 0; to < graph.getVertexCount(); to++){
+				if (from == to) continue;
+				double expected = dijkstra(graph, weights, from, to);
+				GraphPath<Drivable, Drivable> route = router.findRoute(graph.getVertex(from), graph.getVertex(to));
+				if (expected == Double.POSITIVE_INFINITY){
+					assertNull(route);
+				} else {
+					assertNotNull(route);
+					assertEquals(expected, route.getWeight(), 1e-9);
+					double sum = 0.0;
+					for (Drivable e : route.getEdgeList()){
+						sum += router.getWeight(graph.edgeId(e));
+					}
+					assertEquals(sum, route.getWeight(), 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void router() {
+		System.out.println("**********************");
+		System.out.println("***** router   *****");
+		System.out.println("**********************");
+
+		City city = makeGridCity(11);
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		long now = city.getTimeManager().getCurrentSecond();
+
+		Router router = city.getGraphManager().getRouter(now);
+		assertSame(router, city.getGraphManager().getRouter(now));
+		assertFastest(router);
+
+		// weights follow road length and speed, not number of edges
+		GraphPath<Drivable, Drivable> route = router.findRoute(sw, ne);
+		double freeFlow = 0.0;
+		for (Drivable e : route.getEdgeList()){
+			freeFlow += ((Road) e).estimateTravelTime(1);
+		}
+		assertEquals(freeFlow, route.getWeight(), 1e-9);
+
+		// a crowded road on the way is avoided
+		Road crowded = (Road) route.getEdgeList().get(1);
+		Set<Resident> rezs = Demo.makeBasics(15, sw, ne);
+		DriveBatch drives = new DriveBatch();
+		for (Resident rez : rezs){
+			drives.add(new Drive(route, rez, city.getTimeManager().getCurrentTime(), sw, ne));
+		}
+		crowded.take(drives, now);
+		assertTrue(crowded.getOccupancy() > 1);
+		router = city.getGraphManager().getRouter(now + 1);
+		assertTrue(router.findRoute(sw, ne).getWeight() > freeFlow);
+		assertFastest(router);
+
+		// any travel times will do
+		final Random random = new Random(8);
+		final double[] arbitrary = new double[router.getGraph().getEdgeCount()];
+		for (int i = 0; i < arbitrary.length; i++){
+			arbitrary[i] = 1.0 + random.nextDouble() * 500.0;
+		}
+		assertFastest(new Router(router.getGraph(), new TravelTimes(){
+			@Override
+			public double getTravelSeconds(CompactGraph graph, int edgeId, long time) {
+				return arbitrary[edgeId];
+			}
+		}, now));
+	}
+
+	@Test
+	public void contractionHierarchy() {
+		System.out.println("**********************");
+		System.out.println("***** contractionHierarchy   *****");
+		System.out.println("**********************");
+
+		City city = makeGridCity(13);
+		CompactGraph graph = city.getGraphManager().getCompactGraph();
+		Random random = new Random(9);
+		double[] weights = new double[graph.getEdgeCount()];
+		for (int e = 0; e < weights.length; e++){
+			weights[e] = 1.0 + random.nextInt(100);
+		}
+
+		ContractionHierarchy hierarchy = new ContractionHierarchy(graph, weights);
+		for (int from = 0; from < graph.getVertexCount(); from++){
+			for (int to = 0; to < graph.getVertexCount(); to++){
+				if (from == to) continue;
+				double expected = dijkstra(graph, weights, from, to);
+				GraphPath<Drivable, Drivable> path = hierarchy.findShortestPath(graph.getVertex(from), graph.getVertex(to));
+				if (expected == Double.POSITIVE_INFINITY){
+					assertNull(path);
+					continue;
+				}
+				assertNotNull(path);
+				assertEquals(expected, path.getWeight(), 1e-9);
+				// unpacked into consecutive original edges
+				double sum = 0.0;
+				Drivable at = graph.getVertex(from);
+				for (Drivable e : path.getEdgeList()){
+					assertTrue(graph.getGraph().getEdgeSource(e) == at);
+					at = graph.getGraph().getEdgeTarget(e);
+					sum += weights[graph.edgeId(e)];
+				}
+				assertTrue(at == graph.getVertex(to));
+				assertEquals(expected, sum, 1e-9);
+			}
+		}
+
+		// paths from the hierarchy can be driven
+		city.getGraphManager().setUsingHierarchy(true);
+		assertNotNull(city.getGraphManager().getHierarchy());
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		GraphPath<Drivable, Drivable> path = city.getGraphManager().getRouteCache().getRoute(sw, ne);
+		long now = city.getTimeManager().getCurrentSecond();
+		assertEquals(city.getGraphManager().getRouter(now).findRoute(sw, ne).getWeight(), path.getWeight(), 1e-9);
+		new Drive(path, Demo.makeBasics(1, sw, ne).iterator().next(), city.getTimeManager().getCurrentTime(), sw, ne);
+
+		// and are rebuilt with the graph
+		city.getGraphManager().updateGraph();
+		assertTrue(city.getGraphManager().getHierarchy().getGraph() == city.getGraphManager().getCompactGraph());
+		city.getGraphManager().setUsingHierarchy(false);
+		assertNull(city.getGraphManager().getHierarchy());
+	}
+}
@@ -7,7 +7,11 @@ import static org.junit.Assert.assertTrue;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.jgrapht.GraphPath;
@@ -176,18 +180,118 @@ public class TestSimpleTraffic {
 		
 		city.getResidentManager().addUpcomingDrive(drive);
 		
+		// check every cursor lookup against the full route while the drive runs
+		Drive.setCursorChecking(true);
+		try {
+			assertEquals(eastLoc, drive.getCurrentDrivable());
+		
+			LocalDateTime genesis = city.getTimeManager().getCurrentTime();
+			Set<Drive> finished = new HashSet<>();
+			while (drive.getDisposition() != DriveDisposition.FINISHED &&
+					city.getTimeManager().getCurrentTime().isBefore(genesis.plusMinutes(10))){
+				city.advance();
+				finished.addAll(city.getLocationManager().getFinishedDrives());
+				city.getLocationManager().dumpFinishedDrives();
+			}
+		
+			assertEquals(1, finished.size());
+			Drive finishedDrive = new ArrayList<Drive>(finished).get(0);
+			assertEquals(DriveDisposition.FINISHED, finishedDrive.getDisposition());
+			assertEquals(northLoc, finishedDrive.getCurrentDrivable());
+		} finally {
+			Drive.setCursorChecking(false);
+		}
+				
+	}
+
+	@Test
+	public void flowOrder() {
+		
+		City city = new City(5, 5);
+		List<Drivable> xings = new ArrayList<>();
+		for (int x = 0; x < 3; x++){
+			Xing xing = new Xing(city.getLot(x, 0));
+			xing.setGraphIndex(x);
+			xings.add(xing);
+		}
+		FlowOrder order = new FlowOrder(xings);
+		assertEquals(3, order.size());
+		assertEquals(0, order.getActiveCount());
+		for (Drivable xing : xings){
+			order.wake(xing);
+			order.wake(xing);
+		}
+		assertEquals(3, order.getActiveCount());
+		
+		// every order of the three is drawn about as often, as with shuffling a list
+		Map<List<Drivable>, Integer> counts = new HashMap<>();
+		RandomManager randoms = new RandomManager(23L);
+		for (long tick = 0; tick < 60000; tick++){
+			List<Drivable> drawn = Arrays.asList(order.draw(randoms.stream(RandomManager.TRAFFIC, tick)).clone());
+			assertEquals(new HashSet<>(xings), new HashSet<>(drawn));
+			counts.merge(drawn, 1, Integer::sum);
+		}
+		assertEquals(6, counts.size());
+		for (int count : counts.values()){
+			assertTrue(count > 9000 && count < 11000);
+		}
+		
+		// and the same stream draws the same order
+		List<Drivable> first = Arrays.asList(order.draw(randoms.stream(RandomManager.TRAFFIC, 7L)).clone());
+		assertEquals(first, Arrays.asList(order.draw(randoms.stream(RandomManager.TRAFFIC, 7L))));
+		
+		// whatever order the Drivables woke in
+		FlowOrder reversed = new FlowOrder(xings);
+		for (int i = xings.size() - 1; i >= 0; i--){
+			reversed.wake(xings.get(i));
+		}
+		assertEquals(first, Arrays.asList(reversed.draw(randoms.stream(RandomManager.TRAFFIC, 7L))));
+		
+		// Xings never hold Drives, so they go quiet after flowing once
+		order.flow(0L, randoms.stream(RandomManager.TRAFFIC, 0L));
+		assertEquals(0, order.getActiveCount());
+	}
+	
+	@Test
+	public void activeDrivables() {
+		
+		City city = TestRouting.makeGridCity(9);
+		Location sw = city.getLocationManager().get("Southwest");
+		Location ne = city.getLocationManager().get("Northeast");
+		city.getResidentManager().addResidents(Demo.makeBasics(200, sw, ne));
+		TrafficManager traffic = city.getTrafficManager();
+		int drivables = city.getGraphManager().getCompactGraph().getDrivableCount();
+		
+		// nothing to flow before anyone leaves
 		LocalDateTime genesis = city.getTimeManager().getCurrentTime();
-		Set<Drive> finished = new HashSet<>();
-		while (drive.getDisposition() != DriveDisposition.FINISHED &&
-				city.getTimeManager().getCurrentTime().isBefore(genesis.plusMinutes(10))){
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(3))){
 			city.advance();
-			finished.addAll(city.getLocationManager().getFinishedDrives());
-			city.getLocationManager().dumpFinishedDrives();
 		}
+		assertEquals(0, traffic.getActiveCount());
 		
-		assertEquals(1, finished.size());
-		Drive finishedDrive = new ArrayList<Drive>(finished).get(0);
-		assertEquals(DriveDisposition.FINISHED, finishedDrive.getDisposition());
-				
+		// only Drivables with Drives flow during the rush, and every one of those does
+		int most = 0;
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(10))){
+			city.advance();
+			int active = traffic.getActiveCount();
+			most = Math.max(most, active);
+			assertTrue(active < drivables);
+			int holding = 0;
+			for (int i = 0; i < drivables; i++){
+				Drivable d = city.getGraphManager().getCompactGraph().getDrivable(i);
+				if (d.getNextFlowTime() != SimTime.NEVER){
+					holding++;
+				}
+			}
+			assertEquals(holding, active);
+		}
+		assertTrue(most > 0);
+		
+		// and none once everyone is home again
+		while (city.getTimeManager().getCurrentTime().isBefore(genesis.plusHours(30))){
+			city.advance();
+		}
+		assertEquals(400, city.getResidentManager().getArchive().getFinishedCount());
+		assertEquals(0, traffic.getActiveCount());
 	}
 }
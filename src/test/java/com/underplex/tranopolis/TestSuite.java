@@ -7,7 +7,9 @@ import org.junit.runners.Suite;
 
 @Suite.SuiteClasses({
    TestCity.class,
+   TestEventTraffic.class,
    TestRoad.class,
+   TestRouting.class,
    TestSimpleTraffic.class,
    TestTurningTraffic.class,
    TestXingFinder.class
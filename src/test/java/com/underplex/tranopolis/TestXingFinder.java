@@ -1,10 +1,18 @@
 package com.underplex.tranopolis;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
@@ -155,4 +163,184 @@ public class TestXingFinder {
 		assertEquals(2, xings.keySet().size());
 	}
 	
+
+	@Test
+	public void incrementalUpdate() {
+		
+		int size = 11;
+		City city = TestRouting.makeGridCity(size);
+		DrivableGraphManager manager = city.getGraphManager();
+		DrivableGraph graph = city.getRoadGraph();
+		Set<Lot> connections = city.getLocationManager().connectionLots();
+		
+		// a Road away from every change below, which should never be replaced
+		Road kept = null;
+		for (Drivable e : graph.edgeSet()){
+			if (e instanceof Road && !(e instanceof Parking) && ((Road) e).getSegments().contains(city.getLot(size - 2, size - 3))){
+				kept = (Road) e;
+			}
+		}
+		assertNotNull(kept);
+		
+		Random random = new Random(14);
+		for (int i = 0; i < 60; i++){
+			Lot lot = city.getLot(1 + random.nextInt(size - 4), 2 + random.nextInt(size - 4));
+			if (connections.contains(lot)){
+				continue;
+			}
+			if (lot.isPaved()){
+				lot.setValue(0);
+			} else {
+				lot.makePaved();
+			}
+			int version = manager.getVersion();
+			manager.updateLots(Arrays.asList(lot));
+			
+			// the graph is spliced in place, and matches one found from scratch
+			assertSame(graph, city.getRoadGraph());
+			assertEquals(version + 1, manager.getVersion());
+			DrivableGraph fresh = GraphFinder.findDrivableGraph(city);
+			assertEquals(fresh.vertexSet(), graph.vertexSet());
+			assertEquals(fresh.edgeSet(), graph.edgeSet());
+			assertTrue(graph.containsEdge(kept));
+			assertSame(graph.getEdgeSource(kept), kept.getSource());
+			assertEquals(graph.edgeSet().size() + graph.vertexSet().size(), manager.getCompactGraph().getDrivableCount());
+			
+			// indices are still dense with vertices first, and the snapshot made from the last one matches the graph
+			CompactGraph compact = manager.getCompactGraph();
+			assertEquals(graph.vertexSet().size(), compact.getVertexCount());
+			for (Drivable v : graph.vertexSet()){
+				assertSame(v, compact.getVertex(compact.vertexId(v)));
+			}
+			for (Drivable e : graph.edgeSet()){
+				int id = compact.edgeId(e);
+				assertSame(e, compact.getEdge(id));
+				assertSame(graph.getEdgeSource(e), compact.getVertex(compact.getEdgeSource(id)));
+				assertSame(graph.getEdgeTarget(e), compact.getVertex(compact.getEdgeTarget(id)));
+				assertEquals(graph.getEdgeWeight(e), compact.getEdgeWeight(id), 0.0);
+			}
+			for (int v = 0; v < compact.getVertexCount(); v++){
+				for (int k = compact.getOutStart(v); k < compact.getOutEnd(v); k++){
+					assertEquals(v, compact.getEdgeSource(compact.getOutEdge(k)));
+				}
+				assertEquals(graph.outDegreeOf(compact.getVertex(v)), compact.getOutEnd(v) - compact.getOutStart(v));
+			}
+		}
+		
+		// changes can also be given all at once
+		List<Lot> changed = new ArrayList<>();
+		for (int x = 1; x < size - 3; x++){
+			Lot lot = city.getLot(x, 4);
+			lot.makePaved();
+			changed.add(lot);
+		}
+		Set<Drivable> removed = manager.updateLots(changed);
+		DrivableGraph fresh = GraphFinder.findDrivableGraph(city);
+		assertEquals(fresh.vertexSet(), graph.vertexSet());
+		assertEquals(fresh.edgeSet(), graph.edgeSet());
+		for (Drivable d : removed){
+			assertEquals(-1, d.getGraphIndex());
+			assertTrue(!graph.containsVertex(d) && !graph.containsEdge(d));
+		}
+	}
+
+	@Test
+	public void parallelDiscovery() {
+		
+		// random roads wide enough to be split into several tiles, with Locations dotted around them
+		City city = new City(300, 90);
+		Random random = new Random(16);
+		for (Lot lot : city.getLotManager().asSet()){
+			if (random.nextInt(3) > 0){
+				lot.makePaved();
+			}
+		}
+		for (int i = 0; i < 40; i++){
+			Lot lot = city.getLot(random.nextInt(city.getWidth()), random.nextInt(city.getHeight()));
+			if (lot.isPaved()){
+				continue;
+			}
+			lot.makeBuilt();
+			Location loc = city.getLocationManager().makeLocation(lot, "Location " + i);
+			for (Lot n : city.getLotManager().getNeighbors(lot)){
+				city.connectLocation(loc, n);
+			}
+		}
+		
+		DrivableGraph serial = GraphFinder.findDrivableGraph(city);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			DrivableGraph parallel = GraphFinder.findDrivableGraph(city, pool);
+			assertEquals(serial.vertexSet(), parallel.vertexSet());
+			assertEquals(serial.edgeSet(), parallel.edgeSet());
+			serial.indexDrivables();
+			parallel.indexDrivables();
+			assertEquals(serial.getDrivableCount(), parallel.getDrivableCount());
+			for (int i = 0; i < serial.getDrivableCount(); i++){
+				assertEquals(serial.getDrivable(i), parallel.getDrivable(i));
+			}
+			
+			// and both match what the separate steps find
+			Map<Lot, Set<Lot>> xings = GraphFinder.findXingLots(city);
+			xings.putAll(GraphFinder.findEntryPointNeighbors(city));
+			Map<Xing, Set<Lot>> xingMap = GraphFinder.makeXingMap(xings);
+			Set<Road> roads = GraphFinder.findRoadsWithXings(city, xingMap);
+			int parking = 0;
+			for (Drivable e : parallel.edgeSet()){
+				if (e instanceof Parking){
+					parking++;
+				} else {
+					assertTrue(roads.contains(e));
+				}
+			}
+			assertEquals(roads.size(), parallel.edgeSet().size() - parking);
+			assertTrue(parallel.vertexSet().containsAll(xingMap.keySet()));
+			
+			city.getGraphManager().setDiscoveryPool(pool);
+			city.getGraphManager().updateGraph();
+			assertEquals(serial.edgeSet(), city.getRoadGraph().edgeSet());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void neighborMasks() {
+		
+		City city = new City(23, 17, City.DEFAULT_START, true);
+		LotManager lots = city.getLotManager();
+		Random random = new Random(18);
+		for (int i = 0; i < 2000; i++){
+			Lot lot = city.getLot(random.nextInt(city.getWidth()), random.nextInt(city.getHeight()));
+			int value = random.nextInt(3);
+			if (value == 0){
+				lot.setValue(0);
+			} else if (value == 1){
+				lot.makePaved();
+			} else {
+				lot.makeBuilt();
+			}
+		}
+		
+		// masks kept up to date as Lots change match the neighbors themselves
+		for (Lot lot : lots.asSet()){
+			Set<Lot> neighbors = lots.getNeighbors(lot);
+			Set<Lot> paved = GraphFinder.findPavedNeighbors(city, lot);
+			int mask = lots.getPavedMask(lot.getX(), lot.getY());
+			assertEquals(paved.size(), lots.countPavedNeighbors(lot.getX(), lot.getY()));
+			assertEquals(lots.isPaved(lot.getX(), lot.getY() + 1), (mask & LotManager.NORTH) != 0);
+			assertEquals(lots.isPaved(lot.getX(), lot.getY() - 1), (mask & LotManager.SOUTH) != 0);
+			assertEquals(lots.isPaved(lot.getX() - 1, lot.getY()), (mask & LotManager.WEST) != 0);
+			assertEquals(lots.isPaved(lot.getX() + 1, lot.getY()), (mask & LotManager.EAST) != 0);
+			
+			List<Lot> visited = new ArrayList<>();
+			lots.forEachNeighbor(lot.getX(), lot.getY(), (x, y) -> visited.add(lots.getLot(x, y)));
+			assertEquals(neighbors.size(), visited.size());
+			assertTrue(neighbors.containsAll(visited));
+			for (Lot n : visited){
+				assertTrue(lots.areNeighbors(lot, n));
+				assertEquals(n.isPaved(), paved.contains(n));
+			}
+		}
+	}
 }